@@ -0,0 +1,49 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.AuthContext;
+import com.sohoffice.security.authorization.AuthContextBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link AuthorizePipelineStep#execute(AuthContext)} against a {@link SyntheticPolicy}, with the profile
+ * attributes provided by the contributors. The policy is compiled during the setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AuthorizePipelineStepBenchmark {
+
+  private AuthorizePipelineStep step;
+  private AuthContext context;
+
+  @Setup(Level.Trial)
+  public void setUp(SyntheticPolicy policy) {
+    step = new AuthorizePipelineStep();
+    context = AuthContextBuilder.builder()
+            .principals(policy.principals())
+            .authStatementProvider(policy.documentProvider())
+            .request(policy.request())
+            .requestAttributes(Set.of())
+            .requestContributors(List.of())
+            .profileAttributes(Set.of())
+            .profileContributors(policy.contributors())
+            .build();
+    step.execute(context);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public AuthPipelineStepResult singleThreaded() {
+    return step.execute(context);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public AuthPipelineStepResult multiThreaded() {
+    return step.execute(context);
+  }
+}
@@ -0,0 +1,102 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.AuthContextContributor;
+import com.sohoffice.security.authorization.io.AuthDocument;
+import com.sohoffice.security.authorization.util.AttributeBag;
+import com.sohoffice.security.authorization.util.TriStateBoolean;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per statement work of {@link AuthorizePipelineStep} on a compiled {@link SyntheticPolicy}: binding
+ * the candidate statements to the contributed attributes, and checking whether the bound statements complete the
+ * evaluation.
+ * <p>
+ * Checking the completion of a compiled policy should not allocate, read <code>gc.alloc.rate.norm</code> of
+ * {@link #completion()} and {@link #completionExpanded()}, only the iterators of the expressions and the values of
+ * the bound or expanded statements are allocated. Binding allocates only for the statements referencing the
+ * attributes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompletionBenchmark {
+
+  private AuthorizePipelineStep.Adapter adapter;
+  private AttributeBag attributes;
+  private List<AuthStatementToEvaluate> candidates;
+  private List<AuthStatementToEvaluate> bound;
+  private List<AuthStatementToEvaluate> expanded;
+
+  @Setup(Level.Trial)
+  public void setUp(SyntheticPolicy policy) {
+    AuthDocument document = policy.document();
+    CompiledPolicy compiled = CompiledPolicy.compile(document.version(), document.statements());
+    PolicyLookup lookup = compiled.lookup(policy.principals(), policy.request());
+    adapter = new AuthorizePipelineStep.Adapter(policy.principals(), policy.request(), lookup,
+                                               CombiningAlgorithm.DENY_OVERRIDES);
+
+    List<Map.Entry<String, String>> contributed = new ArrayList<>();
+    for (AuthContextContributor contributor : policy.contributors()) {
+      // the synthetic contributors do not read the context
+      contributed.addAll(contributor.contribute(null).attributes());
+    }
+    attributes = AttributeBag.of(contributed);
+    candidates = List.copyOf(lookup.statements());
+    List<AuthStatementToEvaluate> list = new ArrayList<>();
+    for (AuthStatementToEvaluate candidate : candidates) {
+      candidate.enhance(attributes, list::add);
+    }
+    bound = List.copyOf(list);
+    list.clear();
+    for (AuthStatementToEvaluate candidate : candidates) {
+      AuthStatementToEvaluate statement = candidate;
+      for (Map.Entry<String, String> attribute : attributes) {
+        statement = statement.enhance(attribute);
+      }
+      list.add(statement);
+    }
+    expanded = List.copyOf(list);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public int completion() {
+    int completed = 0;
+    for (AuthStatementToEvaluate statement : bound) {
+      if (adapter.isCompleted(statement) != TriStateBoolean.UNDEFINED) {
+        completed++;
+      }
+    }
+    return completed;
+  }
+
+  /**
+   * The same as {@link #completion()}, for the statements expanded one attribute at a time like
+   * {@link IncrementalEvaluator} does, instead of bound.
+   */
+  @Benchmark
+  @Threads(1)
+  public int completionExpanded() {
+    int completed = 0;
+    for (AuthStatementToEvaluate statement : expanded) {
+      if (adapter.isCompleted(statement) != TriStateBoolean.UNDEFINED) {
+        completed++;
+      }
+    }
+    return completed;
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void enhance(Blackhole blackhole) {
+    for (AuthStatementToEvaluate candidate : candidates) {
+      candidate.enhance(attributes, blackhole::consume);
+    }
+  }
+}
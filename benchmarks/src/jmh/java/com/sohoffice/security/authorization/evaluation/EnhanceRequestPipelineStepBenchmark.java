@@ -0,0 +1,48 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.AuthContext;
+import com.sohoffice.security.authorization.AuthContextBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link EnhanceRequestPipelineStep#execute(AuthContext)}, resolving the <code>${org}</code> variable of the
+ * {@link SyntheticPolicy} request with the contributors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EnhanceRequestPipelineStepBenchmark {
+
+  private EnhanceRequestPipelineStep step;
+  private AuthContext context;
+
+  @Setup(Level.Trial)
+  public void setUp(SyntheticPolicy policy) {
+    step = new EnhanceRequestPipelineStep();
+    context = AuthContextBuilder.builder()
+            .principals(policy.principals())
+            .authStatementProvider(policy.documentProvider())
+            .request(policy.unresolvedRequest())
+            .requestAttributes(Set.of())
+            .requestContributors(policy.contributors())
+            .profileAttributes(Set.of())
+            .profileContributors(List.of())
+            .build();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public AuthPipelineStepResult singleThreaded() {
+    return step.execute(context);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public AuthPipelineStepResult multiThreaded() {
+    return step.execute(context);
+  }
+}
@@ -0,0 +1,74 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.AuthContext;
+import com.sohoffice.security.authorization.AuthContextBuilder;
+import com.sohoffice.security.authorization.util.AttributesWithAccessor;
+import com.sohoffice.security.authorization.util.Either;
+import com.sohoffice.security.authorization.util.TriStateBoolean;
+import com.sohoffice.security.authorization.util.WithAccessor;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Measures {@link IncrementalEvaluator#evaluate(AuthContext)} over all statements of a {@link SyntheticPolicy}.
+ * <p>
+ * No expression is ever completed, so every contributor is evaluated and every variable statement is enhanced. This
+ * is the upper bound of the work done by {@link AuthorizePipelineStep} without the candidate lookup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IncrementalEvaluatorBenchmark {
+
+  private IncrementalEvaluator<AuthStatementToEvaluate, Boolean> evaluator;
+  private AuthContext context;
+
+  @Setup(Level.Trial)
+  public void setUp(SyntheticPolicy policy) {
+    Set<AuthStatementToEvaluate> statements = policy.document().statements().stream()
+            .map(AuthStatementToEvaluate::compile)
+            .collect(Collectors.toUnmodifiableSet());
+    evaluator = new IncrementalEvaluator<>(
+            new WithAccessor<>(ctx -> statements, (ctx, ignored) -> ctx),
+            new AttributesWithAccessor<>(AuthContext::profileAttributes, AuthContext::withProfileAttributes),
+            policy.contributors(),
+            new Undecided());
+    context = AuthContextBuilder.builder()
+            .principals(policy.principals())
+            .authStatementProvider(policy.documentProvider())
+            .request(policy.request())
+            .requestAttributes(Set.of())
+            .requestContributors(List.of())
+            .profileAttributes(Set.of())
+            .profileContributors(policy.contributors())
+            .build();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public IncrementalEvaluator.Result<AuthStatementToEvaluate, Boolean> singleThreaded() {
+    return evaluator.evaluate(context);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public IncrementalEvaluator.Result<AuthStatementToEvaluate, Boolean> multiThreaded() {
+    return evaluator.evaluate(context);
+  }
+
+  private static class Undecided implements IncrementalEvaluator.EvaluationResultAdapter<AuthStatementToEvaluate, Boolean> {
+    @Override
+    public TriStateBoolean isCompleted(AuthStatementToEvaluate expression) {
+      return TriStateBoolean.UNDEFINED;
+    }
+
+    @Override
+    public Boolean resultMapper(Either<AuthStatementToEvaluate, AuthStatementToEvaluate> internalResult) {
+      return internalResult.successful();
+    }
+  }
+}
@@ -0,0 +1,151 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.AuthContext;
+import com.sohoffice.security.authorization.AuthContextContributor;
+import com.sohoffice.security.authorization.AuthRequest;
+import com.sohoffice.security.authorization.AuthRequestTarget;
+import com.sohoffice.security.authorization.io.AuthDocument;
+import com.sohoffice.security.authorization.io.AuthDocumentProvider;
+import com.sohoffice.security.authorization.io.AuthEffect;
+import com.sohoffice.security.authorization.io.AuthStatement;
+import com.sohoffice.security.authorization.io.AuthStatementModel;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+
+/**
+ * A synthetic policy shared by the benchmarks.
+ * <p>
+ * Statement {@code i} grants {@code groups/g<i % GROUPS>} the action {@code actions/a<i % ACTIONS>} on
+ * {@code orgs/o<i % ORGANIZATIONS>/projects/p<i>}. The densities decide, per component, how often the literal is
+ * replaced by {@code *} or the organization by <code>${org}</code>. Every 20th statement denies a blacklisted group
+ * which is never requested.
+ * <p>
+ * The request targets the last statement, so the evaluation cannot stop early on a generated match. The principals
+ * include the group of the last statement and {@code principalFanOut - 1} other groups. Contributor 0 provides the
+ * {@code org} attribute of the request, the others provide unrelated attributes. The contributors declare their
+ * attributes and require none, so they are called concurrently.
+ */
+@State(Scope.Benchmark)
+public class SyntheticPolicy {
+
+  static final int ORGANIZATIONS = 100;
+  static final int GROUPS = 1_000;
+  static final int ACTIONS = 10;
+
+  @Param({"10", "1000", "100000"})
+  public int statementCount;
+
+  @Param({"0.0", "0.2"})
+  public double wildcardDensity;
+
+  @Param({"0.0", "0.2"})
+  public double variableDensity;
+
+  @Param({"1", "50"})
+  public int principalFanOut;
+
+  @Param({"1", "4"})
+  public int contributorCount;
+
+  private AuthDocument document;
+  private Set<String> principals;
+  private AuthRequest request;
+  private AuthRequest unresolvedRequest;
+  private List<AuthContextContributor> contributors;
+
+  @Setup(Level.Trial)
+  public void generate() {
+    Random random = new Random(42);
+    List<AuthStatement> statements = new ArrayList<>(statementCount);
+    for (int i = 0; i < statementCount; i++) {
+      String org = random.nextDouble() < variableDensity ? "${org}" : "o" + (i % ORGANIZATIONS);
+      String project = random.nextDouble() < wildcardDensity ? "*" : "p" + i;
+      String group = random.nextDouble() < wildcardDensity ? "*" : "g" + (i % GROUPS);
+      String action = random.nextDouble() < wildcardDensity ? "*" : "a" + (i % ACTIONS);
+      boolean deny = i % 20 == 19;
+      statements.add(AuthStatementModel.of(
+              List.of("orgs/" + org + "/projects/" + project),
+              List.of(deny ? "groups/blacklist" : "groups/" + group),
+              List.of("actions/" + action),
+              deny ? AuthEffect.DENY : AuthEffect.ALLOW,
+              "stmt" + i));
+    }
+    document = new AuthDocument("synthetic-" + statementCount, List.copyOf(statements));
+
+    int last = statementCount - 1;
+    principals = new HashSet<>();
+    principals.add("users/alice");
+    for (int k = 0; k < principalFanOut; k++) {
+      principals.add("groups/g" + Math.floorMod(last - k, GROUPS));
+    }
+
+    String targetOrg = "o" + (last % ORGANIZATIONS);
+    String action = "actions/a" + (last % ACTIONS);
+    request = new AuthRequest(Set.of(
+            new AuthRequestTarget("orgs/" + targetOrg + "/projects/p" + last, action)));
+    unresolvedRequest = new AuthRequest(Set.of(
+            new AuthRequestTarget("orgs/${org}/projects/p" + last, action)));
+
+    contributors = new ArrayList<>(contributorCount);
+    for (int c = 0; c < contributorCount; c++) {
+      String contributorId = "contributor" + c;
+      Map.Entry<String, String> attribute = c == 0 ? Map.entry("org", targetOrg) : Map.entry("attr" + c, "v" + c);
+      contributors.add(new Contributor(contributorId, attribute));
+    }
+  }
+
+  public AuthDocument document() {
+    return document;
+  }
+
+  /**
+   * The provider of the document. It reports the same version on every call, so the compiled policy is reused.
+   */
+  public AuthDocumentProvider documentProvider() {
+    return () -> document;
+  }
+
+  public Set<String> principals() {
+    return principals;
+  }
+
+  /**
+   * The request with the organization resolved.
+   */
+  public AuthRequest request() {
+    return request;
+  }
+
+  /**
+   * The request with the organization left as <code>${org}</code>, to be resolved by the request contributors.
+   */
+  public AuthRequest unresolvedRequest() {
+    return unresolvedRequest;
+  }
+
+  public List<AuthContextContributor> contributors() {
+    return contributors;
+  }
+
+  /**
+   * A contributor providing a single attribute.
+   */
+  private record Contributor(String contributorId, Map.Entry<String, String> attribute)
+          implements AuthContextContributor {
+    @Override
+    public Result contribute(AuthContext input) {
+      return new Result(contributorId, Set.of(attribute));
+    }
+
+    @Override
+    public Set<String> requiredAttributes() {
+      return Set.of();
+    }
+
+    @Override
+    public Set<String> providedAttributes() {
+      return Set.of(attribute.getKey());
+    }
+  }
+}
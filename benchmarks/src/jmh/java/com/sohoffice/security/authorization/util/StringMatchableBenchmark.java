@@ -0,0 +1,58 @@
+package com.sohoffice.security.authorization.util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Compares {@link StringMatchable} with the regex based matching it replaced, where every {@code *} of the pattern
+ * was translated to {@code [^/]+}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StringMatchableBenchmark {
+
+  @Param({"resources/*", "orgs/*/projects/*", "orgs/*/projects/*/files/*", "resources/*-backup-*.tar"})
+  public String pattern;
+
+  @Param({"matching", "mismatching"})
+  public String target;
+
+  private StringMatchable matchable;
+  private Pattern regex;
+  private String value;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    matchable = new StringMatchable(pattern);
+    regex = Pattern.compile(pattern.replace("*", "[^/]+"));
+    String matching = pattern.replace("*", "abcdefgh");
+    value = "matching".equals(target) ? matching : matching + "/extra";
+  }
+
+  @Benchmark
+  @Threads(1)
+  public boolean glob() {
+    return matchable.matches(value);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public boolean regex() {
+    return regex.matcher(value).matches();
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public boolean globMultiThreaded() {
+    return matchable.matches(value);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public boolean regexMultiThreaded() {
+    return regex.matcher(value).matches();
+  }
+}
@@ -0,0 +1,68 @@
+package com.sohoffice.security.authorization;
+
+import com.sohoffice.security.authorization.util.Futures;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * A contributor that contributes asynchronously, for applications looking up the attributes without blocking.
+ * <p>
+ * The asynchronous evaluations, ex: {@link com.sohoffice.security.authorization.evaluation.AuthPipelineStep#executeAsync(AuthContext)},
+ * compose the returned future without blocking. The synchronous evaluations wait for it.
+ */
+public interface AsyncAuthContextContributor extends AuthContextContributor {
+
+  CompletableFuture<Result> contributeAsync(AuthContext input);
+
+  /**
+   * Contribute and wait for the result.
+   */
+  @Override
+  default Result contribute(AuthContext input) {
+    return Futures.join(contributeAsync(input));
+  }
+
+  /**
+   * Adapt a contributor to an {@link AsyncAuthContextContributor}. The declared attributes are kept.
+   *
+   * @param contributor The contributor to adapt, returned as it is if already asynchronous.
+   * @param executor    The executor to call a synchronous contributor, null to call it in the calling thread.
+   * @return The asynchronous contributor
+   */
+  static AsyncAuthContextContributor of(@NotNull AuthContextContributor contributor, Executor executor) {
+    if (contributor instanceof AsyncAuthContextContributor async) {
+      return async;
+    }
+    return new AsyncAuthContextContributor() {
+      @Override
+      public CompletableFuture<Result> contributeAsync(AuthContext input) {
+        if (executor == null) {
+          try {
+            return CompletableFuture.completedFuture(contributor.contribute(input));
+          } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+          }
+        }
+        return CompletableFuture.supplyAsync(() -> contributor.contribute(input), executor);
+      }
+
+      @Override
+      public Result contribute(AuthContext input) {
+        return contributor.contribute(input);
+      }
+
+      @Override
+      public Set<String> requiredAttributes() {
+        return contributor.requiredAttributes();
+      }
+
+      @Override
+      public Set<String> providedAttributes() {
+        return contributor.providedAttributes();
+      }
+    };
+  }
+}
@@ -1,6 +1,7 @@
 package com.sohoffice.security.authorization;
 
 import com.sohoffice.security.authorization.evaluation.AuthStatementToEvaluate;
+import com.sohoffice.security.authorization.evaluation.DecisionTrace;
 import com.sohoffice.security.authorization.io.AuthStatement;
 import io.soabase.recordbuilder.core.RecordBuilder;
 import org.jetbrains.annotations.NotNull;
@@ -21,6 +22,7 @@ import java.util.function.Supplier;
  * @param requestContributors   Contributors to enhance the request.
  * @param profileAttributes     The claim attributes carried by the request.
  * @param profileContributors   Contributors to enhance the claim attributes.
+ * @param trace                 The trace of the decision, null to not trace the request.
  */
 @RecordBuilder
 public record AuthContext(
@@ -38,9 +40,22 @@ public record AuthContext(
         @NotNull
         Set<Map.Entry<String, String>> profileAttributes,
         @NotNull
-        List<AuthContextContributor> profileContributors
+        List<AuthContextContributor> profileContributors,
+        DecisionTrace trace
 ) implements AuthContextBuilder.With {
 
+  /**
+   * The context of a request not traced, the constructor before the trace was added.
+   */
+  public AuthContext(Set<String> principals, Supplier<List<? extends AuthStatement>> authStatementProvider,
+                     Set<AuthStatementToEvaluate> authStatements, AuthRequest request,
+                     Set<Map.Entry<String, String>> requestAttributes, List<AuthContextContributor> requestContributors,
+                     Set<Map.Entry<String, String>> profileAttributes,
+                     List<AuthContextContributor> profileContributors) {
+    this(principals, authStatementProvider, authStatements, request, requestAttributes, requestContributors,
+         profileAttributes, profileContributors, null);
+  }
+
   public Set<AuthRequestTarget> requestTargets() {
     return request.resourceTargets();
   }
@@ -5,11 +5,36 @@ import java.util.Set;
 
 /**
  * An interface for application to contribute to the authorization context.
+ * <p>
+ * A contributor may declare the attribute keys it reads and the attribute keys it contributes. Declared contributors
+ * can be called ahead of time and concurrently, see
+ * {@link com.sohoffice.security.authorization.evaluation.EvaluationOptions#contributorExecutor()}.
  */
 public interface AuthContextContributor {
 
   Result contribute(AuthContext input);
 
+  /**
+   * The attribute keys this contributor reads from the input context.
+   * <p>
+   * A declaring contributor must not depend on any other attribute, nor on the statements or targets being evaluated.
+   * The principals and the other parts of the source context are always available.
+   *
+   * @return The required attribute keys, empty if no attribute is read. Null if undeclared.
+   */
+  default Set<String> requiredAttributes() {
+    return null;
+  }
+
+  /**
+   * The attribute keys this contributor may contribute.
+   *
+   * @return The provided attribute keys. Null if undeclared.
+   */
+  default Set<String> providedAttributes() {
+    return null;
+  }
+
   record Result(
           String contributorId,
           Set<Map.Entry<String, String>> attributes
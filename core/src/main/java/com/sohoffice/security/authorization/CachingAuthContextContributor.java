@@ -0,0 +1,88 @@
+package com.sohoffice.security.authorization;
+
+import com.sohoffice.security.authorization.evaluation.EvaluationOptions;
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * A decorator caching the results of a contributor in a {@link ContributorCache}.
+ * <p>
+ * The key extractor must cover everything the result depends on, ex: the principal whose profile is looked up. A
+ * context with a null key is not cached. On a miss the delegate is called as usual, a stale result is refreshed by
+ * calling the delegate with the refresh executor. The declared attributes of the delegate are kept.
+ */
+public class CachingAuthContextContributor implements AsyncAuthContextContributor {
+  private final String contributorId;
+  private final Function<AuthContext, ?> keyExtractor;
+  private final ContributorCache cache;
+  private final long timeToLiveNanos;
+  private final long staleWhileRevalidateNanos;
+  private final AsyncAuthContextContributor loader;
+  private final AsyncAuthContextContributor refresher;
+
+  /**
+   * Create a decorator refreshing stale results on virtual threads.
+   *
+   * @see #CachingAuthContextContributor(AuthContextContributor, String, Function, ContributorCache, Duration, Duration, Executor)
+   */
+  public CachingAuthContextContributor(@NotNull AuthContextContributor delegate,
+                                       @NotNull String contributorId,
+                                       @NotNull Function<AuthContext, ?> keyExtractor,
+                                       @NotNull ContributorCache cache,
+                                       @NotNull Duration timeToLive,
+                                       @NotNull Duration staleWhileRevalidate) {
+    this(delegate, contributorId, keyExtractor, cache, timeToLive, staleWhileRevalidate,
+         EvaluationOptions.VIRTUAL_THREADS);
+  }
+
+  /**
+   * @param delegate             The contributor to cache
+   * @param contributorId        The id of the contributor in the cache
+   * @param keyExtractor         Extract the cache key from the input context, null to skip the cache.
+   * @param cache                The cache to keep the results
+   * @param timeToLive           How long a result is fresh
+   * @param staleWhileRevalidate How long a stale result is returned while being refreshed, zero to disable.
+   * @param refreshExecutor      The executor to refresh stale results
+   */
+  public CachingAuthContextContributor(@NotNull AuthContextContributor delegate,
+                                       @NotNull String contributorId,
+                                       @NotNull Function<AuthContext, ?> keyExtractor,
+                                       @NotNull ContributorCache cache,
+                                       @NotNull Duration timeToLive,
+                                       @NotNull Duration staleWhileRevalidate,
+                                       @NotNull Executor refreshExecutor) {
+    this.contributorId = contributorId;
+    this.keyExtractor = keyExtractor;
+    this.cache = cache;
+    this.timeToLiveNanos = timeToLive.toNanos();
+    this.staleWhileRevalidateNanos = staleWhileRevalidate.toNanos();
+    this.loader = AsyncAuthContextContributor.of(delegate, null);
+    this.refresher = AsyncAuthContextContributor.of(delegate, refreshExecutor);
+  }
+
+  @Override
+  public CompletableFuture<Result> contributeAsync(AuthContext input) {
+    Object key = keyExtractor.apply(input);
+    if (key == null) {
+      return loader.contributeAsync(input);
+    }
+    return cache.get(new ContributorCache.Key(contributorId, key), timeToLiveNanos, staleWhileRevalidateNanos,
+                     () -> loader.contributeAsync(input),
+                     () -> refresher.contributeAsync(input));
+  }
+
+  @Override
+  public Set<String> requiredAttributes() {
+    return loader.requiredAttributes();
+  }
+
+  @Override
+  public Set<String> providedAttributes() {
+    return loader.providedAttributes();
+  }
+}
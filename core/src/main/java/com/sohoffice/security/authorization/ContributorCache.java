@@ -0,0 +1,175 @@
+package com.sohoffice.security.authorization;
+
+import com.sohoffice.security.authorization.util.SegmentedLruMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A bounded cache of contributor results, used by {@link CachingAuthContextContributor}. A cache may be shared by
+ * multiple contributors.
+ * <p>
+ * The results are keyed by the contributor id and the key extracted by the contributor, ex: the principal. A result
+ * is fresh for the time to live of its contributor. After that it is stale: it is still returned while a single
+ * background refresh replaces it, until the stale-while-revalidate period is over. Concurrent misses of the same key
+ * share a single load. Failed loads are not cached.
+ * <p>
+ * The least recently used results are evicted when the cache is full. The cache is thread-safe.
+ */
+public class ContributorCache {
+  private static final Logger logger = LoggerFactory.getLogger(ContributorCache.class);
+
+  private final LongSupplier nanoTime;
+  private final SegmentedLruMap<Key, Entry> entries;
+  private final ConcurrentMap<Key, CompletableFuture<AuthContextContributor.Result>> loading =
+          new ConcurrentHashMap<>();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder staleHits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder refreshes = new LongAdder();
+
+  /**
+   * @param maximumSize The maximum number of cached results
+   */
+  public ContributorCache(int maximumSize) {
+    this(maximumSize, System::nanoTime);
+  }
+
+  ContributorCache(int maximumSize, LongSupplier nanoTime) {
+    this.nanoTime = nanoTime;
+    this.entries = new SegmentedLruMap<>(maximumSize);
+  }
+
+  /**
+   * Get the cached result, or load it.
+   *
+   * @param key                       The cache key
+   * @param timeToLiveNanos           How long the result is fresh
+   * @param staleWhileRevalidateNanos How long a stale result is returned while being refreshed
+   * @param loader                    Load the result of a miss
+   * @param refresher                 Load the result to replace a stale result, expected to run in background
+   * @return The future of the result
+   */
+  CompletableFuture<AuthContextContributor.Result> get(
+          Key key, long timeToLiveNanos, long staleWhileRevalidateNanos,
+          Supplier<CompletableFuture<AuthContextContributor.Result>> loader,
+          Supplier<CompletableFuture<AuthContextContributor.Result>> refresher) {
+    long now = nanoTime.getAsLong();
+    Entry entry = entries.get(key, it -> it.expiresAt() - now > 0);
+    if (entry == null) {
+      misses.increment();
+      return load(key, timeToLiveNanos, staleWhileRevalidateNanos, loader);
+    }
+    if (entry.staleAt() - now > 0) {
+      hits.increment();
+    } else {
+      staleHits.increment();
+      if (!loading.containsKey(key)) {
+        refreshes.increment();
+        load(key, timeToLiveNanos, staleWhileRevalidateNanos, refresher)
+                .exceptionally(throwable -> {
+                  logger.warn("Failed to refresh the result of contributor {}.", key.contributorId(), throwable);
+                  return null;
+                });
+      }
+    }
+    return CompletableFuture.completedFuture(entry.result());
+  }
+
+  /**
+   * Remove all cached results.
+   */
+  public void invalidateAll() {
+    entries.clear();
+  }
+
+  /**
+   * Remove the cached results of a contributor.
+   */
+  public void invalidate(String contributorId) {
+    entries.removeIf(it -> it.contributorId().equals(contributorId));
+  }
+
+  /**
+   * @return The number of fresh results returned.
+   */
+  public long hitCount() {
+    return hits.sum();
+  }
+
+  /**
+   * @return The number of stale results returned.
+   */
+  public long staleHitCount() {
+    return staleHits.sum();
+  }
+
+  public long missCount() {
+    return misses.sum();
+  }
+
+  /**
+   * @return The number of background refreshes started.
+   */
+  public long refreshCount() {
+    return refreshes.sum();
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  private CompletableFuture<AuthContextContributor.Result> load(
+          Key key, long timeToLiveNanos, long staleWhileRevalidateNanos,
+          Supplier<CompletableFuture<AuthContextContributor.Result>> loader) {
+    CompletableFuture<AuthContextContributor.Result> future = new CompletableFuture<>();
+    CompletableFuture<AuthContextContributor.Result> existing = loading.putIfAbsent(key, future);
+    if (existing != null) {
+      return existing;
+    }
+    CompletableFuture<AuthContextContributor.Result> loaded;
+    try {
+      loaded = loader.get();
+    } catch (RuntimeException e) {
+      loaded = CompletableFuture.failedFuture(e);
+    }
+    loaded.whenComplete((result, throwable) -> {
+      if (throwable == null) {
+        long now = nanoTime.getAsLong();
+        entries.put(key, new Entry(result, now + timeToLiveNanos, now + timeToLiveNanos + staleWhileRevalidateNanos));
+      }
+      loading.remove(key, future);
+      if (throwable == null) {
+        future.complete(result);
+      } else {
+        future.completeExceptionally(throwable);
+      }
+    });
+    return future;
+  }
+
+  /**
+   * The cache key.
+   *
+   * @param contributorId The id of the contributor
+   * @param key           The key extracted by the contributor
+   */
+  record Key(String contributorId, Object key) {
+  }
+
+  /**
+   * A cached result.
+   *
+   * @param result    The contributed result
+   * @param staleAt   When the result becomes stale, in {@link System#nanoTime()}
+   * @param expiresAt When the result expires, in {@link System#nanoTime()}
+   */
+  private record Entry(AuthContextContributor.Result result, long staleAt, long expiresAt) {
+  }
+}
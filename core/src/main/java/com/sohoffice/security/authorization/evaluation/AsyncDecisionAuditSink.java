@@ -0,0 +1,247 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.AuthRequestTarget;
+import com.sohoffice.security.authorization.util.MpscRingBuffer;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link DecisionAuditSink} appending the records to a file from a background thread.
+ * <p>
+ * The deciding threads add the records to a {@link MpscRingBuffer} without locking. The writer thread drains the
+ * buffer in batches and appends each batch with a single write, one JSON object per line. When the buffer is full the
+ * {@link OverflowPolicy} either drops the record or makes the deciding thread wait for the writer.
+ * <p>
+ * A failed write is logged and its records are counted as failed, the writer keeps going with the next batch. Closing
+ * the sink writes the records already buffered, records added concurrently with {@link #close()} may be dropped. The
+ * instance is thread safe and is expected to be shared.
+ */
+public class AsyncDecisionAuditSink implements DecisionAuditSink, Closeable {
+  private static final Logger logger = LoggerFactory.getLogger(AsyncDecisionAuditSink.class);
+  /**
+   * The maximum number of records written at once.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 256;
+  private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final long BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  /**
+   * What to do with a record when the buffer is full.
+   */
+  public enum OverflowPolicy {
+    /**
+     * Drop the record, the deciding thread never waits.
+     */
+    DROP,
+    /**
+     * Wait until the writer frees a slot, every record is written at the cost of the decision latency.
+     */
+    BLOCK
+  }
+
+  private final MpscRingBuffer<DecisionRecord> buffer;
+  private final WritableByteChannel channel;
+  private final int batchSize;
+  private final OverflowPolicy overflowPolicy;
+  private final LongAdder written = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final Thread writer;
+  private volatile boolean closed;
+
+  /**
+   * @param file           The file to append to, created if absent.
+   * @param capacity       The number of records buffered, rounded up to a power of two of at least 2.
+   * @param overflowPolicy What to do when the buffer is full
+   * @throws IOException If the file cannot be opened.
+   */
+  public AsyncDecisionAuditSink(@NotNull Path file, int capacity, @NotNull OverflowPolicy overflowPolicy)
+          throws IOException {
+    this(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND),
+         capacity, DEFAULT_BATCH_SIZE, overflowPolicy);
+  }
+
+  AsyncDecisionAuditSink(WritableByteChannel channel, int capacity, int batchSize, OverflowPolicy overflowPolicy) {
+    this.buffer = new MpscRingBuffer<>(capacity);
+    this.channel = channel;
+    this.batchSize = batchSize;
+    this.overflowPolicy = overflowPolicy;
+    this.writer = Thread.ofPlatform().name("auth-audit-writer").daemon().start(this::run);
+  }
+
+  @Override
+  public void record(DecisionRecord record) {
+    if (closed) {
+      dropped.increment();
+      return;
+    }
+    if (buffer.offer(record)) {
+      return;
+    }
+    if (overflowPolicy == OverflowPolicy.DROP) {
+      dropped.increment();
+      return;
+    }
+    while (!buffer.offer(record)) {
+      if (closed) {
+        dropped.increment();
+        return;
+      }
+      LockSupport.parkNanos(this, BACKOFF_NANOS);
+    }
+  }
+
+  /**
+   * @return The number of records written.
+   */
+  public long writtenCount() {
+    return written.sum();
+  }
+
+  /**
+   * @return The number of records dropped, by a full buffer or a closed sink.
+   */
+  public long droppedCount() {
+    return dropped.sum();
+  }
+
+  /**
+   * @return The number of records lost by failed writes.
+   */
+  public long failedCount() {
+    return failed.sum();
+  }
+
+  /**
+   * Write the buffered records and close the file.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    LockSupport.unpark(writer);
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      channel.close();
+    }
+  }
+
+  private void run() {
+    List<DecisionRecord> batch = new ArrayList<>(batchSize);
+    StringBuilder lines = new StringBuilder();
+    while (true) {
+      // read before draining, the records added before closing are drained by this round
+      boolean closing = closed;
+      batch.clear();
+      buffer.drain(batch::add, batchSize);
+      if (batch.isEmpty()) {
+        if (closing) {
+          return;
+        }
+        LockSupport.parkNanos(this, IDLE_NANOS);
+        continue;
+      }
+      write(batch, lines);
+    }
+  }
+
+  /**
+   * Write a batch, a failure is counted and logged and never stops the writer. Producers blocked by
+   * {@link OverflowPolicy#BLOCK} would otherwise wait until closed.
+   */
+  private void write(List<DecisionRecord> batch, StringBuilder lines) {
+    try {
+      lines.setLength(0);
+      for (DecisionRecord record : batch) {
+        appendJson(lines, record).append('\n');
+      }
+      ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(lines));
+      while (bytes.hasRemaining()) {
+        channel.write(bytes);
+      }
+      written.add(batch.size());
+    } catch (IOException | RuntimeException e) {
+      failed.add(batch.size());
+      logger.warn("Failed to write {} audit records.", batch.size(), e);
+    }
+  }
+
+  static StringBuilder appendJson(StringBuilder sb, DecisionRecord record) {
+    sb.append("{\"timestamp\":").append(record.timestamp()).append(",\"principals\":[");
+    boolean first = true;
+    for (String principal : record.principals()) {
+      if (!first) {
+        sb.append(',');
+      }
+      first = false;
+      appendString(sb, principal);
+    }
+    sb.append("],\"targets\":[");
+    first = true;
+    for (AuthRequestTarget target : record.targets()) {
+      if (!first) {
+        sb.append(',');
+      }
+      first = false;
+      sb.append("{\"resource\":");
+      appendString(sb, target.resource());
+      sb.append(",\"action\":");
+      appendString(sb, target.action());
+      sb.append('}');
+    }
+    sb.append("],\"statement\":");
+    appendString(sb, record.statementId());
+    sb.append(",\"effect\":");
+    appendString(sb, record.effect() == null ? null : record.effect().name());
+    return sb.append(",\"cached\":").append(record.cached())
+            .append(",\"latencyNanos\":").append(record.latencyNanos())
+            .append('}');
+  }
+
+  private static void appendString(StringBuilder sb, String value) {
+    if (value == null) {
+      sb.append("null");
+      return;
+    }
+    sb.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"' -> sb.append("\\\"");
+        case '\\' -> sb.append("\\\\");
+        case '\n' -> sb.append("\\n");
+        case '\r' -> sb.append("\\r");
+        case '\t' -> sb.append("\\t");
+        default -> {
+          if (c < 0x20) {
+            sb.append(String.format("\\u%04x", (int) c));
+          } else {
+            sb.append(c);
+          }
+        }
+      }
+    }
+    sb.append('"');
+  }
+}
@@ -0,0 +1,302 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.AuthContext;
+import com.sohoffice.security.authorization.AuthContextContributor;
+import com.sohoffice.security.authorization.util.AttributesWithAccessor;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Runs the {@link AuthPipelineStep} in order, each step with the context of the previous one.
+ * <p>
+ * The pipeline stops at the first step returning {@link AuthPipelineStepResultStatus#AUTHORIZED} or
+ * {@link AuthPipelineStepResultStatus#STOP}, and returns its result. If every step continues, the result of the last
+ * step is returned. The latency of each stage is recorded, see {@link Stage}, and reported to the
+ * {@link EvaluationMetrics} if any.
+ * <p>
+ * With a prefetch executor, the profile contributors declaring their attributes are started as the pipeline starts,
+ * concurrently with the stages before the authorization, typically {@link EnhanceRequestPipelineStep}. They are
+ * called with the context given to the pipeline, a declaring contributor does not depend on the request. The prefetch
+ * is abandoned if a stage changes the principals or the profile attributes. Prefetched contributors are called even
+ * if the authorization does not need them, ex: the decision is cached or decided before reaching them.
+ * <p>
+ * The pipeline is immutable and thread safe, the instance is expected to be shared.
+ */
+public final class AuthPipeline {
+  private static final Logger logger = LoggerFactory.getLogger(AuthPipeline.class);
+  private static final AttributesWithAccessor<AuthContext> PROFILE_ATTRIBUTES =
+          new AttributesWithAccessor<>(AuthContext::profileAttributes, AuthContext::withProfileAttributes);
+
+  private final List<Stage> stages;
+  private final Executor prefetchExecutor;
+  private final EvaluationMetrics metrics;
+  private final LongSupplier nanoTime;
+
+  /**
+   * @param stages           The stages in the execution order
+   * @param prefetchExecutor The executor to prefetch the profile contributors, null to disable.
+   */
+  public AuthPipeline(@NotNull List<Stage> stages, Executor prefetchExecutor) {
+    this(stages, prefetchExecutor, null);
+  }
+
+  /**
+   * @param stages           The stages in the execution order
+   * @param prefetchExecutor The executor to prefetch the profile contributors, null to disable.
+   * @param metrics          The listener of the stage and the prefetched contributor latencies, null to disable.
+   */
+  public AuthPipeline(@NotNull List<Stage> stages, Executor prefetchExecutor, EvaluationMetrics metrics) {
+    this(stages, prefetchExecutor, metrics, System::nanoTime);
+  }
+
+  AuthPipeline(List<Stage> stages, Executor prefetchExecutor, EvaluationMetrics metrics, LongSupplier nanoTime) {
+    this.stages = List.copyOf(stages);
+    this.prefetchExecutor = prefetchExecutor;
+    this.metrics = metrics;
+    this.nanoTime = nanoTime;
+  }
+
+  /**
+   * Create the pipeline enhancing the request and authorizing it.
+   * <p>
+   * The profile contributors are prefetched on the contributor executor of the options, unless a decision cache is
+   * configured. Prefetching would call the contributors of the cached decisions too.
+   *
+   * @param options The options of the steps
+   * @return The pipeline of {@link EnhanceRequestPipelineStep} and {@link AuthorizePipelineStep}
+   */
+  public static AuthPipeline of(@NotNull EvaluationOptions options) {
+    return new AuthPipeline(List.of(new Stage("enhance-request", new EnhanceRequestPipelineStep(options)),
+                                    new Stage("authorize", new AuthorizePipelineStep(options))),
+                            options.decisionCache() == null ? options.contributorExecutor() : null,
+                            options.metrics());
+  }
+
+  public List<Stage> stages() {
+    return stages;
+  }
+
+  public AuthPipelineStepResult execute(AuthContext ctx) {
+    Prefetch prefetch = Prefetch.start(ctx, prefetchExecutor, metrics);
+    try {
+      AuthPipelineStepResult result = new AuthPipelineStepResult(AuthPipelineStepResultStatus.CONTINUE,
+                                                                 prefetch.context());
+      for (Stage stage : stages) {
+        long start = nanoTime.getAsLong();
+        AuthPipelineStepResultStatus status = null;
+        try {
+          result = stage.step().execute(prefetch.revalidate(result.context()));
+          status = result.status();
+        } finally {
+          record(stage, nanoTime.getAsLong() - start, status);
+        }
+        if (isFinal(stage, result)) {
+          break;
+        }
+      }
+      return prefetch.restore(result);
+    } finally {
+      prefetch.cancel();
+    }
+  }
+
+  /**
+   * Execute the stages without blocking, see {@link AuthPipelineStep#executeAsync(AuthContext)}. The latency of a
+   * stage is measured until its future completes.
+   *
+   * @param ctx The context to execute
+   * @return The future of the result, completed exceptionally if a step fails.
+   */
+  public CompletableFuture<AuthPipelineStepResult> executeAsync(AuthContext ctx) {
+    Prefetch prefetch;
+    try {
+      prefetch = Prefetch.start(ctx, prefetchExecutor, metrics);
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    AuthPipelineStepResult initial = new AuthPipelineStepResult(AuthPipelineStepResultStatus.CONTINUE,
+                                                                prefetch.context());
+    return executeAsync(prefetch, initial, 0)
+            .thenApply(prefetch::restore)
+            .whenComplete((ignored, throwable) -> prefetch.cancel());
+  }
+
+  private CompletableFuture<AuthPipelineStepResult> executeAsync(Prefetch prefetch,
+                                                                 AuthPipelineStepResult previous,
+                                                                 int index) {
+    if (index >= stages.size()) {
+      return CompletableFuture.completedFuture(previous);
+    }
+    Stage stage = stages.get(index);
+    long start = nanoTime.getAsLong();
+    CompletableFuture<AuthPipelineStepResult> future;
+    try {
+      future = stage.step().executeAsync(prefetch.revalidate(previous.context()));
+    } catch (RuntimeException e) {
+      future = CompletableFuture.failedFuture(e);
+    }
+    return future
+            .whenComplete((result, throwable) -> record(stage, nanoTime.getAsLong() - start,
+                                                        result == null ? null : result.status()))
+            .thenCompose(result -> isFinal(stage, result) ?
+                    CompletableFuture.completedFuture(result) : executeAsync(prefetch, result, index + 1));
+  }
+
+  private void record(Stage stage, long nanos, AuthPipelineStepResultStatus status) {
+    stage.record(nanos);
+    if (metrics != null) {
+      metrics.stageCompleted(stage.name(), nanos, status);
+    }
+  }
+
+  private static boolean isFinal(Stage stage, AuthPipelineStepResult result) {
+    if (result.status() == AuthPipelineStepResultStatus.CONTINUE) {
+      return false;
+    }
+    if (logger.isDebugEnabled()) {
+      logger.debug("Stage {} completed the pipeline: {}, statement: {}.", stage.name(), result.status(),
+                   result.statementId());
+    }
+    return true;
+  }
+
+  /**
+   * A named step of the pipeline, with the latency of its executions.
+   * <p>
+   * The latencies are accumulated over all executions of the pipelines using the stage, failed executions included.
+   * The instance is thread safe.
+   */
+  public static final class Stage {
+    private final String name;
+    private final AuthPipelineStep step;
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    public Stage(@NotNull String name, @NotNull AuthPipelineStep step) {
+      this.name = name;
+      this.step = step;
+    }
+
+    public String name() {
+      return name;
+    }
+
+    public AuthPipelineStep step() {
+      return step;
+    }
+
+    /**
+     * @return The number of executions of the stage.
+     */
+    public long executionCount() {
+      return executions.sum();
+    }
+
+    /**
+     * @return The total time of all executions.
+     */
+    public Duration totalTime() {
+      return Duration.ofNanos(totalNanos.sum());
+    }
+
+    /**
+     * @return The longest execution.
+     */
+    public Duration maxTime() {
+      return Duration.ofNanos(maxNanos.get());
+    }
+
+    void record(long nanos) {
+      executions.increment();
+      totalNanos.add(nanos);
+      maxNanos.accumulate(nanos);
+    }
+
+    @Override
+    public String toString() {
+      return "Stage{" + name + ", executions=" + executionCount() + ", total=" + totalTime() + ", max=" +
+              maxTime() + "}";
+    }
+  }
+
+  /**
+   * The profile contributors prefetched by a single execution of the pipeline.
+   */
+  private static final class Prefetch {
+    private final AuthContext source;
+    private final ContributorPrefetch prefetch;
+    private final List<AuthContextContributor> prefetched;
+    private boolean abandoned;
+
+    private Prefetch(AuthContext source, ContributorPrefetch prefetch) {
+      this.source = source;
+      this.prefetch = prefetch;
+      this.prefetched = prefetch == null ? null : prefetch.prefetchedContributors();
+    }
+
+    static Prefetch start(AuthContext source, Executor executor, EvaluationMetrics metrics) {
+      if (executor == null || source.profileContributors() == null || source.profileContributors().isEmpty()) {
+        return new Prefetch(source, null);
+      }
+      // a single declared contributor already runs concurrently with the stages before the authorization
+      return new Prefetch(source, ContributorPrefetch.start(source.profileContributors(), source, PROFILE_ATTRIBUTES,
+                                                            executor, metrics, 1));
+    }
+
+    /**
+     * @return The context with the prefetched contributors.
+     */
+    AuthContext context() {
+      if (prefetch == null || prefetched == source.profileContributors()) {
+        return source;
+      }
+      return source.withProfileContributors(prefetched);
+    }
+
+    /**
+     * Check the prefetch is still valid for the context a stage is executed with.
+     *
+     * @return The context to execute the stage with, the original contributors restored if the prefetch is abandoned.
+     */
+    AuthContext revalidate(AuthContext ctx) {
+      if (prefetch == null || abandoned || ctx.profileContributors() != prefetched) {
+        return ctx;
+      }
+      if (ctx.principals() == source.principals() && ctx.profileAttributes() == source.profileAttributes()) {
+        return ctx;
+      }
+      logger.debug("The principals or the profile attributes are changed, the prefetched contributors are abandoned.");
+      abandoned = true;
+      prefetch.cancel();
+      return ctx.withProfileContributors(source.profileContributors());
+    }
+
+    /**
+     * @return The result with the original contributors, the prefetched contributors are not reusable.
+     */
+    AuthPipelineStepResult restore(AuthPipelineStepResult result) {
+      if (prefetch == null || result.context().profileContributors() != prefetched) {
+        return result;
+      }
+      return new AuthPipelineStepResult(result.status(),
+                                        result.context().withProfileContributors(source.profileContributors()),
+                                        result.statementId());
+    }
+
+    void cancel() {
+      if (prefetch != null) {
+        prefetch.cancel();
+      }
+    }
+  }
+}
@@ -2,7 +2,25 @@ package com.sohoffice.security.authorization.evaluation;
 
 import com.sohoffice.security.authorization.AuthContext;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface AuthPipelineStep {
 
   AuthPipelineStepResult execute(AuthContext ctx);
+
+  /**
+   * Execute the step without blocking on the contributors.
+   * <p>
+   * The default implementation executes the step synchronously and returns a completed future.
+   *
+   * @param ctx The context to execute
+   * @return The future of the step result, completed exceptionally if the step fails.
+   */
+  default CompletableFuture<AuthPipelineStepResult> executeAsync(AuthContext ctx) {
+    try {
+      return CompletableFuture.completedFuture(execute(ctx));
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
 }
@@ -4,7 +4,9 @@ import com.sohoffice.security.authorization.util.Expression;
 import com.sohoffice.security.authorization.util.StringExpression;
 import io.soabase.recordbuilder.core.RecordBuilder;
 
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 @RecordBuilder
 public record AuthRequestTargetToEvaluate(
@@ -36,4 +38,11 @@ public record AuthRequestTargetToEvaluate(
   public boolean isFullyEnhanced() {
     return fullyEnhanced();
   }
+
+  @Override
+  public Set<String> getVariableNames() {
+    Set<String> names = new HashSet<>(resource().getVariableNames());
+    names.addAll(action().getVariableNames());
+    return names;
+  }
 }
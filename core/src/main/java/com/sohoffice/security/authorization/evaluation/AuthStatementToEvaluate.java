@@ -1,30 +1,49 @@
 package com.sohoffice.security.authorization.evaluation;
 
 import com.sohoffice.security.authorization.io.AuthStatement;
+import com.sohoffice.security.authorization.util.AttributeBag;
 import com.sohoffice.security.authorization.util.Expression;
 import com.sohoffice.security.authorization.util.StringMatchableExpression;
 
-import java.util.Map;
-import java.util.Objects;
-import java.util.Set;
-import java.util.function.Predicate;
+import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
  * {@link AuthStatement} object in the process of evaluation.
+ * <p>
+ * Whether the statement is fully enhanced and the variables it references are computed once when it is created, so
+ * checking them while evaluating does not iterate the expressions.
  *
+ * @param fullyEnhanced     Whether all the expressions are fully enhanced
+ * @param variableNames     The variables still referenced by the expressions
+ * @param repeatedVariables The variables referenced by more than one component, or more than once by an expression.
+ *                          They must take the same value at every reference and are expanded rather than bound.
  * @param resources
  * @param principals
  * @param actions
  * @param statement
  */
 public record AuthStatementToEvaluate(
+        boolean fullyEnhanced,
+        Set<String> variableNames,
+        Set<String> repeatedVariables,
         Set<StringMatchableExpression> resources,
         Set<StringMatchableExpression> principals,
         Set<StringMatchableExpression> actions,
         AuthStatement statement
 ) implements Expression<AuthStatementToEvaluate> {
+
+  public AuthStatementToEvaluate(Set<StringMatchableExpression> resources,
+                                 Set<StringMatchableExpression> principals,
+                                 Set<StringMatchableExpression> actions,
+                                 AuthStatement statement) {
+    this(fullyEnhanced(resources) && fullyEnhanced(principals) && fullyEnhanced(actions),
+         variableNames(resources, principals, actions), repeatedVariables(resources, principals, actions),
+         resources, principals, actions, statement);
+  }
+
   @Override
   public AuthStatementToEvaluate enhance(Map.Entry<String, String> attribute) {
     return new AuthStatementToEvaluate(
@@ -40,6 +59,92 @@ public record AuthStatementToEvaluate(
             statement());
   }
 
+  /**
+   * Bind the variables of the statement to the values of the attributes, see
+   * {@link StringMatchableExpression#bind(AttributeBag)}. A multi-valued attribute does not expand the statement, the
+   * statement matches if any of the values matches. All the variables are bound at once, a statement referencing
+   * several attributes does not wait for another round to combine them.
+   * <p>
+   * A bound variable picks its value independently at each reference. A {@link #repeatedVariables()} with multiple
+   * values would match combinations no single value allows, ex: {@code tenants/${t}/users/${t}} matching
+   * {@code tenants/A/users/B}. The statement is expanded with each value of such a variable instead, the extra
+   * statements count against the {@link ExpansionLimit}.
+   *
+   * @param attributes attributes input to enhance the statement
+   * @return The bound statements, the current statement if no variable is bound, or nothing if there is no attribute.
+   */
+  @Override
+  public Stream<AuthStatementToEvaluate> enhance(Collection<Map.Entry<String, String>> attributes) {
+    Stream.Builder<AuthStatementToEvaluate> builder = Stream.builder();
+    enhance(AttributeBag.of(attributes), builder);
+    return builder.build();
+  }
+
+  /**
+   * The same as {@link #enhance(Collection)}, without creating a stream.
+   */
+  @Override
+  public void enhance(AttributeBag attributes, Consumer<? super AuthStatementToEvaluate> consumer) {
+    if (attributes.isEmpty()) {
+      return;
+    }
+    for (String name : repeatedVariables()) {
+      List<String> values = attributes.values(name);
+      if (values.size() > 1) {
+        for (String value : values) {
+          enhance(Map.entry(name, value)).enhance(attributes, consumer);
+        }
+        return;
+      }
+    }
+    consumer.accept(bind(attributes));
+  }
+
+  private AuthStatementToEvaluate bind(AttributeBag bag) {
+    Set<StringMatchableExpression> boundResources = bind(resources(), bag);
+    Set<StringMatchableExpression> boundPrincipals = bind(principals(), bag);
+    Set<StringMatchableExpression> boundActions = bind(actions(), bag);
+    if (boundResources == resources() && boundPrincipals == principals() && boundActions == actions()) {
+      return this;
+    }
+    // binding only removes references, a statement repeating no variable still repeats none
+    return new AuthStatementToEvaluate(
+            fullyEnhanced(boundResources) && fullyEnhanced(boundPrincipals) && fullyEnhanced(boundActions),
+            variableNames(boundResources, boundPrincipals, boundActions),
+            repeatedVariables().isEmpty() ? Set.of()
+                    : repeatedVariables(boundResources, boundPrincipals, boundActions),
+            boundResources, boundPrincipals, boundActions, statement());
+  }
+
+  /**
+   * @return The bound expressions, or the same set if none of them is bound. The bound set is immutable like the
+   * compiled sets, so iterating the expressions of any statement stays cheap.
+   */
+  private static Set<StringMatchableExpression> bind(Set<StringMatchableExpression> expressions, AttributeBag bag) {
+    if (expressions.size() == 1) {
+      StringMatchableExpression expression = expressions.iterator().next();
+      StringMatchableExpression it = expression.bind(bag);
+      return it == expression ? expressions : Set.of(it);
+    }
+    List<StringMatchableExpression> bound = null;
+    for (StringMatchableExpression expression : expressions) {
+      StringMatchableExpression it = expression.bind(bag);
+      if (bound == null && it != expression) {
+        bound = new ArrayList<>(expressions.size());
+        for (StringMatchableExpression previous : expressions) {
+          if (previous == expression) {
+            break;
+          }
+          bound.add(previous);
+        }
+      }
+      if (bound != null) {
+        bound.add(it);
+      }
+    }
+    return bound == null ? expressions : Set.copyOf(bound);
+  }
+
   @Override
   public String getValue() {
     return resources.stream().map(Objects::toString).collect(Collectors.joining(",")) + ";" +
@@ -54,10 +159,82 @@ public record AuthStatementToEvaluate(
 
   @Override
   public boolean isFullyEnhanced() {
-    return Stream.concat(Stream.concat(resources().stream(), principals().stream()), actions().stream())
-            .filter(Predicate.not(StringMatchableExpression::isFullyEnhanced))
-            .findAny()
-            .isEmpty();
+    return fullyEnhanced();
+  }
+
+  @Override
+  public Set<String> getVariableNames() {
+    return variableNames();
+  }
+
+  /**
+   * Hash the statement without the expressions, which are compared by {@link #equals(Object)}. Hashing the sets of
+   * expressions would iterate them every time the statement is added to a set.
+   */
+  @Override
+  public int hashCode() {
+    return 31 * Objects.hashCode(statement()) + Boolean.hashCode(fullyEnhanced());
+  }
+
+  private static boolean fullyEnhanced(Set<StringMatchableExpression> expressions) {
+    for (StringMatchableExpression expression : expressions) {
+      if (!expression.isFullyEnhanced()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static Set<String> variableNames(Set<StringMatchableExpression> resources,
+                                           Set<StringMatchableExpression> principals,
+                                           Set<StringMatchableExpression> actions) {
+    Set<String> names = addVariableNames(addVariableNames(addVariableNames(null, resources), principals), actions);
+    return names == null ? Set.of() : Collections.unmodifiableSet(names);
+  }
+
+  private static Set<String> addVariableNames(Set<String> names, Set<StringMatchableExpression> expressions) {
+    for (StringMatchableExpression expression : expressions) {
+      Set<String> variables = expression.getVariableNames();
+      if (!variables.isEmpty()) {
+        if (names == null) {
+          names = new HashSet<>();
+        }
+        names.addAll(variables);
+      }
+    }
+    return names;
+  }
+
+  private static Set<String> repeatedVariables(Set<StringMatchableExpression> resources,
+                                               Set<StringMatchableExpression> principals,
+                                               Set<StringMatchableExpression> actions) {
+    Set<String> repeated = null;
+    Set<String> previous = null;
+    for (Set<StringMatchableExpression> component : List.of(resources, principals, actions)) {
+      Set<String> referenced = null;
+      for (StringMatchableExpression expression : component) {
+        for (String name : expression.getReferencedNames()) {
+          if (referenced == null) {
+            referenced = new HashSet<>();
+          }
+          referenced.add(name);
+          if (expression.occurrences(name) > 1 || (previous != null && previous.contains(name))) {
+            if (repeated == null) {
+              repeated = new HashSet<>();
+            }
+            repeated.add(name);
+          }
+        }
+      }
+      if (referenced != null) {
+        if (previous == null) {
+          previous = referenced;
+        } else {
+          previous.addAll(referenced);
+        }
+      }
+    }
+    return repeated == null ? Set.of() : Set.copyOf(repeated);
   }
 
   /**
@@ -78,4 +255,26 @@ public record AuthStatementToEvaluate(
                     .collect(Collectors.toSet()),
             stmt);
   }
+
+  /**
+   * initialize {@link AuthStatementToEvaluate} from {@link AuthStatement}, with all templates parsed and the
+   * matchers of static expressions compiled.
+   * <p>
+   * The result is immutable and can be shared between threads.
+   *
+   * @return {@link AuthStatementToEvaluate}
+   */
+  public static AuthStatementToEvaluate compile(AuthStatement stmt) {
+    return new AuthStatementToEvaluate(
+            compile(stmt.getResourcesList()),
+            compile(stmt.getPrincipalsList()),
+            compile(stmt.getActionsList()),
+            stmt);
+  }
+
+  private static Set<StringMatchableExpression> compile(List<String> values) {
+    return values.stream()
+            .map(StringMatchableExpression::compile)
+            .collect(Collectors.toUnmodifiableSet());
+  }
 }
@@ -3,13 +3,21 @@ package com.sohoffice.security.authorization.evaluation;
 import com.sohoffice.security.authorization.AuthContext;
 import com.sohoffice.security.authorization.AuthRequest;
 import com.sohoffice.security.authorization.AuthRequestTarget;
+import com.sohoffice.security.authorization.io.AuthDocument;
+import com.sohoffice.security.authorization.io.AuthDocumentProvider;
 import com.sohoffice.security.authorization.io.AuthEffect;
+import com.sohoffice.security.authorization.io.AuthStatement;
 import com.sohoffice.security.authorization.util.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 /**
  * This pipeline step will get inputs from context and use it to evaluate whether the access request should be granted.
@@ -26,59 +34,303 @@ import java.util.stream.Collectors;
  * Outputs:
  * <ul>
  *   <li> If any evaluated authorization statement matches the authorization target, the access will be
- *   determined by the effect of this statement. </li>
+ *   determined by the effect of the matching statements, combined by the {@link CombiningAlgorithm} of the
+ *   {@link EvaluationOptions}. </li>
  * </ul>
+ * The statements are compiled into a {@link CompiledPolicy} and kept by this step, the instance is expected to be
+ * shared. The compiled policy is reused as long as the provider reports the same version, see
+ * {@link AuthDocumentProvider}. Providers without a version are compiled again whenever they return a different
+ * list instance. A {@link CompiledPolicyProvider} is not compiled, its policy is evaluated as is.
+ * <p>
+ * If a {@link DecisionCache} is configured in {@link EvaluationOptions}, decisions are cached and returned without
+ * evaluation. The context of a cached result is the context before evaluation.
+ * <p>
+ * If {@link EvaluationMetrics} are configured, the decisions, the decision cache lookups and the statements evaluated
+ * are reported, in addition to the metrics of the {@link IncrementalEvaluator}.
+ * <p>
+ * The candidate statements, the matches and the decision are recorded in the {@link DecisionTrace} of the context, if
+ * any. Otherwise a {@link SlowDecisionSampler} may trace the decision, the sampled trace is not part of the result.
+ * <p>
+ * Each decision is audited by the {@link DecisionAuditSink} of {@link EvaluationOptions}, if any. Without an audit
+ * sink, the granted and denied accesses are logged at info level.
  */
 public class AuthorizePipelineStep implements AuthPipelineStep {
   private static final Logger logger = LoggerFactory.getLogger(AuthorizePipelineStep.class);
 
+  private final AtomicReference<PolicySnapshot> snapshot = new AtomicReference<>();
+  private final DecisionCache decisionCache;
+  private final EvaluationOptions options;
+  private final CombiningAlgorithm combiningAlgorithm;
+  private final EvaluationMetrics metrics;
+  private final SlowDecisionSampler slowDecisionSampler;
+  private final DecisionAuditSink auditSink;
+
+  public AuthorizePipelineStep() {
+    this(EvaluationOptions.defaults());
+  }
+
+  public AuthorizePipelineStep(EvaluationOptions options) {
+    this.options = options;
+    this.decisionCache = options.decisionCache();
+    this.combiningAlgorithm = Objects.requireNonNullElse(options.combiningAlgorithm(),
+                                                         CombiningAlgorithm.DENY_OVERRIDES);
+    this.metrics = options.metrics();
+    this.slowDecisionSampler = options.slowDecisionSampler();
+    this.auditSink = options.auditSink();
+  }
+
   @Override
   public AuthPipelineStepResult execute(AuthContext ctx) {
-    // Get all original auth statements
-    Set<AuthStatementToEvaluate> authStatements = ctx.authStatementProvider().get().stream()
-            .map(AuthStatementToEvaluate::ofAuthStatement)
-            .collect(Collectors.toSet());
-    ctx = ctx.withAuthStatements(authStatements);
+    PreparedAuthorization evaluation = prepare(ctx);
+    if (evaluation.cached() != null) {
+      return evaluation.cached();
+    }
+    return complete(evaluation, evaluation.evaluator().evaluate(evaluation.context()));
+  }
+
+  /**
+   * Authorize without blocking on the profile contributors, see {@link IncrementalEvaluator#evaluateAsync(AuthContext)}.
+   */
+  @Override
+  public CompletableFuture<AuthPipelineStepResult> executeAsync(AuthContext ctx) {
+    PreparedAuthorization evaluation;
+    try {
+      evaluation = prepare(ctx);
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    if (evaluation.cached() != null) {
+      return CompletableFuture.completedFuture(evaluation.cached());
+    }
+    return evaluation.evaluator().evaluateAsync(evaluation.context())
+            .thenApply(result -> complete(evaluation, result));
+  }
+
+  private PreparedAuthorization prepare(AuthContext ctx) {
+    long startNanos = auditSink == null ? 0 : System.nanoTime();
+    // Get the compiled auth statements, only the candidates of the request are evaluated
+    CompiledPolicy policy = resolvePolicy(ctx.authStatementProvider());
+    AuthContext source = ctx;
+    DecisionTrace sampled = null;
+    if (ctx.trace() == null && slowDecisionSampler != null) {
+      sampled = slowDecisionSampler.sample();
+      if (sampled != null) {
+        ctx = ctx.withTrace(sampled);
+      }
+    }
+    DecisionTrace trace = ctx.trace();
+    if (trace != null) {
+      trace.request(ctx.principals(), ctx.requestTargets());
+    }
+    DecisionCache.Key cacheKey = null;
+    if (decisionCache != null) {
+      cacheKey = decisionCache.key(policy, ctx);
+      DecisionCache.Decision cached = decisionCache.get(policy, cacheKey);
+      if (metrics != null) {
+        metrics.decisionCacheLookup(cached != null);
+      }
+      if (cached != null) {
+        if (metrics != null) {
+          metrics.decided(cached.status(), cached.statementId());
+        }
+        if (trace != null) {
+          trace.decided(cached.status(), cached.statementId(), true);
+          if (sampled != null) {
+            slowDecisionSampler.completed(sampled);
+          }
+        }
+        record(source, cached.statementId(), cached.effect(), true, startNanos);
+        return new PreparedAuthorization(policy, cacheKey, startNanos, source, null, null, null,
+                                         new AuthPipelineStepResult(cached.status(), source, cached.statementId()));
+      }
+    }
+    PolicyLookup lookup = policy.lookup(ctx.principals(), ctx.request());
+    ctx = ctx.withAuthStatements(lookup.statements());
+    if (trace != null) {
+      for (AuthStatementToEvaluate candidate : lookup.statements()) {
+        trace.candidate(candidate.statement().getIdentifier());
+      }
+    }
 
     // Use IncrementalEvaluator to combine {@link ctx.authStatements()} with profile attributes to authorize resource request
+    Adapter adapter = new Adapter(ctx.principals(), ctx.request(), lookup, combiningAlgorithm, trace);
     IncrementalEvaluator<AuthStatementToEvaluate, AuthorizePipeStepResult> evaluator = new IncrementalEvaluator<>(
             new WithAccessor<>(AuthContext::authStatements, AuthContext::withAuthStatements),
             new AttributesWithAccessor<>(AuthContext::profileAttributes, AuthContext::withProfileAttributes),
             ctx.profileContributors(),
-            new Adapter(ctx.principals(), ctx.request()));
-
-    IncrementalEvaluator.Result<AuthStatementToEvaluate, AuthorizePipeStepResult> result = evaluator.evaluate(ctx);
+            adapter,
+            options);
+    return new PreparedAuthorization(policy, cacheKey, startNanos, ctx, adapter, evaluator, sampled, null);
+  }
 
+  private AuthPipelineStepResult complete(
+          PreparedAuthorization evaluation,
+          IncrementalEvaluator.Result<AuthStatementToEvaluate, AuthorizePipeStepResult> result) {
     AuthPipelineStepResultStatus nextStatus;
     String statementId = null;
+    AuthEffect effect = null;
     if (result.result() != null) {
       nextStatus = AuthPipelineStepResultStatus.fromBoolean(result.result().result());
       statementId = result.result().statementId();
+      effect = result.result().effect();
     } else {
       nextStatus = AuthPipelineStepResultStatus.STOP;
     }
-    return new AuthPipelineStepResult(nextStatus, result.context(), statementId);
+    if (decisionCache != null) {
+      decisionCache.put(evaluation.policy(), evaluation.cacheKey(), nextStatus, statementId, effect);
+    }
+    if (metrics != null) {
+      Adapter adapter = evaluation.adapter();
+      metrics.statementsEvaluated(evaluation.context().authStatements().size(), adapter.scanned, adapter.matched);
+      metrics.decided(nextStatus, statementId);
+    }
+    AuthContext context = result.context();
+    if (context.trace() != null) {
+      context.trace().decided(nextStatus, statementId, false);
+      if (evaluation.sampled() != null) {
+        slowDecisionSampler.completed(evaluation.sampled());
+        context = context.withTrace(null);
+      }
+    }
+    record(context, statementId, effect, false, evaluation.startNanos());
+    return new AuthPipelineStepResult(nextStatus, context, statementId);
+  }
+
+  /**
+   * Audit the decision, or log it if there is no audit sink.
+   *
+   * @param effect The effect of the deciding statement, null if no statement decides.
+   */
+  private void record(AuthContext ctx, String statementId, AuthEffect effect, boolean cached, long startNanos) {
+    if (auditSink == null) {
+      if (effect == AuthEffect.ALLOW && logger.isInfoEnabled()) {
+        logger.info("Access granted by statement: {}", statementId);
+      } else if (effect == AuthEffect.DENY && logger.isInfoEnabled()) {
+        logger.info("Access denied by statement: {}", statementId);
+      }
+      return;
+    }
+    // the record is written later by another thread, the sets of the context may be mutable
+    auditSink.record(new DecisionRecord(System.currentTimeMillis(),
+                                        Set.copyOf(ctx.principals()),
+                                        Set.copyOf(ctx.requestTargets()),
+                                        statementId,
+                                        effect,
+                                        cached,
+                                        System.nanoTime() - startNanos));
+  }
+
+  /**
+   * Get the compiled policy of the provider, compile and swap the snapshot if the provider has changed.
+   */
+  private CompiledPolicy resolvePolicy(Supplier<List<? extends AuthStatement>> provider) {
+    if (provider instanceof CompiledPolicyProvider compiledProvider) {
+      return compiledProvider.compiledPolicy();
+    }
+    PolicySnapshot current = snapshot.get();
+    String version = null;
+    List<? extends AuthStatement> statements;
+    if (provider instanceof AuthDocumentProvider documentProvider) {
+      AuthDocument document = documentProvider.document();
+      version = document.version();
+      statements = document.statements();
+      if (current != null && current.provider() == provider && Objects.equals(current.policy().version(), version)) {
+        return current.policy();
+      }
+    } else {
+      statements = provider.get();
+      if (current != null && current.provider() == provider && current.statements() == statements) {
+        return current.policy();
+      }
+    }
+    CompiledPolicy policy = CompiledPolicy.compile(version, statements);
+    if (logger.isDebugEnabled()) {
+      logger.debug("Compiled policy version: {}, statements: {}.", version, policy.statements().size());
+    }
+    snapshot.set(new PolicySnapshot(provider, statements, policy));
+    return policy;
+  }
+
+  /**
+   * An authorization prepared for evaluation.
+   *
+   * @param policy     The compiled policy
+   * @param cacheKey   The decision cache key, null if the cache is disabled.
+   * @param startNanos The time the authorization started, zero if not audited.
+   * @param context    The context with the candidate statements
+   * @param adapter    The adapter of the evaluator, null if the decision is cached.
+   * @param evaluator  The evaluator of the candidate statements, null if the decision is cached.
+   * @param sampled    The trace of the decision sampled by the {@link SlowDecisionSampler}, null if not sampled.
+   * @param cached     The cached result, null if it must be evaluated.
+   */
+  private record PreparedAuthorization(
+          CompiledPolicy policy,
+          DecisionCache.Key cacheKey,
+          long startNanos,
+          AuthContext context,
+          Adapter adapter,
+          IncrementalEvaluator<AuthStatementToEvaluate, AuthorizePipeStepResult> evaluator,
+          DecisionTrace sampled,
+          AuthPipelineStepResult cached
+  ) {
+  }
+
+  /**
+   * The compiled policy and where it is compiled from.
+   *
+   * @param provider   The provider of the statements
+   * @param statements The statements compiled, compared by identity if the provider is not versioned.
+   * @param policy     The compiled policy
+   */
+  private record PolicySnapshot(
+          Supplier<List<? extends AuthStatement>> provider,
+          List<? extends AuthStatement> statements,
+          CompiledPolicy policy
+  ) {
   }
 
   private record AuthorizePipeStepResult(
           String statementId,
+          AuthEffect effect,
           boolean result
   ) {
   }
 
-  private static class Adapter implements IncrementalEvaluator.EvaluationResultAdapter<AuthStatementToEvaluate, AuthorizePipeStepResult> {
-    private final Set<String> principals;
-    private final Set<String> resources;
-    private final Set<String> actions;
+  static class Adapter implements IncrementalEvaluator.EvaluationResultAdapter<AuthStatementToEvaluate, AuthorizePipeStepResult> {
+    // arrays, matching a statement is done for every candidate and must not create iterators or streams
+    private final String[] principals;
+    private final String[] resources;
+    private final String[] actions;
+    private final PolicyLookup lookup;
+    private final CombiningAlgorithm algorithm;
+    private final Comparator<AuthStatementToEvaluate> precedence;
+    private final DecisionTrace trace;
+    // the statements checked and matched, the adapter is used by one thread at a time
+    private int scanned;
+    private int matched;
+
+    public Adapter(Set<String> principals, AuthRequest request, PolicyLookup lookup, CombiningAlgorithm algorithm) {
+      this(principals, request, lookup, algorithm, null);
+    }
 
-    public Adapter(Set<String> principals, AuthRequest request) {
-      this.principals = principals;
+    /**
+     * @param trace The trace recording the matching statements, null if not traced.
+     */
+    public Adapter(Set<String> principals, AuthRequest request, PolicyLookup lookup, CombiningAlgorithm algorithm,
+                   DecisionTrace trace) {
+      this.trace = trace;
+      this.principals = principals.toArray(String[]::new);
+      this.lookup = lookup;
+      this.algorithm = algorithm;
+      this.precedence = Comparator.comparingInt(it -> lookup.rank(it, algorithm));
       resources = request.resourceTargets().stream()
               .map(AuthRequestTarget::resource)
-              .collect(Collectors.toUnmodifiableSet());
+              .distinct()
+              .toArray(String[]::new);
       actions = request.resourceTargets().stream()
               .map(AuthRequestTarget::action)
-              .collect(Collectors.toUnmodifiableSet());
+              .distinct()
+              .toArray(String[]::new);
     }
 
     @Override
@@ -96,42 +348,44 @@ public class AuthorizePipelineStep implements AuthPipelineStep {
      */
     @Override
     public TriStateBoolean isCompleted(AuthStatementToEvaluate expression) {
-      boolean principalMatched = expression.principals().stream()
-              .filter(StringMatchableExpression::isFullyEnhanced)
-              .map(StringMatchableExpression::toMatchable)
-              .anyMatch(it -> principals.stream().anyMatch(it::matches));
+      scanned++;
+      boolean principalMatched = matchesAny(expression.principals(), principals);
       if (logger.isDebugEnabled()) {
         logger.debug("Principal matched: {}, request: {}, auth: {}", principalMatched, principals,
                      expression.principals());
       }
       if (principalMatched) {
-        boolean resourceMatched = expression.resources().stream()
-                .filter(StringMatchableExpression::isFullyEnhanced)
-                .map(StringMatchableExpression::toMatchable)
-                .anyMatch(it -> resources.stream().anyMatch(it::matches));
+        // the compiled matchers of the policy decide the fully enhanced components
+        boolean resourceMatched = switch (lookup.resourceMatched(expression)) {
+          case TRUE -> true;
+          case FALSE -> false;
+          case UNDEFINED -> matchesAny(expression.resources(), resources);
+        };
         if (logger.isDebugEnabled()) {
           logger.debug("Resource matched: {}, request: {}, auth: {}", resourceMatched, resources,
                        expression.resources());
         }
-        boolean actionMatched = expression.actions().stream()
-                .filter(StringMatchableExpression::isFullyEnhanced)
-                .map(StringMatchableExpression::toMatchable)
-                .anyMatch(it -> actions.stream().anyMatch(it::matches));
+        boolean actionMatched = switch (lookup.actionMatched(expression)) {
+          case TRUE -> true;
+          case FALSE -> false;
+          case UNDEFINED -> matchesAny(expression.actions(), actions);
+        };
         if (logger.isDebugEnabled()) {
           logger.debug("Action matched: {}, request: {}, auth: {}", actionMatched, actions, expression.actions());
         }
         if (resourceMatched && actionMatched) {
+          matched++;
           AuthEffect effect = expression.statement().getEffect();
+          if (trace != null) {
+            trace.matched(expression.statement().getIdentifier(), effect);
+          }
+          if (logger.isDebugEnabled()) {
+            logger.debug("Statement matched: {}, effect: {}", expression.statement().getIdentifier(), effect);
+          }
           switch (effect) {
             case ALLOW:
-              if (logger.isInfoEnabled()) {
-                logger.info("Access granted by statement: {}", expression.statement().getIdentifier());
-              }
               return TriStateBoolean.TRUE;
             case DENY:
-              if (logger.isInfoEnabled()) {
-                logger.info("Access denied by statement: {}", expression.statement().getIdentifier());
-              }
               return TriStateBoolean.FALSE;
             case null:
             default:
@@ -148,12 +402,48 @@ public class AuthorizePipelineStep implements AuthPipelineStep {
       }
     }
 
+    /**
+     * The statements ranked by the compiled policy, see {@link CompiledPolicy}.
+     */
+    @Override
+    public Comparator<AuthStatementToEvaluate> precedence() {
+      return precedence;
+    }
+
+    /**
+     * With {@link CombiningAlgorithm#DENY_OVERRIDES} a pending DENY statement overrides a completed ALLOW statement.
+     * With {@link CombiningAlgorithm#FIRST_APPLICABLE} a pending statement overrides the statements after it.
+     */
+    @Override
+    public boolean overrides(AuthStatementToEvaluate pending, AuthStatementToEvaluate completed) {
+      if (algorithm == CombiningAlgorithm.DENY_OVERRIDES) {
+        return pending.statement().getEffect() == AuthEffect.DENY &&
+                completed.statement().getEffect() != AuthEffect.DENY;
+      }
+      return precedence.compare(pending, completed) < 0;
+    }
+
+    private static boolean matchesAny(Set<StringMatchableExpression> expressions, String[] values) {
+      for (StringMatchableExpression expression : expressions) {
+        if (!expression.isFullyEnhanced()) {
+          continue;
+        }
+        StringMatchableExpression matchable = expression.toMatchable();
+        for (String value : values) {
+          if (matchable.matches(value)) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
     @Override
     public AuthorizePipeStepResult resultMapper(
             Either<AuthStatementToEvaluate, AuthStatementToEvaluate> internalResult) {
-      String identifier = (internalResult.successful()) ?
-              internalResult.success().statement().getIdentifier() : internalResult.failure().statement().getIdentifier();
-      return new AuthorizePipeStepResult(identifier, internalResult.successful());
+      AuthStatement statement = (internalResult.successful()) ?
+              internalResult.success().statement() : internalResult.failure().statement();
+      return new AuthorizePipeStepResult(statement.getIdentifier(), statement.getEffect(), internalResult.successful());
     }
   }
 }
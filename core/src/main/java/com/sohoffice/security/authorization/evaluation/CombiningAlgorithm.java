@@ -0,0 +1,21 @@
+package com.sohoffice.security.authorization.evaluation;
+
+/**
+ * How {@link AuthorizePipelineStep} combines the statements matching a request into a single decision.
+ * <p>
+ * The decision does not depend on the order the statements are evaluated. Among the statements deciding, the one
+ * first in the policy is reported. A matching statement is returned as soon as no pending statement, waiting for the
+ * attributes of the remaining contributors, could still override it.
+ */
+public enum CombiningAlgorithm {
+  /**
+   * Any matching DENY statement denies the access. The access is allowed if an ALLOW statement matches and no DENY
+   * statement can still match. The compiled policy ranks the DENY statements first, a deny stops the evaluation
+   * immediately.
+   */
+  DENY_OVERRIDES,
+  /**
+   * The matching statement first in the policy decides, whatever its effect.
+   */
+  FIRST_APPLICABLE
+}
@@ -0,0 +1,445 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.AuthRequest;
+import com.sohoffice.security.authorization.AuthRequestTarget;
+import com.sohoffice.security.authorization.io.AuthDocument;
+import com.sohoffice.security.authorization.io.AuthEffect;
+import com.sohoffice.security.authorization.io.AuthStatement;
+import com.sohoffice.security.authorization.util.StringMatchableAutomaton;
+
+import java.util.*;
+
+/**
+ * An immutable snapshot of auth statements compiled for evaluation.
+ * <p>
+ * Compilation parses the templates of every statement and compiles the matchers of the static expressions. It is
+ * done once per policy version, and the snapshot is shared by all threads evaluating against this version.
+ * <p>
+ * Statements are identified by their position in the policy.
+ * <ul>
+ *   <li> The fully enhanced resource and action patterns are combined into a {@link StringMatchableAutomaton}, which
+ *   reports the statements matching a request in one pass. </li>
+ *   <li> The patterns with variables are indexed by their leading segments, they are candidates until enhanced. </li>
+ *   <li> The literal principals are interned and indexed by an {@link InvertedIndex}. </li>
+ * </ul>
+ * Together they look up the candidate statements of a request with a few bitset operations.
+ * <p>
+ * The statements are also ranked for the {@link CombiningAlgorithm}, the DENY statements before the others for
+ * {@link CombiningAlgorithm#DENY_OVERRIDES}, in the order they are provided otherwise.
+ * <p>
+ * A compiled policy can be saved to a file and memory-mapped by another process, which serves the lookups from the
+ * file without building the matchers and indexes on the heap, see {@link CompiledPolicySnapshot}. Either way the
+ * policy can be provided directly to {@link AuthorizePipelineStep}, see {@link CompiledPolicyProvider}.
+ */
+public final class CompiledPolicy {
+  private final String version;
+  private final PolicyIndex index;
+  private volatile AuthDocument document;
+  private volatile Set<AuthStatementToEvaluate> statements;
+
+  private CompiledPolicy(String version, PolicyIndex index) {
+    this.version = version;
+    this.index = index;
+  }
+
+  /**
+   * @return The policy served by the index, the document and the statements are only decoded if requested.
+   */
+  static CompiledPolicy of(String version, PolicyIndex index) {
+    return new CompiledPolicy(version, index);
+  }
+
+  /**
+   * Compile the auth statements.
+   *
+   * @param version    The version of the statements, may be null if the provider is not versioned.
+   * @param statements The auth statements
+   * @return The compiled policy
+   */
+  public static CompiledPolicy compile(String version, Collection<? extends AuthStatement> statements) {
+    Builder builder = new Builder(version);
+    for (AuthStatement statement : statements) {
+      builder.add(statement);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Start compiling the statements of a version one by one, see {@link Builder}.
+   *
+   * @param version The version of the statements, may be null if the provider is not versioned.
+   * @return The builder
+   */
+  public static Builder builder(String version) {
+    return new Builder(version);
+  }
+
+  public String version() {
+    return version;
+  }
+
+  /**
+   * @return The version and the statements of the policy, in the order they are provided. The statements of a mapped
+   * policy are all decoded the first time.
+   */
+  public AuthDocument document() {
+    AuthDocument result = document;
+    if (result == null) {
+      synchronized (this) {
+        result = document;
+        if (result == null) {
+          List<AuthStatement> authStatements = new ArrayList<>(index.size());
+          for (int id = 0; id < index.size(); id++) {
+            authStatements.add(index.statement(id).statement());
+          }
+          result = new AuthDocument(version, Collections.unmodifiableList(authStatements));
+          document = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return The names of all variables referenced by the statements.
+   */
+  public Set<String> variableNames() {
+    return index.variableNames();
+  }
+
+  /**
+   * @return The compiled statements, in the order they are provided. The statements of a mapped policy are all
+   * decoded the first time.
+   */
+  public Set<AuthStatementToEvaluate> statements() {
+    Set<AuthStatementToEvaluate> result = statements;
+    if (result == null) {
+      synchronized (this) {
+        result = statements;
+        if (result == null) {
+          Set<AuthStatementToEvaluate> compiled = new LinkedHashSet<>();
+          for (int id = 0; id < index.size(); id++) {
+            compiled.add(index.statement(id));
+          }
+          result = Collections.unmodifiableSet(compiled);
+          statements = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Find the statements that could match the principals and the requested resources and actions.
+   * <p>
+   * Statements are only excluded if one of their components cannot match the request, whatever the attributes
+   * contributed later. The result is still to be evaluated.
+   *
+   * @param principals The principals requesting the access
+   * @param request    The access request
+   * @return The candidate statements, in the order they are provided.
+   */
+  public Set<AuthStatementToEvaluate> candidates(Set<String> principals, AuthRequest request) {
+    return lookup(principals, request).statements();
+  }
+
+  /**
+   * Look up the request in the compiled matchers and indexes.
+   */
+  PolicyLookup lookup(Set<String> principals, AuthRequest request) {
+    int size = index.size();
+    BitSet resourceMatches = new BitSet(size);
+    BitSet actionMatches = new BitSet(size);
+    BitSet ids = new BitSet(size);
+    for (AuthRequestTarget target : request.resourceTargets()) {
+      index.matchResource(target.resource(), resourceMatches, ids);
+      index.matchAction(target.action(), actionMatches);
+    }
+    ids.or(resourceMatches);
+    if (!ids.isEmpty()) {
+      BitSet principalIds = new BitSet(size);
+      index.collectPrincipals(principals, principalIds);
+      ids.and(principalIds);
+    }
+    if (!ids.isEmpty()) {
+      BitSet actionIds = new BitSet(size);
+      index.collectPendingActions(actionIds);
+      actionIds.or(actionMatches);
+      ids.and(actionIds);
+    }
+    Set<AuthStatementToEvaluate> candidates = new LinkedHashSet<>();
+    for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+      candidates.add(index.statement(id));
+    }
+    return new PolicyLookup(this, Collections.unmodifiableSet(candidates), resourceMatches, actionMatches);
+  }
+
+  PolicyIndex index() {
+    return index;
+  }
+
+  /**
+   * @return The number of statements, the ids are from 0 to the size excluded.
+   */
+  int size() {
+    return index.size();
+  }
+
+  /**
+   * @return The compiled statement of the id.
+   */
+  AuthStatementToEvaluate statement(int id) {
+    return index.statement(id);
+  }
+
+  /**
+   * @return The id of the statement, or -1 if the statement is not part of this policy.
+   */
+  int idOf(AuthStatement statement) {
+    return index.idOf(statement);
+  }
+
+  /**
+   * @return The rank of the statement by the algorithm, lower ranks decide first.
+   */
+  int rank(int id, CombiningAlgorithm algorithm) {
+    return algorithm == CombiningAlgorithm.DENY_OVERRIDES ? index.denyFirstRank(id) : id;
+  }
+
+  /**
+   * @return True if all resource patterns of the statement are fully enhanced at compile time.
+   */
+  boolean hasStaticResources(int id) {
+    return index.hasStaticResources(id);
+  }
+
+  /**
+   * @return True if all action patterns of the statement are fully enhanced at compile time.
+   */
+  boolean hasStaticActions(int id) {
+    return index.hasStaticActions(id);
+  }
+
+  /**
+   * Compile the statements of a policy one by one.
+   * <p>
+   * Each statement is compiled and indexed as soon as it is added, the caller does not need to hold all the
+   * statements, ex: when they are streamed by {@link CompiledPolicyLoader}. The statements are identified by the
+   * order they are added.
+   * <p>
+   * The builder is not thread-safe, and can only build one policy.
+   */
+  public static final class Builder {
+    private final String version;
+    private final List<AuthStatementToEvaluate> statements = new ArrayList<>();
+    private final Map<AuthStatement, Integer> ids = new IdentityHashMap<>();
+    private final StringMatchableAutomaton resourceMatcher = new StringMatchableAutomaton();
+    private final StringMatchableAutomaton pendingResources = new StringMatchableAutomaton();
+    private final StringMatchableAutomaton actionMatcher = new StringMatchableAutomaton();
+    private final BitSet pendingActions = new BitSet();
+    private final BitSet staticResources = new BitSet();
+    private final BitSet staticActions = new BitSet();
+    private final InvertedIndex principalIndex = new InvertedIndex(new SymbolTable());
+    private final Set<String> variables = new HashSet<>();
+    private boolean built;
+
+    private Builder(String version) {
+      this.version = version;
+    }
+
+    /**
+     * Compile and add a statement.
+     *
+     * @param statement The auth statement
+     * @return This builder
+     */
+    public Builder add(AuthStatement statement) {
+      return add(AuthStatementToEvaluate.compile(statement));
+    }
+
+    /**
+     * Add a statement compiled by {@link AuthStatementToEvaluate#compile(AuthStatement)}.
+     */
+    Builder add(AuthStatementToEvaluate compiled) {
+      if (built) {
+        throw new IllegalStateException("The policy is already built.");
+      }
+      int id = statements.size();
+      statements.add(compiled);
+      variables.addAll(compiled.variableNames());
+      AuthStatement statement = compiled.statement();
+      ids.put(statement, id);
+      boolean allStatic = true;
+      for (String resource : statement.getResourcesList()) {
+        int variable = resource.indexOf("${");
+        if (variable < 0) {
+          resourceMatcher.add(resource, id);
+        } else {
+          // a variable may expand to any number of segments, the leading segments before it are still indexed.
+          pendingResources.addPrefix(resource.substring(0, Math.max(resource.lastIndexOf('/', variable), 0)), id);
+          allStatic = false;
+        }
+      }
+      staticResources.set(id, allStatic);
+      allStatic = true;
+      for (String action : statement.getActionsList()) {
+        if (action.contains("${")) {
+          pendingActions.set(id);
+          allStatic = false;
+        } else {
+          actionMatcher.add(action, id);
+        }
+      }
+      staticActions.set(id, allStatic);
+      for (String principal : statement.getPrincipalsList()) {
+        principalIndex.add(principal, id);
+      }
+      return this;
+    }
+
+    /**
+     * @return The number of statements added so far.
+     */
+    public int size() {
+      return statements.size();
+    }
+
+    /**
+     * @return The compiled policy of the statements added.
+     */
+    public CompiledPolicy build() {
+      if (built) {
+        throw new IllegalStateException("The policy is already built.");
+      }
+      built = true;
+      return new CompiledPolicy(version, new HeapIndex(this));
+    }
+  }
+
+  /**
+   * The matchers and indexes built on the heap.
+   */
+  static final class HeapIndex implements PolicyIndex {
+    private final AuthStatementToEvaluate[] statementArray;
+    private final Map<AuthStatement, Integer> ids;
+    private final StringMatchableAutomaton resourceMatcher;
+    private final StringMatchableAutomaton pendingResources;
+    private final StringMatchableAutomaton actionMatcher;
+    private final BitSet pendingActions;
+    private final BitSet staticResources;
+    private final BitSet staticActions;
+    private final InvertedIndex principalIndex;
+    private final Set<String> variableNames;
+    /**
+     * The rank of each statement with the DENY statements first, indexed by id.
+     */
+    private final int[] denyFirstRanks;
+
+    private HeapIndex(Builder builder) {
+      this.statementArray = builder.statements.toArray(new AuthStatementToEvaluate[0]);
+      this.ids = builder.ids;
+      this.resourceMatcher = builder.resourceMatcher;
+      this.pendingResources = builder.pendingResources;
+      this.actionMatcher = builder.actionMatcher;
+      this.pendingActions = builder.pendingActions;
+      this.staticResources = builder.staticResources;
+      this.staticActions = builder.staticActions;
+      this.principalIndex = builder.principalIndex;
+      this.variableNames = Set.copyOf(builder.variables);
+      this.denyFirstRanks = denyFirstRanks(statementArray);
+    }
+
+    private static int[] denyFirstRanks(AuthStatementToEvaluate[] statementArray) {
+      int[] denyFirstRanks = new int[statementArray.length];
+      int rank = 0;
+      for (int id = 0; id < statementArray.length; id++) {
+        if (statementArray[id].statement().getEffect() == AuthEffect.DENY) {
+          denyFirstRanks[id] = rank++;
+        }
+      }
+      for (int id = 0; id < statementArray.length; id++) {
+        if (statementArray[id].statement().getEffect() != AuthEffect.DENY) {
+          denyFirstRanks[id] = rank++;
+        }
+      }
+      return denyFirstRanks;
+    }
+
+    @Override
+    public int size() {
+      return statementArray.length;
+    }
+
+    @Override
+    public AuthStatementToEvaluate statement(int id) {
+      return statementArray[id];
+    }
+
+    @Override
+    public int idOf(AuthStatement statement) {
+      Integer id = ids.get(statement);
+      return id == null ? -1 : id;
+    }
+
+    @Override
+    public int denyFirstRank(int id) {
+      return denyFirstRanks[id];
+    }
+
+    @Override
+    public boolean hasStaticResources(int id) {
+      return staticResources.get(id);
+    }
+
+    @Override
+    public boolean hasStaticActions(int id) {
+      return staticActions.get(id);
+    }
+
+    @Override
+    public Set<String> variableNames() {
+      return variableNames;
+    }
+
+    @Override
+    public void matchResource(String resource, BitSet matches, BitSet pending) {
+      resourceMatcher.matches(resource, matches);
+      pendingResources.matches(resource, pending);
+    }
+
+    @Override
+    public void matchAction(String action, BitSet matches) {
+      actionMatcher.matches(action, matches);
+    }
+
+    @Override
+    public void collectPendingActions(BitSet out) {
+      out.or(pendingActions);
+    }
+
+    @Override
+    public void collectPrincipals(Set<String> principals, BitSet out) {
+      principalIndex.collect(principals, out);
+    }
+
+    StringMatchableAutomaton resourceMatcher() {
+      return resourceMatcher;
+    }
+
+    StringMatchableAutomaton pendingResources() {
+      return pendingResources;
+    }
+
+    StringMatchableAutomaton actionMatcher() {
+      return actionMatcher;
+    }
+
+    BitSet pendingActions() {
+      return pendingActions;
+    }
+
+    InvertedIndex principalIndex() {
+      return principalIndex;
+    }
+  }
+}
@@ -0,0 +1,249 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.util.JsonFormat;
+import com.sohoffice.security.authorization.io.AuthStatementModel;
+import com.sohoffice.security.authorization.io.AuthStatementPb;
+import com.sohoffice.security.authorization.util.Futures;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Compiles a policy streamed from a file, without materializing the document first.
+ * <p>
+ * Two formats are supported, each entry is one {@link AuthStatementPb} in the order of the policy:
+ * <ul>
+ *   <li> Length-delimited binary, as written by {@link AuthStatementPb#writeDelimitedTo(OutputStream)}. </li>
+ *   <li> JSON lines, one statement per line in the protobuf JSON mapping, see {@link JsonFormat}. Blank lines are
+ *   skipped. </li>
+ * </ul>
+ * Policy files are recognized by their extension, {@value #DELIMITED_EXTENSION} for the length-delimited binary and
+ * {@value #JSON_LINES_EXTENSION} for the JSON lines.
+ * <p>
+ * The entries are read in batches and added to a {@link CompiledPolicy.Builder} in order. With an executor, the
+ * batches are parsed and compiled in parallel while the next batches are read, at most {@code parallelism} batches
+ * are in flight. The memory used by the loading is bounded by the batch size, besides the compiled policy itself.
+ * <p>
+ * The loader is immutable and thread safe.
+ */
+public final class CompiledPolicyLoader {
+  public static final String DELIMITED_EXTENSION = ".binpb";
+  public static final String JSON_LINES_EXTENSION = ".jsonl";
+  private static final int DEFAULT_BATCH_SIZE = 1024;
+
+  private final Executor executor;
+  private final int parallelism;
+  private final int batchSize;
+  private final JsonFormat.Parser jsonParser = JsonFormat.parser();
+
+  /**
+   * Create a loader parsing on the calling thread.
+   */
+  public CompiledPolicyLoader() {
+    this(null, 1);
+  }
+
+  /**
+   * @param executor    The executor to parse and compile the batches, null to parse on the calling thread.
+   * @param parallelism The maximum number of batches in flight.
+   */
+  public CompiledPolicyLoader(Executor executor, int parallelism) {
+    this(executor, parallelism, DEFAULT_BATCH_SIZE);
+  }
+
+  CompiledPolicyLoader(Executor executor, int parallelism, int batchSize) {
+    if (parallelism < 1 || batchSize < 1) {
+      throw new IllegalArgumentException("Parallelism and batch size must be positive.");
+    }
+    this.executor = executor;
+    this.parallelism = parallelism;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Load the length-delimited statements.
+   *
+   * @param version The version of the statements
+   * @param in      The stream of the statements, not closed by this method.
+   * @return The compiled policy
+   * @throws IOException If the stream cannot be read, or a statement cannot be parsed.
+   */
+  public CompiledPolicy loadDelimited(String version, @NotNull InputStream in) throws IOException {
+    CompiledPolicy.Builder builder = CompiledPolicy.builder(version);
+    loadDelimited(builder, in);
+    return builder.build();
+  }
+
+  /**
+   * Load the statements in JSON lines.
+   *
+   * @param version The version of the statements
+   * @param reader  The reader of the statements, not closed by this method.
+   * @return The compiled policy
+   * @throws IOException If the reader fails, or a statement cannot be parsed.
+   */
+  public CompiledPolicy loadJsonLines(String version, @NotNull Reader reader) throws IOException {
+    CompiledPolicy.Builder builder = CompiledPolicy.builder(version);
+    loadJsonLines(builder, reader);
+    return builder.build();
+  }
+
+  /**
+   * Load a policy file, in the format of its extension.
+   *
+   * @param version The version of the statements
+   * @param file    The policy file
+   * @return The compiled policy
+   * @throws IOException If the file cannot be read, or a statement cannot be parsed.
+   */
+  public CompiledPolicy load(String version, @NotNull Path file) throws IOException {
+    CompiledPolicy.Builder builder = CompiledPolicy.builder(version);
+    load(builder, file);
+    return builder.build();
+  }
+
+  /**
+   * @return True if the file has the extension of a policy file.
+   */
+  public static boolean isPolicyFile(@NotNull Path file) {
+    String name = file.getFileName().toString();
+    return name.endsWith(DELIMITED_EXTENSION) || name.endsWith(JSON_LINES_EXTENSION);
+  }
+
+  /**
+   * Add the statements of a policy file to the builder, after the statements already added.
+   */
+  void load(CompiledPolicy.Builder builder, Path file) throws IOException {
+    String name = file.getFileName().toString();
+    if (name.endsWith(JSON_LINES_EXTENSION)) {
+      try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+        loadJsonLines(builder, reader);
+      }
+    } else if (name.endsWith(DELIMITED_EXTENSION)) {
+      try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+        loadDelimited(builder, in);
+      }
+    } else {
+      throw new IOException("Unknown policy file format: " + file);
+    }
+  }
+
+  private void loadDelimited(CompiledPolicy.Builder builder, InputStream in) throws IOException {
+    load(builder, () -> readDelimited(in), AuthStatementPb::parseFrom);
+  }
+
+  private void loadJsonLines(CompiledPolicy.Builder builder, Reader reader) throws IOException {
+    BufferedReader lines = reader instanceof BufferedReader buffered ? buffered : new BufferedReader(reader);
+    load(builder, () -> readLine(lines), line -> {
+      AuthStatementPb.Builder statement = AuthStatementPb.newBuilder();
+      jsonParser.merge(line, statement);
+      return statement.build();
+    });
+  }
+
+  private <T> void load(CompiledPolicy.Builder builder, EntryReader<T> reader, EntryParser<T> parser)
+          throws IOException {
+    Deque<CompletableFuture<List<AuthStatementToEvaluate>>> pending = new ArrayDeque<>();
+    try {
+      int position = builder.size();
+      for (List<T> batch = readBatch(reader); !batch.isEmpty(); batch = readBatch(reader)) {
+        int first = position;
+        position += batch.size();
+        if (executor == null) {
+          addAll(builder, compile(batch, first, parser));
+          continue;
+        }
+        List<T> entries = batch;
+        pending.add(CompletableFuture.supplyAsync(() -> compile(entries, first, parser), executor));
+        if (pending.size() >= parallelism) {
+          addAll(builder, Futures.join(pending.poll()));
+        }
+      }
+      while (!pending.isEmpty()) {
+        addAll(builder, Futures.join(pending.poll()));
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      pending.forEach(future -> future.cancel(false));
+    }
+  }
+
+  private <T> List<T> readBatch(EntryReader<T> reader) throws IOException {
+    List<T> batch = new ArrayList<>(batchSize);
+    T entry;
+    while (batch.size() < batchSize && (entry = reader.read()) != null) {
+      batch.add(entry);
+    }
+    return batch;
+  }
+
+  private static <T> List<AuthStatementToEvaluate> compile(List<T> entries, int first, EntryParser<T> parser) {
+    List<AuthStatementToEvaluate> compiled = new ArrayList<>(entries.size());
+    for (int i = 0; i < entries.size(); i++) {
+      try {
+        compiled.add(AuthStatementToEvaluate.compile(new AuthStatementModel(parser.parse(entries.get(i)))));
+      } catch (IOException e) {
+        throw new UncheckedIOException(new IOException("Invalid statement #" + (first + i) + ": " + e.getMessage(), e));
+      }
+    }
+    return compiled;
+  }
+
+  private static void addAll(CompiledPolicy.Builder builder, List<AuthStatementToEvaluate> statements) {
+    for (AuthStatementToEvaluate statement : statements) {
+      builder.add(statement);
+    }
+  }
+
+  private static byte[] readDelimited(InputStream in) throws IOException {
+    int first = in.read();
+    if (first == -1) {
+      return null;
+    }
+    int size = CodedInputStream.readRawVarint32(first, in);
+    byte[] bytes = in.readNBytes(size);
+    if (bytes.length != size) {
+      throw new EOFException("Truncated statement, expecting " + size + " bytes, got " + bytes.length);
+    }
+    return bytes;
+  }
+
+  private static String readLine(BufferedReader reader) throws IOException {
+    String line;
+    do {
+      line = reader.readLine();
+    } while (line != null && line.isBlank());
+    return line;
+  }
+
+  @FunctionalInterface
+  private interface EntryReader<T> {
+    /**
+     * @return The next entry, or null at the end of the stream.
+     */
+    T read() throws IOException;
+  }
+
+  @FunctionalInterface
+  private interface EntryParser<T> {
+    AuthStatementPb parse(T entry) throws IOException;
+  }
+}
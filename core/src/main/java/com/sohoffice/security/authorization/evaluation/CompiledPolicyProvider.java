@@ -0,0 +1,25 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.io.AuthDocument;
+import com.sohoffice.security.authorization.io.AuthDocumentProvider;
+
+/**
+ * A statement provider returning a policy compiled beforehand, ex: mapped by {@link CompiledPolicySnapshot}, or
+ * reloaded by {@link WatchingPolicyProvider}.
+ * <p>
+ * {@link AuthorizePipelineStep} evaluates the compiled policy as is, without compiling the statements. The cached
+ * decisions are only reused with the compiled policy instance they were made with.
+ */
+@FunctionalInterface
+public interface CompiledPolicyProvider extends AuthDocumentProvider {
+
+  /**
+   * @return The current compiled policy.
+   */
+  CompiledPolicy compiledPolicy();
+
+  @Override
+  default AuthDocument document() {
+    return compiledPolicy().document();
+  }
+}
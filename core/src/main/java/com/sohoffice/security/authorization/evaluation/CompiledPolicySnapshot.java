@@ -0,0 +1,274 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.io.AuthEffect;
+import com.sohoffice.security.authorization.io.AuthStatement;
+import com.sohoffice.security.authorization.util.MappedEncoding;
+import com.sohoffice.security.authorization.util.StringMatchableExpression;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * A binary snapshot of a {@link CompiledPolicy}, served from a memory-mapped file.
+ * <p>
+ * The snapshot holds everything the lookups need: the automata of the resource and action patterns, the postings of
+ * the principals, the ranks, the flags of the static components, the parsed templates and the statements. A node
+ * maps the file and evaluates immediately, the matchers and indexes are read from the file on every lookup and are
+ * never built on the heap. Only the candidate statements of the lookups are decoded, the first time they are found.
+ * The pages of the file are shared by the processes mapping it and loaded by the OS on demand.
+ * <p>
+ * The strings of the statements are interned once in a symbol table, the templates and statements refer to them by
+ * id. The layout, in big-endian order:
+ * <pre>
+ *   int magic, int format, int offset and int length of each section
+ *   policy:            int version symbol, int statementCount, int count, int[count] variable name symbols
+ *   symbols:           int count, int[count + 1] offsets of the strings after the offsets, the strings
+ *   templates:         int count, int[count] offsets, then of each template
+ *                      int symbol, int count, int[count] symbols of the literals and variable names
+ *   statements:        int[statementCount] offsets, then of each statement
+ *                      int identifier symbol, int effect number,
+ *                      int count, int[count] resource templates, the same of the principals and the actions
+ *   ranks:             int[statementCount] ranks with the DENY statements first
+ *   flags:             int static resources, int static actions, int pending actions, then the bitsets
+ *   resources:         the automaton of the fully enhanced resource patterns, see
+ *                      {@link com.sohoffice.security.authorization.util.MappedStringMatchableAutomaton}
+ *   pending resources: the automaton of the leading segments of the resource patterns with variables
+ *   actions:           the automaton of the fully enhanced action patterns
+ *   principals:        the postings of the literal principals, see {@link MappedInvertedIndex}
+ * </pre>
+ * The offsets of a section are from the start of the section, strings and bitsets are encoded by
+ * {@link MappedEncoding}. A null symbol or effect is stored as -1.
+ * <p>
+ * The file is written to a temporary file and moved in place, readers never see a partial file. A file must not be
+ * modified once mapped, a new version is written to a new file or moved over the old one.
+ */
+public final class CompiledPolicySnapshot {
+  static final int MAGIC = 0x41504F4C;
+  static final int FORMAT = 3;
+  static final int NULL = -1;
+  static final int POLICY = 0;
+  static final int SYMBOLS = 1;
+  static final int TEMPLATES = 2;
+  static final int STATEMENTS = 3;
+  static final int RANKS = 4;
+  static final int FLAGS = 5;
+  static final int RESOURCES = 6;
+  static final int PENDING_RESOURCES = 7;
+  static final int ACTIONS = 8;
+  static final int PRINCIPALS = 9;
+  static final int SECTIONS = 10;
+  static final int HEADER = 8 + SECTIONS * 8;
+
+  private CompiledPolicySnapshot() {
+  }
+
+  /**
+   * Save the compiled policy.
+   *
+   * @param policy The compiled policy
+   * @param file   The file to write, replaced if it exists.
+   * @throws IOException If the file cannot be written.
+   */
+  public static void write(@NotNull CompiledPolicy policy, @NotNull Path file) throws IOException {
+    Path parent = file.toAbsolutePath().getParent();
+    Path temporary = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+    try {
+      if (policy.index() instanceof MappedPolicyIndex mapped) {
+        try (WritableByteChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+          ByteBuffer content = mapped.buffer();
+          while (content.hasRemaining()) {
+            channel.write(content);
+          }
+        }
+      } else {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+          write(policy, (CompiledPolicy.HeapIndex) policy.index(), out);
+        }
+      }
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * Map the snapshot. The lookups read the file, which must not be modified while the policy is in use.
+   *
+   * @param file The file written by {@link #write(CompiledPolicy, Path)}
+   * @return The compiled policy served from the file
+   * @throws IOException If the file cannot be mapped, or is not a compiled policy snapshot.
+   */
+  public static CompiledPolicy read(@NotNull Path file) throws IOException {
+    ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Compiled policy snapshot too large: " + file);
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    try {
+      MappedPolicyIndex index = MappedPolicyIndex.open(buffer);
+      return CompiledPolicy.of(index.version(), index);
+    } catch (RuntimeException e) {
+      throw new IOException("Invalid compiled policy snapshot: " + file, e);
+    }
+  }
+
+  private static void write(CompiledPolicy policy, CompiledPolicy.HeapIndex index, OutputStream file)
+          throws IOException {
+    SymbolTable symbols = new SymbolTable();
+    Map<String, Integer> templateIds = new LinkedHashMap<>();
+    byte[][] sections = new byte[SECTIONS][];
+    sections[STATEMENTS] = statements(policy, symbols, templateIds);
+    sections[TEMPLATES] = templates(templateIds.keySet(), symbols);
+    sections[POLICY] = policy(policy, symbols);
+    sections[SYMBOLS] = symbols(symbols);
+    sections[RANKS] = ranks(policy);
+    sections[FLAGS] = flags(policy, index);
+    sections[RESOURCES] = index.resourceMatcher().encode();
+    sections[PENDING_RESOURCES] = index.pendingResources().encode();
+    sections[ACTIONS] = index.actionMatcher().encode();
+    sections[PRINCIPALS] = index.principalIndex().encode();
+
+    DataOutputStream out = new DataOutputStream(file);
+    out.writeInt(MAGIC);
+    out.writeInt(FORMAT);
+    int offset = HEADER;
+    for (byte[] section : sections) {
+      out.writeInt(offset);
+      out.writeInt(section.length);
+      offset += section.length;
+    }
+    for (byte[] section : sections) {
+      out.write(section);
+    }
+    out.flush();
+  }
+
+  private static byte[] policy(CompiledPolicy policy, SymbolTable symbols) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(intern(symbols, policy.version()));
+    out.writeInt(policy.size());
+    out.writeInt(policy.variableNames().size());
+    for (String name : policy.variableNames()) {
+      out.writeInt(symbols.intern(name));
+    }
+    return bytes.toByteArray();
+  }
+
+  private static byte[] statements(CompiledPolicy policy, SymbolTable symbols, Map<String, Integer> templateIds)
+          throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.write(new byte[policy.size() * 4]);
+    int[] offsets = new int[policy.size()];
+    for (int id = 0; id < policy.size(); id++) {
+      offsets[id] = out.size();
+      AuthStatement statement = policy.statement(id).statement();
+      out.writeInt(intern(symbols, statement.getIdentifier()));
+      AuthEffect effect = statement.getEffect();
+      out.writeInt(effect == null || effect == AuthEffect.UNRECOGNIZED ? NULL : effect.getNumber());
+      for (List<String> values : List.of(statement.getResourcesList(), statement.getPrincipalsList(),
+                                         statement.getActionsList())) {
+        out.writeInt(values.size());
+        for (String value : values) {
+          Integer template = templateIds.get(value);
+          if (template == null) {
+            template = templateIds.size();
+            templateIds.put(value, template);
+          }
+          out.writeInt(template);
+        }
+      }
+    }
+    return withOffsets(bytes, 0, offsets);
+  }
+
+  private static byte[] templates(Collection<String> templates, SymbolTable symbols) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(templates.size());
+    out.write(new byte[templates.size() * 4]);
+    int[] offsets = new int[templates.size()];
+    int i = 0;
+    for (String template : templates) {
+      offsets[i++] = out.size();
+      List<String> segments = new StringMatchableExpression(template).segments();
+      out.writeInt(symbols.intern(template));
+      out.writeInt(segments.size());
+      for (String segment : segments) {
+        out.writeInt(symbols.intern(segment));
+      }
+    }
+    return withOffsets(bytes, 4, offsets);
+  }
+
+  private static byte[] symbols(SymbolTable symbols) throws IOException {
+    ByteArrayOutputStream strings = new ByteArrayOutputStream();
+    DataOutputStream stringsOut = new DataOutputStream(strings);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(symbols.size());
+    for (int i = 0; i < symbols.size(); i++) {
+      out.writeInt(MappedEncoding.writeString(stringsOut, symbols.symbol(i)));
+    }
+    out.writeInt(stringsOut.size());
+    strings.writeTo(out);
+    return bytes.toByteArray();
+  }
+
+  private static byte[] ranks(CompiledPolicy policy) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    for (int id = 0; id < policy.size(); id++) {
+      out.writeInt(policy.rank(id, CombiningAlgorithm.DENY_OVERRIDES));
+    }
+    return bytes.toByteArray();
+  }
+
+  private static byte[] flags(CompiledPolicy policy, CompiledPolicy.HeapIndex index) throws IOException {
+    BitSet staticResources = new BitSet(policy.size());
+    BitSet staticActions = new BitSet(policy.size());
+    for (int id = 0; id < policy.size(); id++) {
+      staticResources.set(id, policy.hasStaticResources(id));
+      staticActions.set(id, policy.hasStaticActions(id));
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.write(new byte[12]);
+    int[] offsets = {
+            MappedEncoding.writeBits(out, staticResources),
+            MappedEncoding.writeBits(out, staticActions),
+            MappedEncoding.writeBits(out, index.pendingActions())
+    };
+    return withOffsets(bytes, 0, offsets);
+  }
+
+  /**
+   * @return The bytes with the offsets written from the position, in place of the zeros reserved for them.
+   */
+  private static byte[] withOffsets(ByteArrayOutputStream bytes, int position, int[] offsets) {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+    for (int i = 0; i < offsets.length; i++) {
+      buffer.putInt(position + i * 4, offsets[i]);
+    }
+    return buffer.array();
+  }
+
+  private static int intern(SymbolTable symbols, String value) {
+    return value == null ? NULL : symbols.intern(value);
+  }
+}
@@ -0,0 +1,262 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.AsyncAuthContextContributor;
+import com.sohoffice.security.authorization.AuthContext;
+import com.sohoffice.security.authorization.AuthContextContributor;
+import com.sohoffice.security.authorization.util.AttributeBag;
+import com.sohoffice.security.authorization.util.AttributesWithAccessor;
+import com.sohoffice.security.authorization.util.Futures;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Calls the declared contributors of an evaluation ahead of time, so that independent contributors run concurrently.
+ * <p>
+ * A contributor is prefetched if it declares both its required and provided attributes, and every earlier contributor
+ * it depends on is prefetched too. It depends on an earlier contributor providing one of its required attributes, or
+ * on any earlier undeclared contributor if it requires attributes. It is started once its dependencies complete, with
+ * their attributes added to the source context.
+ * <p>
+ * The evaluator asks for the results in the contributor order through {@link #contribute(int, AuthContext)}. Results
+ * of prefetched contributors are joined, the others are called at that point exactly as a sequential evaluation
+ * would. The attributes are combined in the same order and the decision is the same as a sequential evaluation.
+ * Prefetched contributors may be called even if the evaluation completes before reaching them.
+ * <p>
+ * {@link AsyncAuthContextContributor} are composed without blocking, synchronous contributors are called by the
+ * executor. The latency of each call is reported to the {@link EvaluationMetrics}, if any.
+ */
+final class ContributorPrefetch {
+
+  private final List<AuthContextContributor> contributors;
+  private final List<CompletableFuture<AuthContextContributor.Result>> futures;
+  private final Executor executor;
+  private final EvaluationMetrics metrics;
+
+  private ContributorPrefetch(List<AuthContextContributor> contributors,
+                              List<CompletableFuture<AuthContextContributor.Result>> futures,
+                              Executor executor,
+                              EvaluationMetrics metrics) {
+    this.contributors = contributors;
+    this.futures = futures;
+    this.executor = executor;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Start prefetching the declared contributors.
+   *
+   * @param contributors       The contributors in the evaluation order.
+   * @param source             The source context of the evaluation.
+   * @param attributesAccessor Accessor of the attributes the contributors contribute to.
+   * @param executor           The executor to call the contributors, null to disable prefetching.
+   * @param metrics            The listener of the contributor latencies, null to disable.
+   * @return The prefetch of this evaluation.
+   */
+  static ContributorPrefetch start(@NotNull List<AuthContextContributor> contributors,
+                                   @NotNull AuthContext source,
+                                   @NotNull AttributesWithAccessor<AuthContext> attributesAccessor,
+                                   Executor executor,
+                                   EvaluationMetrics metrics) {
+    return start(contributors, source, attributesAccessor, executor, metrics, 2);
+  }
+
+  /**
+   * Start prefetching the declared contributors, if there are enough of them.
+   *
+   * @param minimum The minimum number of declared contributors to prefetch. Two for an evaluation, so at least two
+   *                contributors run concurrently. One if the caller has other work to do meanwhile.
+   * @see #start(List, AuthContext, AttributesWithAccessor, Executor, EvaluationMetrics)
+   */
+  static ContributorPrefetch start(@NotNull List<AuthContextContributor> contributors,
+                                   @NotNull AuthContext source,
+                                   @NotNull AttributesWithAccessor<AuthContext> attributesAccessor,
+                                   Executor executor,
+                                   EvaluationMetrics metrics,
+                                   int minimum) {
+    if (executor == null ||
+            contributors.stream().filter(ContributorPrefetch::isDeclared).limit(minimum).count() < minimum) {
+      // Nothing can run concurrently
+      return new ContributorPrefetch(contributors, List.of(), executor, metrics);
+    }
+
+    ContributorPrefetch prefetch = new ContributorPrefetch(contributors, new ArrayList<>(contributors.size()),
+                                                           executor, metrics);
+    List<CompletableFuture<AuthContextContributor.Result>> futures = prefetch.futures;
+    for (int i = 0; i < contributors.size(); i++) {
+      AuthContextContributor contributor = contributors.get(i);
+      List<CompletableFuture<AuthContextContributor.Result>> dependencies = dependencies(contributors, futures, i);
+      if (dependencies == null) {
+        futures.add(null);
+        continue;
+      }
+      CompletableFuture<?>[] array = dependencies.toArray(CompletableFuture[]::new);
+      futures.add(CompletableFuture.allOf(array).thenCompose(ignored -> {
+        AttributeBag attributes = attributesAccessor.bag(source);
+        for (CompletableFuture<AuthContextContributor.Result> dependency : dependencies) {
+          attributes = attributes.with(dependency.join().attributes());
+        }
+        return prefetch.call(contributor, attributesAccessor.with(source, attributes));
+      }));
+    }
+    return prefetch;
+  }
+
+  /**
+   * Get the result of the contributor at the index.
+   *
+   * @param index   The index of the contributor.
+   * @param context The context the evaluation has reached, used if the contributor is not prefetched.
+   * @return The contributed result.
+   */
+  AuthContextContributor.Result contribute(int index, AuthContext context) {
+    CompletableFuture<AuthContextContributor.Result> future = prefetched(index);
+    if (future == null) {
+      AuthContextContributor contributor = contributors.get(index);
+      if (!isMeasured(contributor)) {
+        return contributor.contribute(context);
+      }
+      long start = System.nanoTime();
+      AuthContextContributor.Result result = null;
+      try {
+        result = contributor.contribute(context);
+        return result;
+      } finally {
+        metrics.contributorCompleted(contributor, result, System.nanoTime() - start);
+      }
+    }
+    // Surface the exception as the contributor would have thrown it
+    return Futures.join(future);
+  }
+
+  /**
+   * Get the result of the contributor at the index without blocking. A synchronous contributor not prefetched is
+   * called by the executor, or by the calling thread if there is no executor.
+   *
+   * @param index   The index of the contributor.
+   * @param context The context the evaluation has reached, used if the contributor is not prefetched.
+   * @return The future of the contributed result.
+   */
+  CompletableFuture<AuthContextContributor.Result> contributeAsync(int index, AuthContext context) {
+    CompletableFuture<AuthContextContributor.Result> future = prefetched(index);
+    if (future == null) {
+      return call(contributors.get(index), context);
+    }
+    return future;
+  }
+
+  /**
+   * Call the contributor without blocking, measuring the latency until the result.
+   */
+  private CompletableFuture<AuthContextContributor.Result> call(AuthContextContributor contributor,
+                                                                AuthContext context) {
+    AsyncAuthContextContributor async = AsyncAuthContextContributor.of(contributor, executor);
+    if (!isMeasured(contributor)) {
+      return async.contributeAsync(context);
+    }
+    long start = System.nanoTime();
+    CompletableFuture<AuthContextContributor.Result> future;
+    try {
+      future = async.contributeAsync(context);
+    } catch (RuntimeException e) {
+      metrics.contributorCompleted(contributor, null, System.nanoTime() - start);
+      throw e;
+    }
+    return future.whenComplete((result, throwable) ->
+                                       metrics.contributorCompleted(contributor, result, System.nanoTime() - start));
+  }
+
+  /**
+   * The contributors prefetched by an earlier evaluation are measured by the prefetching evaluation.
+   */
+  private boolean isMeasured(AuthContextContributor contributor) {
+    return metrics != null && !(contributor instanceof Prefetched);
+  }
+
+  /**
+   * The contributors with the prefetched ones replaced by contributors returning the prefetched results, to hand the
+   * prefetch over to a later evaluation. The declared attributes are kept.
+   *
+   * @return The contributors in the original order.
+   */
+  List<AuthContextContributor> prefetchedContributors() {
+    if (futures.isEmpty()) {
+      return contributors;
+    }
+    List<AuthContextContributor> prefetched = new ArrayList<>(contributors.size());
+    for (int i = 0; i < contributors.size(); i++) {
+      CompletableFuture<AuthContextContributor.Result> future = futures.get(i);
+      prefetched.add(future == null ? contributors.get(i) : new Prefetched(contributors.get(i), future));
+    }
+    return Collections.unmodifiableList(prefetched);
+  }
+
+  /**
+   * Cancel the contributors not yet started, after the evaluation completes.
+   */
+  void cancel() {
+    futures.stream()
+            .filter(Objects::nonNull)
+            .forEach(it -> it.cancel(false));
+  }
+
+  private CompletableFuture<AuthContextContributor.Result> prefetched(int index) {
+    return futures.isEmpty() ? null : futures.get(index);
+  }
+
+  /**
+   * @return The futures the contributor at the index depends on. Null if the contributor cannot be prefetched.
+   */
+  private static List<CompletableFuture<AuthContextContributor.Result>> dependencies(
+          List<AuthContextContributor> contributors,
+          List<CompletableFuture<AuthContextContributor.Result>> futures,
+          int index) {
+    AuthContextContributor contributor = contributors.get(index);
+    if (!isDeclared(contributor)) {
+      return null;
+    }
+    Set<String> required = contributor.requiredAttributes();
+    List<CompletableFuture<AuthContextContributor.Result>> dependencies = new ArrayList<>();
+    if (required.isEmpty()) {
+      return dependencies;
+    }
+    for (int j = 0; j < index; j++) {
+      Set<String> provided = contributors.get(j).providedAttributes();
+      if (provided == null || !Collections.disjoint(provided, required)) {
+        if (futures.get(j) == null) {
+          return null;
+        }
+        dependencies.add(futures.get(j));
+      }
+    }
+    return dependencies;
+  }
+
+  private static boolean isDeclared(AuthContextContributor contributor) {
+    return contributor.requiredAttributes() != null && contributor.providedAttributes() != null;
+  }
+
+  /**
+   * A prefetched contributor, the input of the later evaluation is ignored.
+   */
+  private record Prefetched(AuthContextContributor contributor,
+                            CompletableFuture<AuthContextContributor.Result> future)
+          implements AsyncAuthContextContributor {
+    @Override
+    public CompletableFuture<Result> contributeAsync(AuthContext input) {
+      return future;
+    }
+
+    @Override
+    public Set<String> requiredAttributes() {
+      return contributor.requiredAttributes();
+    }
+
+    @Override
+    public Set<String> providedAttributes() {
+      return contributor.providedAttributes();
+    }
+  }
+}
@@ -0,0 +1,16 @@
+package com.sohoffice.security.authorization.evaluation;
+
+/**
+ * Receives the audit record of every decision of {@link AuthorizePipelineStep}, cached decisions included.
+ * <p>
+ * The sink is called by the deciding thread, concurrently, and should hand the record over rather than write it. See
+ * {@link AsyncDecisionAuditSink}.
+ */
+@FunctionalInterface
+public interface DecisionAuditSink {
+
+  /**
+   * @param record The decision to audit
+   */
+  void record(DecisionRecord record);
+}
@@ -0,0 +1,162 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.AuthContext;
+import com.sohoffice.security.authorization.AuthRequestTarget;
+import com.sohoffice.security.authorization.io.AuthEffect;
+import com.sohoffice.security.authorization.util.SegmentedLruMap;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded cache of authorization decisions, to be used by {@link AuthorizePipelineStep}.
+ * <p>
+ * The key covers the principals, the request targets and the profile and request attributes referenced by the
+ * policy. Attributes the policy does not reference cannot change the decision and are left out of the key. The
+ * contributors are expected to contribute the same attributes for the same key.
+ * <p>
+ * Entries expire after the time to live, and the least recently used entries are evicted when the cache is full. A
+ * decision is only returned for the compiled policy it was made with, the decisions of other policies are evicted when
+ * they are looked up or by the LRU, the cache is not cleared when the policies alternate. The cache is thread-safe.
+ */
+public class DecisionCache {
+  private final long timeToLiveNanos;
+  private final LongSupplier nanoTime;
+  private final SegmentedLruMap<Key, Decision> decisions;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * @param maximumSize The maximum number of cached decisions
+   * @param timeToLive  How long a decision is cached
+   */
+  public DecisionCache(int maximumSize, Duration timeToLive) {
+    this(maximumSize, timeToLive, System::nanoTime);
+  }
+
+  DecisionCache(int maximumSize, Duration timeToLive, LongSupplier nanoTime) {
+    this.timeToLiveNanos = timeToLive.toNanos();
+    this.nanoTime = nanoTime;
+    this.decisions = new SegmentedLruMap<>(maximumSize);
+  }
+
+  /**
+   * Create the cache key of the context.
+   *
+   * @param policy  The compiled policy to evaluate
+   * @param context The context before evaluation
+   * @return The key
+   */
+  Key key(CompiledPolicy policy, AuthContext context) {
+    Set<String> variables = policy.variableNames();
+    return new Key(Set.copyOf(context.principals()),
+                   Set.copyOf(context.requestTargets()),
+                   referenced(context.profileAttributes(), variables),
+                   referenced(context.requestAttributes(), variables));
+  }
+
+  /**
+   * @return The cached decision, or null if not cached.
+   */
+  Decision get(CompiledPolicy policy, Key key) {
+    Decision decision = decisions.get(key, it -> it.policy() == policy &&
+            it.expiresAt() - nanoTime.getAsLong() > 0);
+    if (decision == null) {
+      misses.increment();
+    } else {
+      hits.increment();
+    }
+    return decision;
+  }
+
+  void put(CompiledPolicy policy, Key key, AuthPipelineStepResultStatus status, String statementId,
+           AuthEffect effect) {
+    decisions.put(key, new Decision(policy, status, statementId, effect, nanoTime.getAsLong() + timeToLiveNanos));
+  }
+
+  /**
+   * Remove all cached decisions.
+   */
+  public void invalidateAll() {
+    decisions.clear();
+  }
+
+  public long hitCount() {
+    return hits.sum();
+  }
+
+  public long missCount() {
+    return misses.sum();
+  }
+
+  public int size() {
+    return decisions.size();
+  }
+
+  private static Set<Map.Entry<String, String>> referenced(Set<Map.Entry<String, String>> attributes,
+                                                           Set<String> variables) {
+    if (attributes == null || attributes.isEmpty() || variables.isEmpty()) {
+      return Set.of();
+    }
+    Set<Map.Entry<String, String>> result = new HashSet<>();
+    for (Map.Entry<String, String> attribute : attributes) {
+      if (variables.contains(attribute.getKey())) {
+        result.add(Map.entry(attribute.getKey(), attribute.getValue()));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * The cache key. The hash code is computed once, while equality still compares the content.
+   */
+  record Key(
+          Set<String> principals,
+          Set<AuthRequestTarget> targets,
+          Set<Map.Entry<String, String>> profileAttributes,
+          Set<Map.Entry<String, String>> requestAttributes,
+          int fingerprint
+  ) {
+    Key(Set<String> principals, Set<AuthRequestTarget> targets, Set<Map.Entry<String, String>> profileAttributes,
+        Set<Map.Entry<String, String>> requestAttributes) {
+      this(principals, targets, profileAttributes, requestAttributes,
+           Objects.hash(principals, targets, profileAttributes, requestAttributes));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key that)) return false;
+      return fingerprint == that.fingerprint &&
+              principals.equals(that.principals) &&
+              targets.equals(that.targets) &&
+              profileAttributes.equals(that.profileAttributes) &&
+              requestAttributes.equals(that.requestAttributes);
+    }
+
+    @Override
+    public int hashCode() {
+      return fingerprint;
+    }
+  }
+
+  /**
+   * A cached decision.
+   *
+   * @param policy      The policy the decision is made with
+   * @param status      The status of the decision
+   * @param statementId The id of the deciding statement, may be null
+   * @param effect      The effect of the deciding statement, null if no statement decides.
+   * @param expiresAt   When the decision expires, in {@link System#nanoTime()}
+   */
+  record Decision(
+          CompiledPolicy policy,
+          AuthPipelineStepResultStatus status,
+          String statementId,
+          AuthEffect effect,
+          long expiresAt
+  ) {
+  }
+}
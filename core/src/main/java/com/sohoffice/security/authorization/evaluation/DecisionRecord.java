@@ -0,0 +1,28 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.AuthRequestTarget;
+import com.sohoffice.security.authorization.io.AuthEffect;
+
+import java.util.Set;
+
+/**
+ * The audit record of a decision, see {@link DecisionAuditSink}.
+ *
+ * @param timestamp    The time of the decision, in milliseconds since the epoch.
+ * @param principals   The principals of the request
+ * @param targets      The targets of the request
+ * @param statementId  The deciding statement, null if no statement matches.
+ * @param effect       The effect of the deciding statement, null if no statement matches.
+ * @param cached       True if the decision is returned by the {@link DecisionCache}.
+ * @param latencyNanos The time taken by {@link AuthorizePipelineStep} to decide.
+ */
+public record DecisionRecord(
+        long timestamp,
+        Set<String> principals,
+        Set<AuthRequestTarget> targets,
+        String statementId,
+        AuthEffect effect,
+        boolean cached,
+        long latencyNanos
+) {
+}
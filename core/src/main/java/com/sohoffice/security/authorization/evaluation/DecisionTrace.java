@@ -0,0 +1,177 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.AuthContext;
+import com.sohoffice.security.authorization.AuthRequestTarget;
+import com.sohoffice.security.authorization.io.AuthEffect;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.LongSupplier;
+
+/**
+ * The structured explanation of a single decision: the candidate statements, each contributor round, the matching
+ * statements and the deciding statement.
+ * <p>
+ * Enable the trace of a request by setting a new instance to {@link AuthContext#trace()}, or sample the slow decisions
+ * with {@link SlowDecisionSampler}. The steps record into the trace as the evaluation goes, the rounds of the request
+ * contributors included. Nothing is recorded, and nothing is allocated, if the context has no trace.
+ * <p>
+ * A trace records a single request. It is written by one thread at a time, read it after the pipeline completes.
+ */
+public final class DecisionTrace {
+  private final LongSupplier nanoTime;
+  private final long startNanos;
+  private final List<String> candidates = new ArrayList<>();
+  private final List<Round> rounds = new ArrayList<>();
+  private final List<Match> matches = new ArrayList<>();
+  private Set<String> principals = Set.of();
+  private Set<AuthRequestTarget> targets = Set.of();
+  private AuthPipelineStepResultStatus status;
+  private String statementId;
+  private boolean cached;
+  private long elapsedNanos;
+
+  public DecisionTrace() {
+    this(System::nanoTime);
+  }
+
+  DecisionTrace(LongSupplier nanoTime) {
+    this.nanoTime = nanoTime;
+    this.startNanos = nanoTime.getAsLong();
+  }
+
+  /**
+   * @return The principals of the authorized request.
+   */
+  public Set<String> principals() {
+    return principals;
+  }
+
+  /**
+   * @return The targets of the authorized request, after the request contributors.
+   */
+  public Set<AuthRequestTarget> targets() {
+    return targets;
+  }
+
+  /**
+   * @return The ids of the candidate statements looked up in the compiled policy, empty if the decision is cached.
+   */
+  public List<String> candidates() {
+    return Collections.unmodifiableList(candidates);
+  }
+
+  /**
+   * @return The contributor rounds, in the order they are evaluated.
+   */
+  public List<Round> rounds() {
+    return Collections.unmodifiableList(rounds);
+  }
+
+  /**
+   * @return The statements matching the request, in the order they are found. A statement matched by several
+   * enhanced expressions is listed once for each.
+   */
+  public List<Match> matches() {
+    return Collections.unmodifiableList(matches);
+  }
+
+  /**
+   * @return The decision, null if not decided yet.
+   */
+  public AuthPipelineStepResultStatus status() {
+    return status;
+  }
+
+  /**
+   * @return The deciding statement, null if no statement matches.
+   */
+  public String statementId() {
+    return statementId;
+  }
+
+  /**
+   * @return True if the decision is returned by the {@link DecisionCache}.
+   */
+  public boolean cached() {
+    return cached;
+  }
+
+  /**
+   * @return The time from the creation of the trace to the decision.
+   */
+  public Duration elapsed() {
+    return Duration.ofNanos(elapsedNanos);
+  }
+
+  void request(Set<String> principals, Set<AuthRequestTarget> targets) {
+    this.principals = principals;
+    this.targets = targets;
+  }
+
+  void candidate(String statementId) {
+    candidates.add(statementId);
+  }
+
+  void round(String contributorId, int attributes, int enhanced, int pending) {
+    rounds.add(new Round(contributorId, attributes, enhanced, pending, sinceStart()));
+  }
+
+  void matched(String statementId, AuthEffect effect) {
+    matches.add(new Match(statementId, effect, sinceStart()));
+  }
+
+  void decided(AuthPipelineStepResultStatus status, String statementId, boolean cached) {
+    this.status = status;
+    this.statementId = statementId;
+    this.cached = cached;
+    this.elapsedNanos = nanoTime.getAsLong() - startNanos;
+  }
+
+  private Duration sinceStart() {
+    return Duration.ofNanos(nanoTime.getAsLong() - startNanos);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("DecisionTrace{")
+            .append(status).append(", statement=").append(statementId)
+            .append(", cached=").append(cached)
+            .append(", elapsed=").append(elapsed())
+            .append(", principals=").append(principals)
+            .append(", targets=").append(targets)
+            .append(", candidates=").append(candidates);
+    for (Round round : rounds) {
+      sb.append("\n  ").append(round);
+    }
+    for (Match match : matches) {
+      sb.append("\n  ").append(match);
+    }
+    return sb.append("}").toString();
+  }
+
+  /**
+   * The evaluation of the attributes of a contributor.
+   *
+   * @param contributorId The id of the contributor
+   * @param attributes    The number of contributed attributes
+   * @param enhanced      The number of fully enhanced expressions after the round
+   * @param pending       The number of expressions still to be enhanced after the round
+   * @param at            The time since the trace started
+   */
+  public record Round(String contributorId, int attributes, int enhanced, int pending, Duration at) {
+  }
+
+  /**
+   * A statement matching the request.
+   *
+   * @param statementId The id of the statement
+   * @param effect      The effect of the statement
+   * @param at          The time since the trace started
+   */
+  public record Match(String statementId, AuthEffect effect, Duration at) {
+  }
+}
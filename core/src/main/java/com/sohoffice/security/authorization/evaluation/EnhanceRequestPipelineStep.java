@@ -6,6 +6,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 /**
@@ -17,11 +18,34 @@ public class EnhanceRequestPipelineStep implements AuthPipelineStep {
 
   private static final Logger logger = LoggerFactory.getLogger(EnhanceRequestPipelineStep.class);
 
+  private final EvaluationOptions options;
+
+  public EnhanceRequestPipelineStep() {
+    this(EvaluationOptions.defaults());
+  }
+
+  public EnhanceRequestPipelineStep(EvaluationOptions options) {
+    this.options = options;
+  }
+
   @Override
   public AuthPipelineStepResult execute(AuthContext context) {
+    return complete(evaluator(context).evaluate(context));
+  }
+
+  /**
+   * Enhance the request without blocking on the request contributors, see
+   * {@link IncrementalEvaluator#evaluateAsync(AuthContext)}.
+   */
+  @Override
+  public CompletableFuture<AuthPipelineStepResult> executeAsync(AuthContext context) {
+    return evaluator(context).evaluateAsync(context).thenApply(this::complete);
+  }
+
+  private IncrementalEvaluator<AuthRequestTargetToEvaluate, Void> evaluator(AuthContext context) {
     // Use an IncrementalEvaluator to read {@link StringExpressionTuple} from the context and
     // enhance with attributes from contributors.
-    IncrementalEvaluator<AuthRequestTargetToEvaluate, Void> evaluator = new IncrementalEvaluator<>(
+    return new IncrementalEvaluator<>(
             new WithAccessor<>(ctx -> ctx.request().resourceTargets().stream()
                     .map(it -> new AuthRequestTargetToEvaluate(new StringExpression(it.resource()),
                                                                new StringExpression(it.action())))
@@ -33,9 +57,11 @@ public class EnhanceRequestPipelineStep implements AuthPipelineStep {
             }),
             new AttributesWithAccessor<>(AuthContext::requestAttributes, AuthContext::withRequestAttributes),
             context.requestContributors(),
-            new Adapter());
-    IncrementalEvaluator.Result<AuthRequestTargetToEvaluate, Void> result = evaluator.evaluate(context);
+            new Adapter(),
+            options);
+  }
 
+  private AuthPipelineStepResult complete(IncrementalEvaluator.Result<AuthRequestTargetToEvaluate, Void> result) {
     if (!result.notEvaluated().isEmpty()) {
       logger.warn("Some request contributors are not evaluated: {}", result.notEvaluated());
     }
@@ -0,0 +1,70 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.AuthContextContributor;
+
+/**
+ * Listener of the cost of the evaluations, to export the metrics to a monitoring system.
+ * <p>
+ * The methods are called by the evaluating threads, concurrently, and must not block. All methods do nothing by
+ * default, implement the ones of interest. No metric is measured if {@link EvaluationOptions#metrics()} is null.
+ * <p>
+ * {@link MetricsRecorder} records the metrics in memory, to be read periodically by an exporter.
+ */
+public interface EvaluationMetrics {
+
+  /**
+   * A stage of an {@link AuthPipeline} completed.
+   *
+   * @param stage  The name of the stage
+   * @param nanos  The time taken by the stage
+   * @param status The status returned by the stage, null if the stage failed.
+   */
+  default void stageCompleted(String stage, long nanos, AuthPipelineStepResultStatus status) {
+  }
+
+  /**
+   * A contributor completed, whether called by the evaluation or prefetched.
+   *
+   * @param contributor The contributor
+   * @param result      The contributed result, null if the contributor failed.
+   * @param nanos       The time from calling the contributor to its result
+   */
+  default void contributorCompleted(AuthContextContributor contributor, AuthContextContributor.Result result,
+                                    long nanos) {
+  }
+
+  /**
+   * An {@link IncrementalEvaluator} evaluation completed.
+   *
+   * @param expansions The number of expressions expanded by multi-valued attributes, see {@link ExpansionLimit}.
+   */
+  default void evaluationCompleted(int expansions) {
+  }
+
+  /**
+   * The statements of an authorization were evaluated.
+   *
+   * @param candidates The candidate statements looked up in the compiled policy
+   * @param scanned    The number of times a statement is checked for completion
+   * @param matched    The number of checks matching the request
+   */
+  default void statementsEvaluated(int candidates, int scanned, int matched) {
+  }
+
+  /**
+   * The decision cache is looked up, see {@link DecisionCache}.
+   *
+   * @param hit True if the decision is cached.
+   */
+  default void decisionCacheLookup(boolean hit) {
+  }
+
+  /**
+   * An authorization is decided, cached decisions included.
+   *
+   * @param status      The decision
+   * @param statementId The deciding statement, null if no statement matches.
+   */
+  default void decided(AuthPipelineStepResultStatus status, String statementId) {
+  }
+}
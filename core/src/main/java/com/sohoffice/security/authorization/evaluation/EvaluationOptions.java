@@ -0,0 +1,55 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import io.soabase.recordbuilder.core.RecordBuilder;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Options of the evaluation pipeline steps. Options not applicable to a step are ignored by the step.
+ * <p>
+ * Start from {@link #defaults()} and change the options with the withers, for example
+ * {@code EvaluationOptions.defaults().withDecisionCache(cache)}.
+ *
+ * @param decisionCache       The cache of authorization decisions used by {@link AuthorizePipelineStep}, null to
+ *                            disable.
+ * @param contributorExecutor The executor to call the contributors declaring their attributes concurrently, null to
+ *                            call all contributors sequentially. See
+ *                            {@link com.sohoffice.security.authorization.AuthContextContributor#requiredAttributes()}.
+ * @param expansionLimit      The limit of the expressions a single evaluation expands from multi-valued attributes,
+ *                            null if unlimited.
+ * @param combiningAlgorithm  How {@link AuthorizePipelineStep} combines the matching statements, null for
+ *                            {@link CombiningAlgorithm#DENY_OVERRIDES}.
+ * @param metrics             The listener of the evaluation metrics, null to disable. See {@link MetricsRecorder}.
+ * @param slowDecisionSampler The sampler tracing the slow decisions of {@link AuthorizePipelineStep}, null to
+ *                            disable.
+ * @param auditSink           The sink of the decisions of {@link AuthorizePipelineStep}, null to disable. See
+ *                            {@link AsyncDecisionAuditSink}.
+ */
+@RecordBuilder
+public record EvaluationOptions(
+        DecisionCache decisionCache,
+        Executor contributorExecutor,
+        ExpansionLimit expansionLimit,
+        CombiningAlgorithm combiningAlgorithm,
+        EvaluationMetrics metrics,
+        SlowDecisionSampler slowDecisionSampler,
+        DecisionAuditSink auditSink
+) implements EvaluationOptionsBuilder.With {
+
+  /**
+   * Executor starting a virtual thread per task.
+   */
+  public static final Executor VIRTUAL_THREADS = task -> Thread.ofVirtual().name("auth-contributor").start(task);
+
+  /**
+   * @return The default options. Declared contributors are called concurrently on {@link #VIRTUAL_THREADS} and the
+   * statements are combined by {@link CombiningAlgorithm#DENY_OVERRIDES}, other optional features, the expansion
+   * limit and the metrics included, are disabled.
+   */
+  public static EvaluationOptions defaults() {
+    return EvaluationOptionsBuilder.builder()
+            .contributorExecutor(VIRTUAL_THREADS)
+            .combiningAlgorithm(CombiningAlgorithm.DENY_OVERRIDES)
+            .build();
+  }
+}
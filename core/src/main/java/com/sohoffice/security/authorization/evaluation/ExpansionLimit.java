@@ -0,0 +1,84 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.exceptions.ExpansionLimitExceededException;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The maximum number of expressions a single evaluation may expand from multi-valued attributes.
+ * <p>
+ * Statements bind their variables to the values of the attributes and are never expanded, see
+ * {@link AuthStatementToEvaluate#enhance(java.util.Collection)}. Request targets are resolved to concrete strings, a
+ * target is expanded once for each value of an attribute it references. Every expression beyond the first created
+ * from the same expression counts as an expansion. The evaluation fails with {@link ExpansionLimitExceededException}
+ * as soon as the expansions exceed the maximum, before the rest are created.
+ * <p>
+ * The counters are accumulated over all evaluations using the limit. The instance is thread safe and is expected to be
+ * shared.
+ */
+public class ExpansionLimit {
+  /**
+   * A maximum suitable for most policies. The limit is disabled by default, enable it with
+   * {@code EvaluationOptions.defaults().withExpansionLimit(new ExpansionLimit(ExpansionLimit.DEFAULT_MAXIMUM))}.
+   */
+  public static final int DEFAULT_MAXIMUM = 10_000;
+
+  private final int maximum;
+  private final LongAdder expansions = new LongAdder();
+  private final LongAdder exceeded = new LongAdder();
+
+  /**
+   * @param maximum The maximum number of expansions of a single evaluation.
+   */
+  public ExpansionLimit(int maximum) {
+    if (maximum < 0) {
+      throw new IllegalArgumentException("maximum must not be negative: " + maximum);
+    }
+    this.maximum = maximum;
+  }
+
+  public int maximum() {
+    return maximum;
+  }
+
+  /**
+   * @return The number of expressions expanded by all evaluations.
+   */
+  public long expansionCount() {
+    return expansions.sum();
+  }
+
+  /**
+   * @return The number of evaluations failed by exceeding the limit.
+   */
+  public long exceededCount() {
+    return exceeded.sum();
+  }
+
+  /**
+   * @return The budget of a new evaluation.
+   */
+  Budget budget() {
+    return new Budget();
+  }
+
+  /**
+   * The expansions of a single evaluation, used by one thread at a time.
+   */
+  final class Budget {
+    private int used;
+
+    /**
+     * Record an expanded expression.
+     *
+     * @throws ExpansionLimitExceededException If the evaluation exceeds the limit.
+     */
+    void expand() {
+      expansions.increment();
+      if (++used > maximum) {
+        exceeded.increment();
+        throw new ExpansionLimitExceededException(maximum);
+      }
+    }
+  }
+}
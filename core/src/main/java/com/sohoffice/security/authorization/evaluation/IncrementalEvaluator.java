@@ -9,8 +9,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * An evaluator that can evaluate the expression incrementally.
@@ -21,7 +23,7 @@ import java.util.stream.Stream;
  *  <li>Iterate through contributors, for each contributor, get the contributed attributes.</li>
  *  <li>Use the newly contributed attributes to enhanced the leftover expressions from last iteration.</li>
  *  <li>Combine the newly contributed attributes with the existing attributes.</li>
- *  <li>Enhance the expressions from beginning with all attributes.</li>
+ *  <li>Enhance the expressions from beginning depending on the newly contributed attributes, with all attributes.</li>
  * </ol>
  *
  * @param <T> Expression implementation type
@@ -34,104 +36,188 @@ class IncrementalEvaluator<T extends Expression<T>, R> {
   private final AttributesWithAccessor<AuthContext> attributesAccessor;
   private final List<AuthContextContributor> contributors;
   private final EvaluationResultAdapter<T, R> evaluationResultAdapter;
+  private final Executor contributorExecutor;
+  private final ExpansionLimit expansionLimit;
+  private final EvaluationMetrics metrics;
 
+  /**
+   * Create an evaluator calling all contributors sequentially, without expansion limit nor metrics.
+   */
   public IncrementalEvaluator(@NotNull WithAccessor<AuthContext, Set<T>> evaluationTargetsAccessor,
                               @NotNull AttributesWithAccessor<AuthContext> attributesAccessor,
                               @NotNull List<AuthContextContributor> contributors,
                               @NotNull IncrementalEvaluator.EvaluationResultAdapter<T, R> evaluationResultAdapter) {
+    this(evaluationTargetsAccessor, attributesAccessor, contributors, evaluationResultAdapter,
+         EvaluationOptionsBuilder.builder().build());
+  }
+
+  /**
+   * @param options The options of the evaluation, the contributor executor, the expansion limit and the metrics are
+   *                used, see {@link EvaluationOptions}.
+   */
+  public IncrementalEvaluator(@NotNull WithAccessor<AuthContext, Set<T>> evaluationTargetsAccessor,
+                              @NotNull AttributesWithAccessor<AuthContext> attributesAccessor,
+                              @NotNull List<AuthContextContributor> contributors,
+                              @NotNull IncrementalEvaluator.EvaluationResultAdapter<T, R> evaluationResultAdapter,
+                              @NotNull EvaluationOptions options) {
     this.targetsAccessor = evaluationTargetsAccessor;
     this.attributesAccessor = attributesAccessor;
     this.contributors = contributors;
     this.evaluationResultAdapter = evaluationResultAdapter;
+    this.contributorExecutor = options.contributorExecutor();
+    this.expansionLimit = options.expansionLimit();
+    this.metrics = options.metrics();
   }
 
   public Result<T, R> evaluate(final AuthContext source) {
-    // Create an array of lazily evaluation suppliers. The first the evaluate any result become the final result.
-    List<InternalEvaluator<T>> evaluationFunctions = new ArrayList<>();
+    Evaluation evaluation = new Evaluation(source);
+    try {
+      // The first step to evaluate any result become the final result.
+      Result<T, R> result = evaluation.evaluateStatic();
+      for (int i = 0; result == null && i < evaluation.active.size(); i++) {
+        result = evaluation.evaluatePopulated();
+        if (result == null) {
+          result = evaluation.evaluateContributed(evaluation.prefetch.contribute(i, evaluation.authContext()));
+        }
+      }
+      return result != null ? result : evaluation.finish();
+    } finally {
+      evaluation.end();
+    }
+  }
 
-    // static expression are added to evaluated directly.
-    Set<T> sourceTargets = targetsAccessor.get(source);
-    Map<Boolean, Set<T>> initialClassification = sourceTargets.stream()
-            .collect(Collectors.partitioningBy(Expression::isFullyEnhanced, Collectors.toSet()));
+  /**
+   * Evaluate without blocking on the contributors. The steps are the same as {@link #evaluate(AuthContext)}, the
+   * evaluation continues in the thread completing the contributor.
+   *
+   * @param source The source context
+   * @return The future of the evaluation result, completed exceptionally if the evaluation fails.
+   */
+  public CompletableFuture<Result<T, R>> evaluateAsync(final AuthContext source) {
+    Evaluation evaluation;
+    Result<T, R> result;
+    try {
+      evaluation = new Evaluation(source);
+      result = evaluation.evaluateStatic();
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    return evaluateAsync(evaluation, result, 0)
+            .whenComplete((ignored, throwable) -> evaluation.end());
+  }
 
-    // First evaluation function evaluates static expressions.
-    evaluationFunctions.add(context -> {
-      // 1. Classify enhanced and not enhanced
-      //    Already done above, skipped.
-
-      // 2. Update classified expressions to context
-      context = context.withExpressions(initialClassification);
-      // 3. Evaluate the enhanced expression
-      return evaluateEnhanced(context, initialClassification);
-    });
-
-    contributors.forEach(contributor -> evaluateContributor(contributor).forEach(evaluationFunctions::add));
-
-    InternalContext<T> internalContext =
-            new InternalContext<>(source, new HashSet<>(), new HashSet<>(),
-                                  initialClassification.getOrDefault(Boolean.FALSE, Collections.emptySet()));
-    for (InternalEvaluator<T> evaluator : evaluationFunctions) {
-      logger.debug("---- 1, Requests: {}.", internalContext.authContext.request());
-      InternalResult<T> result = evaluator.evaluate(internalContext);
-      // Return if the evaluation result is not null
-      if (result.result() != null) {
-        return new Result<>(evaluationResultAdapter.resultMapper(result.result()),
-                            result.context().authContext(),
-                            result.context().toBeEnhanced());
+  private CompletableFuture<Result<T, R>> evaluateAsync(Evaluation evaluation, Result<T, R> result, int index) {
+    try {
+      for (int i = index; result == null && i < evaluation.active.size(); i++) {
+        result = evaluation.evaluatePopulated();
+        if (result == null) {
+          CompletableFuture<AuthContextContributor.Result> contributed =
+                  evaluation.prefetch.contributeAsync(i, evaluation.authContext());
+          if (!contributed.isDone()) {
+            // Continue when the contributor completes
+            int next = i + 1;
+            return contributed.thenCompose(it -> evaluateAsync(evaluation, evaluation.evaluateContributed(it), next));
+          }
+          result = evaluation.evaluateContributed(Futures.join(contributed));
+        }
       }
-      AuthContext authContext = result.context().authContext();
-      authContext = targetsAccessor.with(authContext, result.context().enhanced());
-      internalContext = result.context().withAuthContext(authContext);
-      logger.debug("---- 2, Requests: {}.", internalContext.authContext.request());
+      return CompletableFuture.completedFuture(result != null ? result : evaluation.finish());
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
     }
-
-    return new Result<>(null, internalContext.authContext(), internalContext.toBeEnhanced());
   }
 
-  private @NotNull Stream<InternalEvaluator<T>> evaluateContributor(AuthContextContributor contributor) {
-    return Stream.of(this::evaluatePopulateAttributes,
-                     context -> doEvaluateContributor(contributor, context));
+  /**
+   * Select the contributors that may change the evaluation of the expressions.
+   * <p>
+   * A contributor is skipped if it declares the provided attributes, and neither the expressions nor the later
+   * contributors kept require any of them. The variables of the original expressions are used, as another value of
+   * an already contributed attribute still expands the expressions. Undeclared contributors and contributors before
+   * them are always kept.
+   *
+   * @param toBeEnhanced The expressions not fully enhanced
+   * @return The contributors to call, in the original order.
+   */
+  private List<AuthContextContributor> activeContributors(Collection<T> toBeEnhanced) {
+    Set<String> required = new HashSet<>();
+    for (T expression : toBeEnhanced) {
+      Set<String> names = expression.getVariableNames();
+      if (names == null) {
+        return contributors;
+      }
+      required.addAll(names);
+    }
+    boolean requireAll = false;
+    List<AuthContextContributor> active = new ArrayList<>(contributors.size());
+    for (int i = contributors.size() - 1; i >= 0; i--) {
+      AuthContextContributor contributor = contributors.get(i);
+      Set<String> provided = contributor.providedAttributes();
+      if (!requireAll && provided != null && Collections.disjoint(provided, required)) {
+        continue;
+      }
+      active.add(contributor);
+      if (contributor.requiredAttributes() == null) {
+        requireAll = true;
+      } else {
+        required.addAll(contributor.requiredAttributes());
+      }
+    }
+    if (active.size() == contributors.size()) {
+      return contributors;
+    }
+    logger.debug("Skipped {} of {} contributors, no pending variable is provided.",
+                 contributors.size() - active.size(), contributors.size());
+    Collections.reverse(active);
+    return active;
   }
 
   /**
    * Use the attributes in the context to evaluate the not enhanced expressions.
    *
-   * @param context Evaluation context
-   * @return The evaluation result
+   * @param workspace The state of the evaluation
+   * @param budget    The expansions of the evaluation, null if unlimited.
+   * @return The evaluation result, null if not completed.
    */
-  private @NotNull InternalResult<T> evaluatePopulateAttributes(InternalContext<T> context) {
+  private Either<T, T> evaluatePopulateAttributes(Workspace<T> workspace, ExpansionLimit.Budget budget) {
     // A. Enhance the left over of last round
-    AuthContext authContext = context.authContext();
-    Set<Map.Entry<String, String>> attributes = attributesAccessor.get(authContext);
-    Collection<T> toBeEnhanced = context.toBeEnhanced();
+    //    Only the expressions not yet enhanced with the values of their variables are enhanced. The original
+    //    expressions are enhanced by step C after the first round.
+    AttributeBag attributes = attributesAccessor.bag(workspace.authContext);
+    Set<T> outdated = workspace.outdated;
+    workspace.outdated = new HashSet<>();
     if (logger.isTraceEnabled()) {
-      logger.trace("Step A, toBeEnhanced: {}, attributes: {}.", toBeEnhanced.size(), attributes.size());
+      logger.trace("Step A, outdated: {}, toBeEnhanced: {}, attributes: {}.", outdated.size(),
+                   workspace.toBeEnhanced.size(), attributes.size());
     }
     // A.1. Enhance expression and classify the result
-    Map<Boolean, Set<T>> enhancedMap = toBeEnhanced.stream()
-            .flatMap(it -> it.enhance(attributes))
-            .collect(Collectors.groupingBy(Expression::isFullyEnhanced, HashMap::new, Collectors.toSet()));
-
-    // A.2. Update classified expressions to context
-    context = context.withExpressions(enhancedMap);
-    // A.3. Evaluate the enhanced expression
-    return evaluateEnhanced(context, enhancedMap);
+    Map<Boolean, Set<T>> enhancedMap = enhance(outdated, attributes, budget, workspace);
+
+    // A.2. Evaluate the enhanced expression
+    return evaluateEnhanced(workspace, enhancedMap);
   }
 
   /**
-   * Actually call the contributor to contribute attributes and do evaluation thereafter
+   * Combine the attributes of a contributor and do evaluation thereafter
    *
-   * @param contributor Contributor instance
-   * @param context     evaluation context
-   * @return The evaluation result
+   * @param contributed The result of the contributor
+   * @param index       Index of the original expressions to be enhanced
+   * @param budget      The expansions of the evaluation, null if unlimited.
+   * @param workspace   The state of the evaluation
+   * @return The evaluation result, null if not completed.
    */
-  private @NotNull InternalResult<T> doEvaluateContributor(AuthContextContributor contributor,
-                                                           InternalContext<T> context) {
-    AuthContext authContext = context.authContext();
-    Set<Map.Entry<String, String>> attributes = attributesAccessor.get(authContext);
-    // B. Contributor contributes
-    AuthContextContributor.Result contributed = contributor.contribute(authContext);
-    attributes.addAll(contributed.attributes());
+  private Either<T, T> doEvaluateContributor(AuthContextContributor.Result contributed,
+                                             VariableIndex<T> index,
+                                             ExpansionLimit.Budget budget,
+                                             Workspace<T> workspace) {
+    // B. Contributor contributes, the attributes of the source context are not modified
+    AttributeBag previous = attributesAccessor.bag(workspace.authContext);
+    Set<String> addedKeys = new HashSet<>();
+    for (Map.Entry<String, String> attribute : contributed.attributes()) {
+      if (!previous.contains(attribute)) {
+        addedKeys.add(attribute.getKey());
+      }
+    }
+    AttributeBag attributes = addedKeys.isEmpty() ? previous : previous.with(contributed.attributes());
     if (logger.isDebugEnabled()) {
       logger.debug("Step B, Contributor {} attributes count: {} -> {}.", contributed.contributorId(),
                    contributed.attributes().size(), attributes.size());
@@ -140,55 +226,114 @@ class IncrementalEvaluator<T extends Expression<T>, R> {
       }
     }
     // B.1. Update attribute to AuthContext
-    authContext = attributesAccessor.with(authContext, attributes);
-    context = context.withAuthContext(authContext);
+    workspace.authContext = attributesAccessor.with(workspace.authContext, attributes);
+    // B.2. The expressions enhanced by previous steps referencing the added attributes are outdated
+    if (!addedKeys.isEmpty()) {
+      workspace.outdated.addAll(workspace.produced.dependents(addedKeys));
+    }
 
     // C. Enhance the context with all attributes.
+    //    Only the expressions referencing the added attributes are enhanced. The others are enhanced with the same
+    //    attributes in step A and found not completed.
     // C.1. Classify enhanced and not enhanced
-    Map<Boolean, Set<T>> enhancedMap = context.initToBeEnhanced().stream()
-            .flatMap(it -> it.enhance(attributes))
-            .collect(Collectors.groupingBy(Expression::isFullyEnhanced, HashMap::new, Collectors.toSet()));
-    Set<T> enhanced2 = enhancedMap.getOrDefault(Boolean.TRUE, Collections.emptySet());
-    // C.2. Update classified expressions to context
-    context = context.withExpressions(enhancedMap);
+    Map<Boolean, Set<T>> enhancedMap = enhance(index.dependents(addedKeys), attributes, budget, workspace);
     if (logger.isDebugEnabled()) {
-      logger.debug("Step C, enhanced: {}, toBeEnhanced: {}.", enhanced2.size(), context.toBeEnhanced().size());
+      logger.debug("Step C, enhanced: {}, toBeEnhanced: {}.",
+                   enhancedMap.getOrDefault(Boolean.TRUE, Collections.emptySet()).size(),
+                   workspace.toBeEnhanced.size());
+    }
+    // C.2. Evaluate the enhanced expression
+    return evaluateEnhanced(workspace, enhancedMap);
+  }
+
+  /**
+   * Enhance the expressions with the attributes and classify them by {@link Expression#isFullyEnhanced()}.
+   *
+   * @param expressions The expressions to enhance
+   * @param attributes  The attributes to enhance with, grouped once for all the expressions.
+   * @param budget      The expansions of the evaluation, null if unlimited.
+   * @param workspace   The state of the evaluation, counting the expansions.
+   * @return The enhanced expressions, classified.
+   */
+  private Map<Boolean, Set<T>> enhance(Collection<T> expressions,
+                                       AttributeBag attributes,
+                                       ExpansionLimit.Budget budget,
+                                       Workspace<T> workspace) {
+    Classifier<T> classifier = new Classifier<>(budget);
+    try {
+      for (T expression : expressions) {
+        classifier.produced = 0;
+        expression.enhance(attributes, classifier);
+      }
+    } finally {
+      workspace.expansions += classifier.expansions;
     }
-    // C.3. Evaluate the enhanced expression
-    return evaluateEnhanced(context, enhancedMap);
+    return classifier.classified;
   }
 
-  private InternalResult<T> evaluateEnhanced(InternalContext<T> context,
-                                             Map<Boolean, Set<T>> expressionMap) {
-    Set<T> toBeEvaluated;
-    if (evaluationResultAdapter.supportPartiallyCompleted()) {
-      // evaluate all results
-      toBeEvaluated = expressionMap.values().stream()
-              .flatMap(Collection::stream)
-              .collect(Collectors.toSet());
-    } else {
-      // evaluate only completed results
-      toBeEvaluated = expressionMap.getOrDefault(Boolean.TRUE, Collections.emptySet());
-    }
-    Either<T, T> result = evaluateCompletion(toBeEvaluated);
+  /**
+   * D. Add the classified expressions to the workspace and evaluate them.
+   *
+   * @return The evaluation result, null if not completed.
+   */
+  private Either<T, T> evaluateEnhanced(Workspace<T> workspace, Map<Boolean, Set<T>> expressionMap) {
+    Set<T> enhanced = expressionMap.getOrDefault(Boolean.TRUE, Collections.emptySet());
+    Set<T> notEnhanced = expressionMap.getOrDefault(Boolean.FALSE, Collections.emptySet());
+    workspace.enhanced.addAll(enhanced);
+    for (T expression : notEnhanced) {
+      if (workspace.toBeEnhanced.add(expression)) {
+        workspace.produced.add(expression);
+      }
+    }
+
+    // evaluate the partially completed results only if supported
+    boolean partially = evaluationResultAdapter.supportPartiallyCompleted();
+    Either<T, T> result = evaluateCompletion(enhanced, workspace.held);
+    if (partially) {
+      result = evaluateCompletion(notEnhanced, result);
+    }
     logger.debug("Step D, evaluated to: {}", result);
-    AuthContext authContext = targetsAccessor.with(context.authContext(), toBeEvaluated);
-    context = context.withExpressions(expressionMap)
-            .withAuthContext(authContext);
+    if (result != null) {
+      // the evaluated expressions are the targets of the final context
+      Set<T> evaluated = enhanced;
+      if (partially && !notEnhanced.isEmpty()) {
+        evaluated = new HashSet<>(enhanced);
+        evaluated.addAll(notEnhanced);
+      }
+      workspace.authContext = targetsAccessor.with(workspace.authContext, evaluated);
+    }
+    return result;
+  }
 
-    if (result == null) {
-      return new InternalResult<>(null, context);
+  /**
+   * Find the completed expression taking precedence, see {@link EvaluationResultAdapter#precedence()}. Expressions
+   * not taking precedence over the best result so far are not evaluated.
+   *
+   * @param expressions The expressions to evaluate
+   * @param best        The best result so far, null if none.
+   * @return The best result, null if none.
+   */
+  private Either<T, T> evaluateCompletion(Collection<T> expressions, Either<T, T> best) {
+    Comparator<T> precedence = evaluationResultAdapter.precedence();
+    for (T expression : expressions) {
+      if (best != null) {
+        if (precedence == null) {
+          return best;
+        }
+        if (precedence.compare(expression, expressionOf(best)) >= 0) {
+          continue;
+        }
+      }
+      TriStateBoolean completed = evaluationResultAdapter.isCompleted(expression);
+      if (completed != TriStateBoolean.UNDEFINED) {
+        best = new Either<>(completed == TriStateBoolean.TRUE, expression, expression);
+      }
     }
-    return new InternalResult<>(result, context);
+    return best;
   }
 
-  private Either<T, T> evaluateCompletion(Collection<T> expressions) {
-    return expressions.stream()
-            .map(it -> Map.entry(it, evaluationResultAdapter.isCompleted(it)))
-            .filter(it -> it.getValue() != TriStateBoolean.UNDEFINED)
-            .findFirst()
-            .map(it -> new Either<>(it.getValue() == TriStateBoolean.TRUE, it.getKey(), it.getKey()))
-            .orElse(null);
+  private static <T> T expressionOf(Either<T, T> result) {
+    return result.successful() ? result.success() : result.failure();
   }
 
   /**
@@ -214,6 +359,28 @@ class IncrementalEvaluator<T extends Expression<T>, R> {
      */
     TriStateBoolean isCompleted(T expression);
 
+    /**
+     * The order of the completed expressions. When several expressions complete, the first one in this order is the
+     * result, whatever the order they are evaluated.
+     *
+     * @return The order of the expressions, null if the first completed expression found is the result.
+     */
+    default Comparator<T> precedence() {
+      return null;
+    }
+
+    /**
+     * Whether the pending expression would take precedence over the completed expression, if it completed later. The
+     * completed expression is held as long as such an expression may still be enhanced by the remaining contributors.
+     *
+     * @param pending   An expression not fully enhanced
+     * @param completed A completed expression
+     * @return True if the pending expression overrides the completed expression.
+     */
+    default boolean overrides(T pending, T completed) {
+      return false;
+    }
+
     /**
      * Convert the internal result to the final result.
      *
@@ -224,62 +391,237 @@ class IncrementalEvaluator<T extends Expression<T>, R> {
   }
 
   /**
-   * Internal evaluation context
-   *
-   * @param authContext      Auth context
-   * @param toBeEnhanced     The accumulated expressions to be enhanced.
-   * @param initToBeEnhanced The original expressions to be enhanced.
-   * @param <T>
+   * A single evaluation. Each step returns the result if the evaluation is completed, otherwise null.
    */
-  private record InternalContext<T>(AuthContext authContext,
-                                    Set<T> enhanced,
-                                    Set<T> toBeEnhanced,
-                                    Set<T> initToBeEnhanced) {
+  private final class Evaluation {
+    private final Map<Boolean, Set<T>> initialClassification;
+    private final List<AuthContextContributor> active;
+    private final ContributorPrefetch prefetch;
+    private final ExpansionLimit.Budget budget;
+    private final Workspace<T> workspace;
+    private final DecisionTrace trace;
+    private VariableIndex<T> index;
+    /**
+     * The index of the next contributor in {@link #active}.
+     */
+    private int next;
+    /**
+     * Whether the attributes of the context have been used to enhance the expressions, by the step A of the first
+     * round.
+     */
+    private boolean populated;
 
-    public InternalContext {
-      toBeEnhanced = Collections.unmodifiableSet(toBeEnhanced);
-      initToBeEnhanced = Collections.unmodifiableSet(initToBeEnhanced);
+    private Evaluation(AuthContext source) {
+      // the attributes are grouped once, each round combines the contributed attributes into a new bag
+      Set<Map.Entry<String, String>> sourceAttributes = attributesAccessor.get(source);
+      if (sourceAttributes != null && !(sourceAttributes instanceof AttributeBag)) {
+        source = attributesAccessor.with(source, AttributeBag.of(sourceAttributes));
+      }
+      // static expression are evaluated directly.
+      Set<T> sourceTargets = targetsAccessor.get(source);
+      initialClassification = sourceTargets.stream()
+              .collect(Collectors.partitioningBy(Expression::isFullyEnhanced, Collectors.toSet()));
+      Set<T> toBeEnhanced = initialClassification.getOrDefault(Boolean.FALSE, Collections.emptySet());
+      workspace = new Workspace<>(source, toBeEnhanced);
+      active = activeContributors(toBeEnhanced);
+      prefetch = ContributorPrefetch.start(active, source, attributesAccessor, contributorExecutor, metrics);
+      budget = (expansionLimit == null) ? null : expansionLimit.budget();
+      trace = source.trace();
     }
 
-    public InternalContext<T> withAuthContext(AuthContext context) {
-      return new InternalContext<>(context, enhanced(), toBeEnhanced(), initToBeEnhanced());
+    /**
+     * The first step evaluates static expressions.
+     */
+    private Result<T, R> evaluateStatic() {
+      // 1. Classify enhanced and not enhanced
+      //    Already done in the constructor, skipped.
+      // 2. Evaluate the enhanced expression
+      return advance(evaluateEnhanced(workspace, initialClassification));
     }
 
-    public InternalContext<T> withExpressions(Map<Boolean, Set<T>> enhanceMap) {
-      return withExpressions(enhanceMap.getOrDefault(Boolean.TRUE, Collections.emptySet()),
-                             enhanceMap.getOrDefault(Boolean.FALSE, Collections.emptySet()));
+    private Result<T, R> evaluatePopulated() {
+      populated = true;
+      return advance(evaluatePopulateAttributes(workspace, budget));
     }
 
-    public InternalContext<T> withExpressions(Set<T> enhanced2, Set<T> toBeEnhanced2) {
-      Set<T> enhancedNew = new HashSet<>(enhanced());
-      enhancedNew.addAll(enhanced2);
-      Set<T> toBeEnhancedNew = new HashSet<>(toBeEnhanced());
-      toBeEnhancedNew.addAll(toBeEnhanced2);
-      return new InternalContext<>(authContext(), enhancedNew, toBeEnhancedNew, initToBeEnhanced());
+    private Result<T, R> evaluateContributed(AuthContextContributor.Result contributed) {
+      if (index == null) {
+        index = new VariableIndex<>(workspace.initToBeEnhanced);
+      }
+      next++;
+      Result<T, R> result = advance(doEvaluateContributor(contributed, index, budget, workspace));
+      if (trace != null) {
+        trace.round(contributed.contributorId(), contributed.attributes().size(), workspace.enhanced.size(),
+                    workspace.toBeEnhanced.size());
+      }
+      return result;
+    }
+
+    private AuthContext authContext() {
+      return workspace.authContext;
+    }
+
+    /**
+     * Release the evaluation, completed or failed.
+     */
+    private void end() {
+      prefetch.cancel();
+      if (metrics != null) {
+        metrics.evaluationCompleted(workspace.expansions);
+      }
+    }
+
+    /**
+     * The last step, after all the contributors. The attributes of the context are used if no contributor was
+     * called, a held result is returned as nothing can override it anymore.
+     */
+    private Result<T, R> finish() {
+      if (!populated) {
+        Result<T, R> result = evaluatePopulated();
+        if (result != null) {
+          return result;
+        }
+      }
+      if (workspace.held != null) {
+        return completed(workspace.held);
+      }
+      return new Result<>(null, workspace.authContext, workspace.toBeEnhancedView);
+    }
+
+    private Result<T, R> advance(Either<T, T> result) {
+      // Return if the evaluation result is not null, and cannot be overridden by the remaining steps
+      if (result != null) {
+        if (!mayBeOverridden(expressionOf(result))) {
+          return completed(result);
+        }
+        workspace.held = result;
+      }
+      workspace.authContext = targetsAccessor.with(workspace.authContext, workspace.enhancedView);
+      logger.debug("---- Requests: {}.", workspace.authContext.request());
+      return null;
+    }
+
+    private Result<T, R> completed(Either<T, T> result) {
+      return new Result<>(evaluationResultAdapter.resultMapper(result),
+                          workspace.authContext,
+                          workspace.toBeEnhancedView);
+    }
+
+    /**
+     * Check if an original expression overriding the completed expression may still complete. Every expression the
+     * remaining steps enhance derives from an original expression, enhanced with attributes of the context not used
+     * yet or with attributes of the remaining contributors.
+     */
+    private boolean mayBeOverridden(T completed) {
+      if (next >= active.size() && populated) {
+        // no step is left
+        return false;
+      }
+      for (T pending : workspace.initToBeEnhanced) {
+        if (evaluationResultAdapter.overrides(pending, completed) && (!populated || isProvided(pending))) {
+          if (logger.isDebugEnabled()) {
+            logger.debug("Result {} is held, it may be overridden by {}.", completed, pending);
+          }
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * @return True if a remaining contributor may provide a variable of the expression.
+     */
+    private boolean isProvided(T expression) {
+      Set<String> names = expression.getVariableNames();
+      for (int i = next; i < active.size(); i++) {
+        Set<String> provided = active.get(i).providedAttributes();
+        if (names == null || provided == null || !Collections.disjoint(provided, names)) {
+          return true;
+        }
+      }
+      return false;
     }
   }
 
   /**
-   * Internal and intermediate result produced by {@link InternalEvaluator}
+   * Classify the enhanced expressions by {@link Expression#isFullyEnhanced()}, counting the extra expressions each
+   * expression enhances to against the budget. One instance is used for all the expressions of a step, so enhancing
+   * does not create a stream per expression.
    *
-   * @param result  The evaluated result. Null if nothing is found, otherwise the result.
-   * @param context The context after evaluation.
-   * @param <T>
+   * @param <T> Expression implementation type
    */
-  private record InternalResult<T extends Expression<T>>(
-          Either<T, T> result,
-          InternalContext<T> context
-  ) {
+  private static final class Classifier<T extends Expression<T>> implements Consumer<T> {
+    private final Map<Boolean, Set<T>> classified = new HashMap<>();
+    private final ExpansionLimit.Budget budget;
+    private int produced;
+    private int expansions;
+
+    Classifier(ExpansionLimit.Budget budget) {
+      this.budget = budget;
+    }
+
+    @Override
+    public void accept(T enhanced) {
+      if (produced++ > 0) {
+        expansions++;
+        if (budget != null) {
+          budget.expand();
+        }
+      }
+      classified.computeIfAbsent(enhanced.isFullyEnhanced(), k -> new HashSet<>()).add(enhanced);
+    }
   }
 
   /**
-   * Internal evaluator to simplifies complex java.util.Function declaration.
+   * The mutable state of a single evaluation.
+   * <p>
+   * The steps add the expressions they enhance in place, the cost of a step follows the expressions it enhances
+   * rather than all the expressions of the evaluation. The context carries read-only views of the expressions, which
+   * keep growing until the evaluation completes. The workspace is used by one thread at a time, an asynchronous
+   * evaluation hands it over to the thread completing the contributor.
    *
-   * @param <T>
+   * @param <T> Expression implementation type
    */
-  @FunctionalInterface
-  private interface InternalEvaluator<T extends Expression<T>> {
-    InternalResult<T> evaluate(InternalContext<T> context);
+  private static final class Workspace<T extends Expression<T>> {
+    private AuthContext authContext;
+    /**
+     * The accumulated fully enhanced expressions.
+     */
+    private final Set<T> enhanced = new HashSet<>();
+    private final Set<T> enhancedView = Collections.unmodifiableSet(enhanced);
+    /**
+     * The accumulated expressions to be enhanced.
+     */
+    private final Set<T> toBeEnhanced = new HashSet<>();
+    private final Set<T> toBeEnhancedView = Collections.unmodifiableSet(toBeEnhanced);
+    /**
+     * The original expressions to be enhanced.
+     */
+    private final Set<T> initToBeEnhanced;
+    /**
+     * The expressions to be enhanced produced by the steps, by the variables they still reference.
+     */
+    private final VariableIndex<T> produced = new VariableIndex<>(List.<T>of());
+    /**
+     * The expressions to be enhanced by the next step A, as the attributes they reference have changed since they
+     * were produced. Initially the original expressions.
+     */
+    private Set<T> outdated;
+    /**
+     * The completed result held until no expression overriding it may complete, null if none.
+     */
+    private Either<T, T> held;
+    /**
+     * The number of expressions expanded by multi-valued attributes.
+     */
+    private int expansions;
+
+    private Workspace(AuthContext authContext, Set<T> initToBeEnhanced) {
+      this.authContext = authContext;
+      this.initToBeEnhanced = Collections.unmodifiableSet(initToBeEnhanced);
+      this.toBeEnhanced.addAll(initToBeEnhanced);
+      this.outdated = new HashSet<>(initToBeEnhanced);
+    }
   }
 
   /**
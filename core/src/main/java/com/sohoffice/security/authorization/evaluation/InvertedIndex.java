@@ -0,0 +1,100 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.util.MappedEncoding;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * An inverted index from the interned literal values of a statement component, such as principals, to the ids of
+ * the statements that contain them.
+ * <p>
+ * Patterns with a wildcard '*' or a '${}' variable cannot be looked up by value, they are kept in a residual set
+ * that is always part of the candidates.
+ * <p>
+ * The index is not thread-safe while being built, it can be shared between threads once built. A built index can
+ * be encoded and looked up without loading it on the heap, see {@link MappedInvertedIndex}.
+ */
+final class InvertedIndex {
+  private final SymbolTable symbols;
+  private final List<BitSet> postings = new ArrayList<>();
+  private final BitSet residual = new BitSet();
+
+  InvertedIndex(SymbolTable symbols) {
+    this.symbols = symbols;
+  }
+
+  /**
+   * Add a value of the statement.
+   *
+   * @param value The value, may be a pattern
+   * @param id    The id of the statement
+   */
+  void add(String value, int id) {
+    if (value.contains("*") || value.contains("${")) {
+      residual.set(id);
+      return;
+    }
+    int symbol = symbols.intern(value);
+    while (postings.size() <= symbol) {
+      postings.add(null);
+    }
+    BitSet posting = postings.get(symbol);
+    if (posting == null) {
+      posting = new BitSet();
+      postings.set(symbol, posting);
+    }
+    posting.set(id);
+  }
+
+  /**
+   * Collect the ids of statements that could match any of the values.
+   *
+   * @param values The requested values
+   * @param out    The ids are added to this bitset
+   */
+  void collect(Iterable<String> values, BitSet out) {
+    out.or(residual);
+    for (String value : values) {
+      int symbol = symbols.idOf(value);
+      if (symbol >= 0 && symbol < postings.size()) {
+        BitSet posting = postings.get(symbol);
+        if (posting != null) {
+          out.or(posting);
+        }
+      }
+    }
+  }
+
+  /**
+   * Encode the index for {@link MappedInvertedIndex}.
+   *
+   * @return The encoded index
+   */
+  byte[] encode() {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.write(new byte[MappedInvertedIndex.HEADER]);
+      Map<String, Integer> offsets = new HashMap<>();
+      for (int symbol = 0; symbol < postings.size(); symbol++) {
+        BitSet posting = postings.get(symbol);
+        if (posting != null) {
+          offsets.put(symbols.symbol(symbol), MappedEncoding.writeBits(out, posting));
+        }
+      }
+      int table = MappedEncoding.writeTable(out, offsets);
+      int residual = MappedEncoding.writeBits(out, this.residual);
+      return ByteBuffer.wrap(bytes.toByteArray())
+              .putInt(0, residual)
+              .putInt(4, table)
+              .array();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
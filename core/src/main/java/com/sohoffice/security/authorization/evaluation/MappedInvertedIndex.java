@@ -0,0 +1,42 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.util.MappedEncoding;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * An {@link InvertedIndex} looked up in its encoded form, ex: from a memory-mapped file.
+ * <p>
+ * The postings are found by the hash of the value in a table of the interned values, see {@link MappedEncoding}.
+ * <p>
+ * The layout, in big-endian order:
+ * <pre>
+ *   int residual bitset, int table of the postings by value
+ *   the postings, the keys and the table
+ * </pre>
+ * The index is immutable and can be shared between threads.
+ */
+final class MappedInvertedIndex {
+  static final int HEADER = 8;
+
+  private final ByteBuffer buffer;
+
+  /**
+   * @param buffer The index encoded by {@link InvertedIndex#encode()}, from position 0.
+   */
+  MappedInvertedIndex(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  /**
+   * The same as {@link InvertedIndex#collect(Iterable, BitSet)}.
+   */
+  void collect(Iterable<String> values, BitSet out) {
+    MappedEncoding.orBits(buffer, buffer.getInt(0), out);
+    int table = buffer.getInt(4);
+    for (String value : values) {
+      MappedEncoding.orBits(buffer, MappedEncoding.lookup(buffer, table, value, 0, value.length()), out);
+    }
+  }
+}
@@ -0,0 +1,268 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.io.AuthEffect;
+import com.sohoffice.security.authorization.io.AuthStatement;
+import com.sohoffice.security.authorization.util.MappedEncoding;
+import com.sohoffice.security.authorization.util.MappedStringMatchableAutomaton;
+import com.sohoffice.security.authorization.util.StringMatchableExpression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The index of a {@link CompiledPolicy} served from a {@link CompiledPolicySnapshot}.
+ * <p>
+ * The matchers, the postings, the ranks and the flags are read from the buffer on every lookup. Only the candidate
+ * statements are decoded, the first time they are found, and kept so the same instance is returned every time. The
+ * templates are stored parsed, each is compiled once and shared by the statements referencing it.
+ */
+final class MappedPolicyIndex implements PolicyIndex {
+  private final ByteBuffer buffer;
+  private final ByteBuffer symbols;
+  private final ByteBuffer templates;
+  private final ByteBuffer statements;
+  private final ByteBuffer ranks;
+  private final ByteBuffer flags;
+  private final MappedStringMatchableAutomaton resourceMatcher;
+  private final MappedStringMatchableAutomaton pendingResources;
+  private final MappedStringMatchableAutomaton actionMatcher;
+  private final MappedInvertedIndex principalIndex;
+  private final String version;
+  private final int size;
+  private final Set<String> variableNames;
+  private final AtomicReferenceArray<StringMatchableExpression> expressions;
+  private final AtomicReferenceArray<AuthStatementToEvaluate> compiled;
+
+  private MappedPolicyIndex(ByteBuffer buffer) {
+    this.buffer = buffer;
+    this.symbols = section(CompiledPolicySnapshot.SYMBOLS);
+    this.templates = section(CompiledPolicySnapshot.TEMPLATES);
+    this.statements = section(CompiledPolicySnapshot.STATEMENTS);
+    this.ranks = section(CompiledPolicySnapshot.RANKS);
+    this.flags = section(CompiledPolicySnapshot.FLAGS);
+    this.resourceMatcher = new MappedStringMatchableAutomaton(section(CompiledPolicySnapshot.RESOURCES));
+    this.pendingResources =
+            new MappedStringMatchableAutomaton(section(CompiledPolicySnapshot.PENDING_RESOURCES));
+    this.actionMatcher = new MappedStringMatchableAutomaton(section(CompiledPolicySnapshot.ACTIONS));
+    this.principalIndex = new MappedInvertedIndex(section(CompiledPolicySnapshot.PRINCIPALS));
+    ByteBuffer policy = section(CompiledPolicySnapshot.POLICY);
+    this.version = symbol(policy.getInt(0));
+    this.size = policy.getInt(4);
+    String[] names = new String[policy.getInt(8)];
+    for (int i = 0; i < names.length; i++) {
+      names[i] = symbol(policy.getInt(12 + i * 4));
+    }
+    this.variableNames = Set.of(names);
+    this.expressions = new AtomicReferenceArray<>(templates.getInt(0));
+    this.compiled = new AtomicReferenceArray<>(size);
+  }
+
+  /**
+   * @param buffer The content of a snapshot, from position 0.
+   * @throws IOException If the buffer is not a snapshot of the supported format.
+   */
+  static MappedPolicyIndex open(ByteBuffer buffer) throws IOException {
+    if (buffer.limit() < CompiledPolicySnapshot.HEADER || buffer.getInt(0) != CompiledPolicySnapshot.MAGIC) {
+      throw new IOException("Not a compiled policy snapshot.");
+    }
+    int format = buffer.getInt(4);
+    if (format != CompiledPolicySnapshot.FORMAT) {
+      throw new IOException("Unsupported compiled policy snapshot format: " + format);
+    }
+    return new MappedPolicyIndex(buffer);
+  }
+
+  private ByteBuffer section(int section) {
+    return buffer.slice(buffer.getInt(8 + section * 8), buffer.getInt(12 + section * 8));
+  }
+
+  String version() {
+    return version;
+  }
+
+  /**
+   * @return The content of the snapshot.
+   */
+  ByteBuffer buffer() {
+    return buffer.duplicate().clear();
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public AuthStatementToEvaluate statement(int id) {
+    AuthStatementToEvaluate statement = compiled.get(id);
+    if (statement == null) {
+      statement = decode(id);
+      AuthStatementToEvaluate previous = compiled.compareAndExchange(id, null, statement);
+      if (previous != null) {
+        statement = previous;
+      }
+    }
+    return statement;
+  }
+
+  @Override
+  public int idOf(AuthStatement statement) {
+    return statement instanceof MappedStatement mapped && mapped.index == this ? mapped.id : -1;
+  }
+
+  @Override
+  public int denyFirstRank(int id) {
+    return ranks.getInt(Objects.checkIndex(id, size) * 4);
+  }
+
+  @Override
+  public boolean hasStaticResources(int id) {
+    return MappedEncoding.getBit(flags, flags.getInt(0), id);
+  }
+
+  @Override
+  public boolean hasStaticActions(int id) {
+    return MappedEncoding.getBit(flags, flags.getInt(4), id);
+  }
+
+  @Override
+  public Set<String> variableNames() {
+    return variableNames;
+  }
+
+  @Override
+  public void matchResource(String resource, BitSet matches, BitSet pending) {
+    resourceMatcher.matches(resource, matches);
+    pendingResources.matches(resource, pending);
+  }
+
+  @Override
+  public void matchAction(String action, BitSet matches) {
+    actionMatcher.matches(action, matches);
+  }
+
+  @Override
+  public void collectPendingActions(BitSet out) {
+    MappedEncoding.orBits(flags, flags.getInt(8), out);
+  }
+
+  @Override
+  public void collectPrincipals(Set<String> principals, BitSet out) {
+    principalIndex.collect(principals, out);
+  }
+
+  private AuthStatementToEvaluate decode(int id) {
+    int position = statements.getInt(Objects.checkIndex(id, size) * 4);
+    String identifier = symbol(statements.getInt(position));
+    int effect = statements.getInt(position + 4);
+    position += 8;
+    List<List<String>> values = new ArrayList<>(3);
+    List<Set<StringMatchableExpression>> expressions = new ArrayList<>(3);
+    for (int component = 0; component < 3; component++) {
+      int count = statements.getInt(position);
+      position += 4;
+      String[] componentValues = new String[count];
+      StringMatchableExpression[] componentExpressions = new StringMatchableExpression[count];
+      for (int i = 0; i < count; i++) {
+        componentExpressions[i] = template(statements.getInt(position));
+        componentValues[i] = componentExpressions[i].getValue();
+        position += 4;
+      }
+      values.add(List.of(componentValues));
+      // a value repeated in the component shares the template, the set keeps one
+      expressions.add(Set.copyOf(Arrays.asList(componentExpressions)));
+    }
+    AuthEffect authEffect = effect == CompiledPolicySnapshot.NULL ? null : AuthEffect.forNumber(effect);
+    MappedStatement statement = new MappedStatement(this, id, values.get(0), values.get(1), values.get(2),
+                                                    authEffect, identifier);
+    return new AuthStatementToEvaluate(expressions.get(0), expressions.get(1), expressions.get(2), statement);
+  }
+
+  /**
+   * @return The compiled template, shared by all statements referencing it.
+   */
+  private StringMatchableExpression template(int template) {
+    StringMatchableExpression expression = expressions.get(template);
+    if (expression == null) {
+      int position = templates.getInt(4 + template * 4);
+      String[] segments = new String[templates.getInt(position + 4)];
+      for (int i = 0; i < segments.length; i++) {
+        segments[i] = symbol(templates.getInt(position + 8 + i * 4));
+      }
+      expression = StringMatchableExpression.compile(symbol(templates.getInt(position)), List.of(segments));
+      StringMatchableExpression previous = expressions.compareAndExchange(template, null, expression);
+      if (previous != null) {
+        expression = previous;
+      }
+    }
+    return expression;
+  }
+
+  private String symbol(int symbol) {
+    if (symbol == CompiledPolicySnapshot.NULL) {
+      return null;
+    }
+    int count = symbols.getInt(0);
+    int offsets = 4 + Objects.checkIndex(symbol, count) * 4;
+    int base = 4 + (count + 1) * 4;
+    int start = symbols.getInt(offsets);
+    return MappedEncoding.readString(symbols, base + start, symbols.getInt(offsets + 4) - start);
+  }
+
+  /**
+   * A statement decoded from the snapshot. Compared by identity, like the statements of a document.
+   */
+  private static final class MappedStatement implements AuthStatement {
+    private final MappedPolicyIndex index;
+    private final int id;
+    private final List<String> resources;
+    private final List<String> principals;
+    private final List<String> actions;
+    private final AuthEffect effect;
+    private final String identifier;
+
+    private MappedStatement(MappedPolicyIndex index, int id, List<String> resources, List<String> principals,
+                            List<String> actions, AuthEffect effect, String identifier) {
+      this.index = index;
+      this.id = id;
+      this.resources = resources;
+      this.principals = principals;
+      this.actions = actions;
+      this.effect = effect;
+      this.identifier = identifier;
+    }
+
+    @Override
+    public List<String> getResourcesList() {
+      return resources;
+    }
+
+    @Override
+    public List<String> getPrincipalsList() {
+      return principals;
+    }
+
+    @Override
+    public List<String> getActionsList() {
+      return actions;
+    }
+
+    @Override
+    public AuthEffect getEffect() {
+      return effect;
+    }
+
+    @Override
+    public String getIdentifier() {
+      return identifier;
+    }
+
+    @Override
+    public String toString() {
+      return "MappedStatement{" + identifier + ", " + effect + ", resources=" + resources + ", principals=" +
+              principals + ", actions=" + actions + "}";
+    }
+  }
+}
@@ -0,0 +1,258 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.AuthContextContributor;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The default {@link EvaluationMetrics}, accumulating the metrics in memory.
+ * <p>
+ * The latencies are recorded in {@link Histogram}, by stage name and by contributor id. A failed contributor is
+ * recorded by its class name. The counters are accumulated over all evaluations reporting to the recorder, an exporter
+ * is expected to read them periodically and to compute the rates.
+ * <p>
+ * Recording does not lock, the counters are {@link LongAdder}. The instance is thread safe and is expected to be
+ * shared.
+ */
+public class MetricsRecorder implements EvaluationMetrics {
+  private final ConcurrentMap<String, Histogram> stages = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Histogram> contributors = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, LongAdder> decidingStatements = new ConcurrentHashMap<>();
+  private final Map<AuthPipelineStepResultStatus, LongAdder> decisions =
+          new EnumMap<>(AuthPipelineStepResultStatus.class);
+  private final LongAdder evaluations = new LongAdder();
+  private final LongAdder expansions = new LongAdder();
+  private final LongAdder candidates = new LongAdder();
+  private final LongAdder scanned = new LongAdder();
+  private final LongAdder matched = new LongAdder();
+  private final LongAdder cacheHits = new LongAdder();
+  private final LongAdder cacheMisses = new LongAdder();
+
+  public MetricsRecorder() {
+    // populated once, only read afterward
+    for (AuthPipelineStepResultStatus status : AuthPipelineStepResultStatus.values()) {
+      decisions.put(status, new LongAdder());
+    }
+  }
+
+  @Override
+  public void stageCompleted(String stage, long nanos, AuthPipelineStepResultStatus status) {
+    histogram(stages, stage).record(nanos);
+  }
+
+  @Override
+  public void contributorCompleted(AuthContextContributor contributor, AuthContextContributor.Result result,
+                                   long nanos) {
+    String id = result == null || result.contributorId() == null ?
+            contributor.getClass().getName() : result.contributorId();
+    histogram(contributors, id).record(nanos);
+  }
+
+  @Override
+  public void evaluationCompleted(int expansions) {
+    evaluations.increment();
+    this.expansions.add(expansions);
+  }
+
+  @Override
+  public void statementsEvaluated(int candidates, int scanned, int matched) {
+    this.candidates.add(candidates);
+    this.scanned.add(scanned);
+    this.matched.add(matched);
+  }
+
+  @Override
+  public void decisionCacheLookup(boolean hit) {
+    (hit ? cacheHits : cacheMisses).increment();
+  }
+
+  @Override
+  public void decided(AuthPipelineStepResultStatus status, String statementId) {
+    decisions.get(status).increment();
+    if (statementId != null) {
+      decidingStatements.computeIfAbsent(statementId, k -> new LongAdder()).increment();
+    }
+  }
+
+  /**
+   * @return The latencies of the {@link AuthPipeline} stages, by stage name.
+   */
+  public Map<String, Histogram> stageLatencies() {
+    return Collections.unmodifiableMap(stages);
+  }
+
+  /**
+   * @return The latencies of the contributors, by contributor id.
+   */
+  public Map<String, Histogram> contributorLatencies() {
+    return Collections.unmodifiableMap(contributors);
+  }
+
+  /**
+   * @return The number of {@link IncrementalEvaluator} evaluations, failed ones included.
+   */
+  public long evaluationCount() {
+    return evaluations.sum();
+  }
+
+  /**
+   * @return The number of expressions expanded by multi-valued attributes.
+   */
+  public long expansionCount() {
+    return expansions.sum();
+  }
+
+  /**
+   * @return The number of candidate statements looked up in the compiled policies.
+   */
+  public long candidateCount() {
+    return candidates.sum();
+  }
+
+  /**
+   * @return The number of times a statement is checked for completion.
+   */
+  public long scannedCount() {
+    return scanned.sum();
+  }
+
+  /**
+   * @return The number of checks matching the request.
+   */
+  public long matchedCount() {
+    return matched.sum();
+  }
+
+  public long cacheHitCount() {
+    return cacheHits.sum();
+  }
+
+  public long cacheMissCount() {
+    return cacheMisses.sum();
+  }
+
+  /**
+   * @return The number of authorizations decided with the status.
+   */
+  public long decisionCount(AuthPipelineStepResultStatus status) {
+    return decisions.get(status).sum();
+  }
+
+  /**
+   * @return The number of decisions by the id of the deciding statement.
+   */
+  public Map<String, Long> decidingStatements() {
+    Map<String, Long> counts = new HashMap<>();
+    decidingStatements.forEach((id, count) -> counts.put(id, count.sum()));
+    return counts;
+  }
+
+  private static Histogram histogram(ConcurrentMap<String, Histogram> histograms, String name) {
+    // get first, computeIfAbsent may lock the bin even if the histogram exists
+    Histogram histogram = histograms.get(name);
+    return histogram != null ? histogram : histograms.computeIfAbsent(name, k -> new Histogram());
+  }
+
+  /**
+   * A latency histogram of power of two buckets. The bucket {@code i} counts the latencies of {@code i} significant
+   * bits, from 2<sup>i-1</sup> to 2<sup>i</sup>-1 nanoseconds. The percentiles are upper bounds, accurate to a factor
+   * of two. The instance is thread safe.
+   */
+  public static final class Histogram {
+    /**
+     * The number of buckets, a positive long has at most 63 significant bits.
+     */
+    public static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    Histogram() {
+      for (int i = 0; i < BUCKETS; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    void record(long nanos) {
+      // a clock going backward counts as zero
+      long value = Math.max(nanos, 0);
+      buckets[Long.SIZE - Long.numberOfLeadingZeros(value)].increment();
+      totalNanos.add(value);
+      maxNanos.accumulate(value);
+    }
+
+    /**
+     * @return The number of recorded latencies.
+     */
+    public long count() {
+      long count = 0;
+      for (LongAdder bucket : buckets) {
+        count += bucket.sum();
+      }
+      return count;
+    }
+
+    public Duration totalTime() {
+      return Duration.ofNanos(totalNanos.sum());
+    }
+
+    public Duration maxTime() {
+      return Duration.ofNanos(maxNanos.get());
+    }
+
+    /**
+     * @return The count of each bucket, see {@link #upperBound(int)}.
+     */
+    public long[] bucketCounts() {
+      long[] counts = new long[BUCKETS];
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] = buckets[i].sum();
+      }
+      return counts;
+    }
+
+    /**
+     * @param bucket The index of the bucket
+     * @return The largest latency of the bucket, in nanoseconds.
+     */
+    public static long upperBound(int bucket) {
+      return bucket >= Long.SIZE - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+    /**
+     * @param percentile The percentile, from 0 to 100.
+     * @return The upper bound of the bucket of the percentile, no more than the maximum. Zero if nothing is recorded.
+     */
+    public Duration percentile(double percentile) {
+      if (percentile < 0 || percentile > 100) {
+        throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+      }
+      long[] counts = bucketCounts();
+      long count = Arrays.stream(counts).sum();
+      if (count == 0) {
+        return Duration.ZERO;
+      }
+      long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Duration.ofNanos(Math.min(upperBound(i), maxNanos.get()));
+        }
+      }
+      return maxTime();
+    }
+
+    @Override
+    public String toString() {
+      return "Histogram{count=" + count() + ", total=" + totalTime() + ", p50=" + percentile(50) + ", p99=" +
+              percentile(99) + ", max=" + maxTime() + "}";
+    }
+  }
+}
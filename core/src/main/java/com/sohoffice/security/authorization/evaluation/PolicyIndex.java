@@ -0,0 +1,65 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.io.AuthStatement;
+
+import java.util.BitSet;
+import java.util.Set;
+
+/**
+ * The statements, matchers and indexes behind a {@link CompiledPolicy}, identified by the position of the statements.
+ * <p>
+ * They are either built on the heap by {@link CompiledPolicy.Builder}, or served from a file mapped by
+ * {@link CompiledPolicySnapshot}. An index is immutable and can be shared between threads.
+ */
+interface PolicyIndex {
+
+  /**
+   * @return The number of statements, the ids are from 0 to the size excluded.
+   */
+  int size();
+
+  /**
+   * @return The compiled statement of the id, the same instance every time.
+   */
+  AuthStatementToEvaluate statement(int id);
+
+  /**
+   * @return The id of the statement, or -1 if the statement is not part of this index.
+   */
+  int idOf(AuthStatement statement);
+
+  /**
+   * @return The rank of the statement with the DENY statements first.
+   */
+  int denyFirstRank(int id);
+
+  boolean hasStaticResources(int id);
+
+  boolean hasStaticActions(int id);
+
+  /**
+   * @return The names of all variables referenced by the statements.
+   */
+  Set<String> variableNames();
+
+  /**
+   * @param matches The statements with a fully enhanced pattern matching the resource are added
+   * @param pending The statements with a pattern not enhanced that could match the resource are added
+   */
+  void matchResource(String resource, BitSet matches, BitSet pending);
+
+  /**
+   * @param matches The statements with a fully enhanced pattern matching the action are added
+   */
+  void matchAction(String action, BitSet matches);
+
+  /**
+   * @param out The statements with an action not enhanced are added
+   */
+  void collectPendingActions(BitSet out);
+
+  /**
+   * @param out The statements with a principal that could match any of the principals are added
+   */
+  void collectPrincipals(Set<String> principals, BitSet out);
+}
@@ -0,0 +1,73 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.util.TriStateBoolean;
+
+import java.util.BitSet;
+import java.util.Set;
+
+/**
+ * The result of looking up a request in a {@link CompiledPolicy}.
+ * <p>
+ * Besides the candidate statements, it knows which statements are matched by the compiled resource and action
+ * matchers, so the fully enhanced components do not have to be matched again statement by statement.
+ */
+final class PolicyLookup {
+  private final CompiledPolicy policy;
+  private final Set<AuthStatementToEvaluate> statements;
+  private final BitSet resourceMatches;
+  private final BitSet actionMatches;
+
+  PolicyLookup(CompiledPolicy policy, Set<AuthStatementToEvaluate> statements, BitSet resourceMatches,
+               BitSet actionMatches) {
+    this.policy = policy;
+    this.statements = statements;
+    this.resourceMatches = resourceMatches;
+    this.actionMatches = actionMatches;
+  }
+
+  /**
+   * @return The candidate statements, in the order they are provided.
+   */
+  Set<AuthStatementToEvaluate> statements() {
+    return statements;
+  }
+
+  /**
+   * @return The rank of the statement in the policy by the algorithm, {@link Integer#MAX_VALUE} if the statement is
+   * not part of the policy.
+   */
+  int rank(AuthStatementToEvaluate expression, CombiningAlgorithm algorithm) {
+    int id = policy.idOf(expression.statement());
+    return id < 0 ? Integer.MAX_VALUE : policy.rank(id, algorithm);
+  }
+
+  /**
+   * @return TRUE or FALSE if the resources of the statement are decided by the compiled matchers, UNDEFINED if the
+   * resources must be matched by the expression.
+   */
+  TriStateBoolean resourceMatched(AuthStatementToEvaluate expression) {
+    int id = policy.idOf(expression.statement());
+    if (id < 0) {
+      return TriStateBoolean.UNDEFINED;
+    }
+    if (resourceMatches.get(id)) {
+      return TriStateBoolean.TRUE;
+    }
+    return policy.hasStaticResources(id) ? TriStateBoolean.FALSE : TriStateBoolean.UNDEFINED;
+  }
+
+  /**
+   * @return TRUE or FALSE if the actions of the statement are decided by the compiled matchers, UNDEFINED if the
+   * actions must be matched by the expression.
+   */
+  TriStateBoolean actionMatched(AuthStatementToEvaluate expression) {
+    int id = policy.idOf(expression.statement());
+    if (id < 0) {
+      return TriStateBoolean.UNDEFINED;
+    }
+    if (actionMatches.get(id)) {
+      return TriStateBoolean.TRUE;
+    }
+    return policy.hasStaticActions(id) ? TriStateBoolean.FALSE : TriStateBoolean.UNDEFINED;
+  }
+}
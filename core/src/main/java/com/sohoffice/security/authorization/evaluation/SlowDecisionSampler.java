@@ -0,0 +1,86 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Traces a sample of the decisions of {@link AuthorizePipelineStep}, and hands the traces of the slow decisions to a
+ * sink.
+ * <p>
+ * Whether a decision is slow is only known once it is decided, a sampled decision is traced from the start and kept
+ * only if it exceeds the threshold. The interval bounds the cost: one of every interval decisions is traced, chosen at
+ * random. Requests already traced by the caller are not sampled, see {@link DecisionTrace}.
+ * <p>
+ * The sink is called by the deciding thread and should hand the trace over, ex: to a queue or an asynchronous logger.
+ * The counters are accumulated over all decisions. The instance is thread safe and is expected to be shared.
+ */
+public class SlowDecisionSampler {
+  private static final Logger logger = LoggerFactory.getLogger(SlowDecisionSampler.class);
+
+  private final int interval;
+  private final long thresholdNanos;
+  private final Consumer<DecisionTrace> sink;
+  private final LongAdder sampled = new LongAdder();
+  private final LongAdder slow = new LongAdder();
+
+  /**
+   * @param interval  One of every interval decisions is traced, 1 to trace all decisions.
+   * @param threshold The decisions taking longer are handed to the sink
+   * @param sink      The consumer of the slow decisions
+   */
+  public SlowDecisionSampler(int interval, @NotNull Duration threshold, @NotNull Consumer<DecisionTrace> sink) {
+    if (interval < 1) {
+      throw new IllegalArgumentException("interval must be positive: " + interval);
+    }
+    this.interval = interval;
+    this.thresholdNanos = threshold.toNanos();
+    this.sink = sink;
+  }
+
+  /**
+   * @return The number of decisions traced.
+   */
+  public long sampledCount() {
+    return sampled.sum();
+  }
+
+  /**
+   * @return The number of traced decisions exceeding the threshold.
+   */
+  public long slowCount() {
+    return slow.sum();
+  }
+
+  /**
+   * @return A trace for the decision, null if it is not sampled.
+   */
+  DecisionTrace sample() {
+    if (interval > 1 && ThreadLocalRandom.current().nextInt(interval) != 0) {
+      return null;
+    }
+    sampled.increment();
+    return new DecisionTrace();
+  }
+
+  /**
+   * Hand the trace of a decided sample to the sink if the decision is slow.
+   */
+  void completed(DecisionTrace trace) {
+    if (trace.elapsed().toNanos() < thresholdNanos) {
+      return;
+    }
+    slow.increment();
+    try {
+      sink.accept(trace);
+    } catch (RuntimeException e) {
+      // the decision is made, a failing sink must not fail it
+      logger.warn("Slow decision sink failed.", e);
+    }
+  }
+}
@@ -7,7 +7,9 @@ import io.soabase.recordbuilder.core.RecordBuilder;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @RecordBuilder
 public record StatementToEvaluate(
@@ -45,4 +47,12 @@ public record StatementToEvaluate(
             principals.stream().allMatch(StringExpression::isFullyEnhanced) &&
             actions.stream().allMatch(StringExpression::isFullyEnhanced);
   }
+
+  @Override
+  public Set<String> getVariableNames() {
+    return Stream.of(resources, principals, actions)
+            .flatMap(List::stream)
+            .flatMap(it -> it.getVariableNames().stream())
+            .collect(Collectors.toSet());
+  }
 }
@@ -0,0 +1,45 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns the literal strings of a policy to int ids.
+ * <p>
+ * The table is not thread-safe while being built, it can be shared between threads once built.
+ */
+final class SymbolTable {
+  private final Map<String, Integer> ids = new HashMap<>();
+  private final List<String> symbols = new ArrayList<>();
+
+  /**
+   * @return The id of the symbol, a new id is assigned if the symbol is not yet interned.
+   */
+  int intern(String symbol) {
+    Integer id = ids.get(symbol);
+    if (id == null) {
+      id = symbols.size();
+      ids.put(symbol, id);
+      symbols.add(symbol);
+    }
+    return id;
+  }
+
+  /**
+   * @return The id of the symbol, or -1 if the symbol is not interned.
+   */
+  int idOf(String symbol) {
+    Integer id = ids.get(symbol);
+    return id == null ? -1 : id;
+  }
+
+  String symbol(int id) {
+    return symbols.get(id);
+  }
+
+  int size() {
+    return symbols.size();
+  }
+}
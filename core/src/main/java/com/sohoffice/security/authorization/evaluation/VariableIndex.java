@@ -0,0 +1,52 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.util.Expression;
+
+import java.util.*;
+
+/**
+ * An index from the variable names to the expressions referencing them.
+ * <p>
+ * Expressions with unknown variables, see {@link Expression#getVariableNames()}, depend on every variable.
+ * <p>
+ * Expressions can be added after the index is built. The index is not thread-safe.
+ *
+ * @param <T> Expression implementation type
+ */
+final class VariableIndex<T extends Expression<T>> {
+  private final Map<String, List<T>> byVariable = new HashMap<>();
+  private final List<T> unknown = new ArrayList<>();
+
+  VariableIndex(Collection<T> expressions) {
+    expressions.forEach(this::add);
+  }
+
+  /**
+   * Add an expression to the index, the caller makes sure it is not added twice.
+   */
+  void add(T expression) {
+    Set<String> names = expression.getVariableNames();
+    if (names == null) {
+      unknown.add(expression);
+      return;
+    }
+    for (String name : names) {
+      byVariable.computeIfAbsent(name, it -> new ArrayList<>()).add(expression);
+    }
+  }
+
+  /**
+   * @param variables The variable names
+   * @return The expressions referencing any of the variables
+   */
+  Set<T> dependents(Collection<String> variables) {
+    Set<T> result = new HashSet<>(unknown);
+    for (String variable : variables) {
+      List<T> expressions = byVariable.get(variable);
+      if (expressions != null) {
+        result.addAll(expressions);
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,227 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * A {@link CompiledPolicyProvider} reloading the policy when its files change.
+ * <p>
+ * The source is a policy file, or a directory of policy files recognized by {@link CompiledPolicyLoader#isPolicyFile}.
+ * The files of a directory are loaded in the order of their names, their statements are combined into one policy.
+ * The version of the policy is the SHA-256 of the names and the contents of its files, in hexadecimal. The same files
+ * always give the same version, whatever their modification time. The files are hashed before they are loaded, if a
+ * file changes in between, the change is reported and reloaded again.
+ * <p>
+ * The source is watched with a {@link WatchService}. The changes are reloaded by a background thread once no change
+ * is reported for a quiet period, an editor or a copy usually reports several changes per file. The policy is
+ * compiled aside and then published at once, the evaluations started before keep the policy they resolved. If the
+ * reload fails, ex: a file is written partially, the current policy is kept and the failure logged. Writing the files
+ * aside and moving them in place avoids the partial reads.
+ * <p>
+ * The provider is thread safe, it must be closed to stop watching.
+ */
+public final class WatchingPolicyProvider implements CompiledPolicyProvider, Closeable {
+  private static final Logger logger = LoggerFactory.getLogger(WatchingPolicyProvider.class);
+  private static final Duration DEFAULT_QUIET_PERIOD = Duration.ofMillis(200);
+
+  private final Path source;
+  private final boolean directory;
+  private final CompiledPolicyLoader loader;
+  private final Duration quietPeriod;
+  private final AtomicReference<CompiledPolicy> current = new AtomicReference<>();
+  private final LongAdder reloadCount = new LongAdder();
+  private final LongAdder failureCount = new LongAdder();
+  private final WatchService watchService;
+  private final Thread watcher;
+
+  /**
+   * Load the policy and start watching its source.
+   *
+   * @param source The policy file, or the directory of the policy files
+   * @param loader The loader of the policy files
+   * @throws IOException If the policy cannot be loaded, or the source cannot be watched.
+   */
+  public WatchingPolicyProvider(@NotNull Path source, @NotNull CompiledPolicyLoader loader) throws IOException {
+    this(source, loader, DEFAULT_QUIET_PERIOD);
+  }
+
+  WatchingPolicyProvider(Path source, CompiledPolicyLoader loader, Duration quietPeriod) throws IOException {
+    this.source = source.toAbsolutePath();
+    this.directory = Files.isDirectory(this.source);
+    this.loader = loader;
+    this.quietPeriod = quietPeriod;
+    current.set(load());
+    Path watched = directory ? this.source : this.source.getParent();
+    this.watchService = watched.getFileSystem().newWatchService();
+    try {
+      watched.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                       StandardWatchEventKinds.ENTRY_DELETE);
+    } catch (IOException e) {
+      watchService.close();
+      throw e;
+    }
+    this.watcher = Thread.ofPlatform().name("auth-policy-watcher").daemon().start(this::watch);
+  }
+
+  @Override
+  public CompiledPolicy compiledPolicy() {
+    return current.get();
+  }
+
+  /**
+   * Reload the policy now, the current policy is kept if the reload fails.
+   *
+   * @return The policy reloaded
+   * @throws IOException If the policy cannot be loaded.
+   */
+  public synchronized CompiledPolicy reload() throws IOException {
+    CompiledPolicy policy;
+    try {
+      policy = load();
+    } catch (IOException | RuntimeException e) {
+      failureCount.increment();
+      throw e;
+    }
+    current.set(policy);
+    reloadCount.increment();
+    logger.info("Reloaded {} statements of version {} from {}.", policy.size(), policy.version(), source);
+    return policy;
+  }
+
+  /**
+   * @return The number of reloads after the initial load.
+   */
+  public long reloadCount() {
+    return reloadCount.sum();
+  }
+
+  /**
+   * @return The number of failed reloads.
+   */
+  public long failureCount() {
+    return failureCount.sum();
+  }
+
+  /**
+   * Stop watching the source. The current policy is still provided.
+   */
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+    try {
+      watcher.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private CompiledPolicy load() throws IOException {
+    List<Path> files;
+    if (directory) {
+      try (Stream<Path> list = Files.list(source)) {
+        files = list.filter(CompiledPolicyLoader::isPolicyFile).filter(Files::isRegularFile).sorted().toList();
+      }
+    } else {
+      files = List.of(source);
+    }
+    CompiledPolicy.Builder builder = CompiledPolicy.builder(version(files));
+    for (Path file : files) {
+      loader.load(builder, file);
+    }
+    return builder.build();
+  }
+
+  /**
+   * @return The SHA-256 of the names and the contents of the files, in hexadecimal.
+   */
+  private static String version(List<Path> files) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not supported.", e);
+    }
+    byte[] buffer = new byte[8192];
+    for (Path file : files) {
+      byte[] name = file.getFileName().toString().getBytes(StandardCharsets.UTF_8);
+      digest.update(name);
+      digest.update((byte) 0);
+      long size = 0;
+      try (InputStream in = Files.newInputStream(file)) {
+        for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+          digest.update(buffer, 0, read);
+          size += read;
+        }
+      }
+      // the size ends the file, the next name cannot be mistaken for content
+      digest.update(Long.toString(size).getBytes(StandardCharsets.US_ASCII));
+      digest.update((byte) 0);
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  private void watch() {
+    try {
+      while (true) {
+        boolean changed = changed(watchService.take());
+        // wait for the changes to settle before reloading
+        WatchKey key;
+        while ((key = watchService.poll(quietPeriod.toNanos(), TimeUnit.NANOSECONDS)) != null) {
+          changed |= changed(key);
+        }
+        if (changed) {
+          try {
+            reload();
+          } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to reload the policy from {}, keeping version {}.", source,
+                        current.get().version(), e);
+          }
+        }
+      }
+    } catch (ClosedWatchServiceException e) {
+      logger.debug("Stopped watching {}.", source);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @return True if the events of the key concern the policy files.
+   */
+  private boolean changed(WatchKey key) {
+    boolean changed = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        changed = true;
+      } else if (event.context() instanceof Path name) {
+        changed |= directory ? CompiledPolicyLoader.isPolicyFile(name) : name.equals(source.getFileName());
+      }
+    }
+    if (!key.reset()) {
+      logger.warn("{} is no longer accessible, the policy is not reloaded anymore.", source);
+    }
+    return changed;
+  }
+}
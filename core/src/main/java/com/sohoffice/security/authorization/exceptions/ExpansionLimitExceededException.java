@@ -0,0 +1,11 @@
+package com.sohoffice.security.authorization.exceptions;
+
+/**
+ * Thrown if an evaluation expands more expressions than allowed, see
+ * {@link com.sohoffice.security.authorization.evaluation.ExpansionLimit}.
+ */
+public class ExpansionLimitExceededException extends SohofficeAuthException {
+  public ExpansionLimitExceededException(int maximum) {
+    super("The expressions expanded by multi-valued attributes exceed the limit of %d".formatted(maximum));
+  }
+}
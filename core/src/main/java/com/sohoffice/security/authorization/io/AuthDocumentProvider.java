@@ -0,0 +1,23 @@
+package com.sohoffice.security.authorization.io;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * A statement provider that also reports the version of the statements it provides.
+ * <p>
+ * Statements are compiled once per version. A compiled policy is only replaced when the provider reports a
+ * different {@link AuthDocument#version()}.
+ */
+public interface AuthDocumentProvider extends Supplier<List<? extends AuthStatement>> {
+
+  /**
+   * @return The current document. Version and statements must be read from the same document instance.
+   */
+  AuthDocument document();
+
+  @Override
+  default List<? extends AuthStatement> get() {
+    return document().statements();
+  }
+}
@@ -0,0 +1,193 @@
+package com.sohoffice.security.authorization.util;
+
+import java.util.*;
+
+/**
+ * An immutable multimap of attributes, grouped by key.
+ * <p>
+ * The keys are sorted and compared by equality, the values of a key are sorted and kept in an array backed list. The
+ * grouping is done once when the bag is built, so expressions look up the values of a variable without grouping or
+ * hashing the attributes again. The bag is also a {@link Set} of the attribute entries and can be used wherever the attributes
+ * are expected as a set, see {@link AttributesWithAccessor}.
+ * <p>
+ * The {@link #fingerprint()} is computed when the bag is built. Bags with the same attributes have the same
+ * fingerprint, bags with different fingerprints never have the same attributes.
+ * <p>
+ * The bag is immutable and can be shared between threads.
+ */
+public final class AttributeBag extends AbstractSet<Map.Entry<String, String>> {
+  private static final AttributeBag EMPTY = new AttributeBag(new TreeMap<>());
+
+  /**
+   * The keys in their natural order.
+   */
+  private final String[] keys;
+  /**
+   * The sorted values of each key, indexed the same as {@link #keys}.
+   */
+  private final List<String>[] values;
+  private final int size;
+  private final int hashCode;
+  private final long fingerprint;
+
+  @SuppressWarnings("unchecked")
+  private AttributeBag(SortedMap<String, SortedSet<String>> grouped) {
+    keys = new String[grouped.size()];
+    values = new List[grouped.size()];
+    int i = 0;
+    int count = 0;
+    int hash = 0;
+    long print = 0;
+    for (Map.Entry<String, SortedSet<String>> entry : grouped.entrySet()) {
+      String key = entry.getKey();
+      keys[i] = key;
+      values[i] = List.copyOf(entry.getValue());
+      count += values[i].size();
+      print = mix(print, key.hashCode());
+      for (String value : values[i]) {
+        // the same as the hash code of a set of Map.Entry
+        hash += key.hashCode() ^ value.hashCode();
+        print = mix(print, value.hashCode());
+      }
+      i++;
+    }
+    size = count;
+    hashCode = hash;
+    fingerprint = print;
+  }
+
+  public static AttributeBag empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Get the attributes as a bag.
+   *
+   * @param attributes The attributes, may be null.
+   * @return The attributes if already a bag, otherwise a bag of the attributes.
+   */
+  public static AttributeBag of(Collection<? extends Map.Entry<String, String>> attributes) {
+    if (attributes instanceof AttributeBag bag) {
+      return bag;
+    }
+    if (attributes == null || attributes.isEmpty()) {
+      return EMPTY;
+    }
+    return new AttributeBag(group(new TreeMap<>(), attributes));
+  }
+
+  /**
+   * Combine the attributes into a new bag.
+   *
+   * @param attributes The attributes to add
+   * @return The combined bag, or the current instance if all attributes are present.
+   */
+  public AttributeBag with(Collection<? extends Map.Entry<String, String>> attributes) {
+    if (containsAll(attributes)) {
+      return this;
+    }
+    TreeMap<String, SortedSet<String>> grouped = new TreeMap<>();
+    for (int i = 0; i < keys.length; i++) {
+      grouped.put(keys[i], new TreeSet<>(values[i]));
+    }
+    return new AttributeBag(group(grouped, attributes));
+  }
+
+  /**
+   * @return The keys in their natural order.
+   */
+  public List<String> keys() {
+    return List.of(keys);
+  }
+
+  public boolean containsKey(String key) {
+    return indexOf(key) >= 0;
+  }
+
+  /**
+   * @return The sorted values of the key, empty if the key is absent.
+   */
+  public List<String> values(String key) {
+    int index = indexOf(key);
+    return index < 0 ? List.of() : values[index];
+  }
+
+  /**
+   * @return A hash of all the attributes, computed when the bag is built.
+   */
+  public long fingerprint() {
+    return fingerprint;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    if (!(o instanceof Map.Entry<?, ?> entry) ||
+            !(entry.getKey() instanceof String key) || !(entry.getValue() instanceof String value)) {
+      return false;
+    }
+    int index = indexOf(key);
+    return index >= 0 && Collections.binarySearch(values[index], value) >= 0;
+  }
+
+  @Override
+  public Iterator<Map.Entry<String, String>> iterator() {
+    return new Iterator<>() {
+      private int key;
+      private int value;
+
+      @Override
+      public boolean hasNext() {
+        return key < keys.length;
+      }
+
+      @Override
+      public Map.Entry<String, String> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        Map.Entry<String, String> entry = Map.entry(keys[key], values[key].get(value));
+        if (++value == values[key].size()) {
+          key++;
+          value = 0;
+        }
+        return entry;
+      }
+    };
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o instanceof AttributeBag that) {
+      return fingerprint == that.fingerprint && size == that.size &&
+              Arrays.equals(keys, that.keys) && Arrays.equals(values, that.values);
+    }
+    return super.equals(o);
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+
+  private int indexOf(String key) {
+    return Arrays.binarySearch(keys, key);
+  }
+
+  private static SortedMap<String, SortedSet<String>> group(
+          SortedMap<String, SortedSet<String>> grouped,
+          Collection<? extends Map.Entry<String, String>> attributes) {
+    for (Map.Entry<String, String> attribute : attributes) {
+      grouped.computeIfAbsent(attribute.getKey(), k -> new TreeSet<>()).add(attribute.getValue());
+    }
+    return grouped;
+  }
+
+  private static long mix(long hash, int value) {
+    return (hash ^ value) * 0x9E3779B97F4A7C15L + 0x632BE59BD9B4E019L;
+  }
+}
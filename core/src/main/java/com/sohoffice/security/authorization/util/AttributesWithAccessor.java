@@ -7,6 +7,8 @@ import java.util.function.Function;
 
 /**
  * A specialized WithAccessor for attributes.
+ * <p>
+ * Attributes set as an {@link AttributeBag} are returned by {@link #bag(Object)} without being grouped again.
  *
  * @param <S> The source type
  */
@@ -15,4 +17,11 @@ public class AttributesWithAccessor<S> extends WithAccessor<S, Set<Map.Entry<Str
                                 BiFunction<S, Set<Map.Entry<String, String>>, S> wither) {
     super(getter, wither);
   }
+
+  /**
+   * @return The attributes of the source as an {@link AttributeBag}.
+   */
+  public AttributeBag bag(S source) {
+    return AttributeBag.of(get(source));
+  }
 }
@@ -1,26 +1,54 @@
 package com.sohoffice.security.authorization.util;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 public interface Expression<T extends Expression<T>> {
+  /**
+   * Enhance the expression with each value of each attribute.
+   * <p>
+   * The attributes are grouped by key with {@link AttributeBag#of(Collection)}, pass a bag to avoid grouping again.
+   *
+   * @param attributes attributes input to enhance the expression
+   * @return An expression for each value of the referenced attributes, and the current expression once if any
+   * attribute is not referenced.
+   */
   default Stream<T> enhance(Collection<Map.Entry<String, String>> attributes) {
-    Map<String, List<Map.Entry<String, String>>> grouped = attributes.stream()
-            .collect(Collectors.groupingBy(Map.Entry::getKey));
-    return grouped.entrySet().stream()
-            .flatMap(entry -> {
-              List<T> list = new ArrayList<>();
-              for (Map.Entry<String, String> attribute : entry.getValue()) {
-                T enhanced = this.enhance(attribute);
-                // if the string is not enhanced, return the original string and no need to continue with other values
-                if (Objects.equals(this.getValue(), enhanced.getValue())) {
-                  return Stream.of(getExpressionType().cast(this));
-                }
-                list.add(enhanced);
-              }
-              return list.stream();
-            });
+    AttributeBag bag = AttributeBag.of(attributes);
+    Set<String> names = getVariableNames();
+    List<T> list = new ArrayList<>();
+    boolean unchanged = false;
+    for (String key : bag.keys()) {
+      if (names != null && !names.contains(key)) {
+        unchanged = true;
+        continue;
+      }
+      for (String value : bag.values(key)) {
+        T enhanced = this.enhance(Map.entry(key, value));
+        // if the string is not enhanced, keep the original string and no need to continue with other values
+        if (enhanced == this || enhanced.equals(this)) {
+          unchanged = true;
+          break;
+        }
+        list.add(enhanced);
+      }
+    }
+    if (unchanged) {
+      list.add(getExpressionType().cast(this));
+    }
+    return list.stream();
+  }
+
+  /**
+   * Enhance the expression like {@link #enhance(Collection)}, passing the enhanced expressions to the consumer instead
+   * of returning them as a stream. Expressions enhanced on every evaluation override it to avoid the allocations.
+   *
+   * @param attributes attributes input to enhance the expression
+   * @param consumer   consumer of the enhanced expressions
+   */
+  default void enhance(AttributeBag attributes, Consumer<? super T> consumer) {
+    enhance((Collection<Map.Entry<String, String>>) attributes).forEach(consumer);
   }
 
   T enhance(Map.Entry<String, String> attribute);
@@ -30,4 +58,11 @@ public interface Expression<T extends Expression<T>> {
   Class<T> getExpressionType();
 
   boolean isFullyEnhanced();
+
+  /**
+   * @return The names of the variables still referenced by the expression, or null if unknown.
+   */
+  default Set<String> getVariableNames() {
+    return null;
+  }
 }
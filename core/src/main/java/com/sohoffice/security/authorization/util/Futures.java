@@ -0,0 +1,35 @@
+package com.sohoffice.security.authorization.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Helpers of {@link CompletableFuture}.
+ */
+public final class Futures {
+
+  private Futures() {
+  }
+
+  /**
+   * Wait for the future and return its value. The exception completing the future is thrown as it is, instead of
+   * wrapped in a {@link CompletionException}.
+   *
+   * @param future The future to wait for
+   * @param <V>    The value type
+   * @return The value of the future
+   */
+  public static <V> V join(CompletableFuture<V> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      if (e.getCause() instanceof Error error) {
+        throw error;
+      }
+      throw e;
+    }
+  }
+}
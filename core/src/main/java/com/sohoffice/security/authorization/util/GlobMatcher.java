@@ -0,0 +1,117 @@
+package com.sohoffice.security.authorization.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A matcher of glob patterns, where '*' matches one or more characters except the separators.
+ * <p>
+ * The pattern is split into the literals between the stars. Matching anchors the first literal at the start and the
+ * last literal at the end of the target, and finds the literals in between from left to right. The leftmost
+ * occurrence of a literal is always the best choice, so the target is scanned in a single pass without backtracking
+ * and without allocation.
+ * <p>
+ * The matcher is immutable and can be shared between threads.
+ */
+public final class GlobMatcher {
+  private final String pattern;
+  private final String separators;
+  /**
+   * The literals between the stars. There is one more literal than gaps, the first and last may be empty.
+   */
+  private final String[] literals;
+  /**
+   * The minimum length of each gap, which is the number of consecutive stars.
+   */
+  private final int[] minimums;
+
+  public GlobMatcher(String pattern) {
+    this(pattern, "/");
+  }
+
+  /**
+   * @param pattern    The glob pattern
+   * @param separators The characters that cannot be matched by '*'
+   */
+  public GlobMatcher(String pattern, String separators) {
+    this.pattern = pattern;
+    this.separators = separators;
+    List<String> literalList = new ArrayList<>();
+    List<Integer> minimumList = new ArrayList<>();
+    int start = 0;
+    int star;
+    while ((star = pattern.indexOf('*', start)) >= 0) {
+      literalList.add(pattern.substring(start, star));
+      int end = star;
+      while (end < pattern.length() && pattern.charAt(end) == '*') {
+        end++;
+      }
+      minimumList.add(end - star);
+      start = end;
+    }
+    literalList.add(pattern.substring(start));
+    this.literals = literalList.toArray(new String[0]);
+    this.minimums = minimumList.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  public String getPattern() {
+    return pattern;
+  }
+
+  public boolean matches(String target) {
+    if (minimums.length == 0) {
+      return pattern.equals(target);
+    }
+    String first = literals[0];
+    if (!target.startsWith(first)) {
+      return false;
+    }
+    int pos = first.length();
+    int last = literals.length - 1;
+    for (int i = 1; i < last; i++) {
+      int found = find(target, literals[i], pos, minimums[i - 1]);
+      if (found < 0) {
+        return false;
+      }
+      pos = found + literals[i].length();
+    }
+    String suffix = literals[last];
+    int suffixStart = target.length() - suffix.length();
+    return suffixStart >= pos + minimums[last - 1] &&
+            target.startsWith(suffix, suffixStart) &&
+            separatorIndex(target, pos, suffixStart) < 0;
+  }
+
+  /**
+   * Find the leftmost occurrence of the literal, leaving a gap of at least the minimum length without separator.
+   *
+   * @return The start of the literal, or -1 if not found.
+   */
+  private int find(String target, String literal, int gapStart, int minimum) {
+    int found = target.indexOf(literal, gapStart + minimum);
+    // an occurrence after a separator cannot be reached, and neither can the ones after it
+    return found < 0 || separatorIndex(target, gapStart, found) >= 0 ? -1 : found;
+  }
+
+  /**
+   * @return The index of the first separator in the range, or -1 if none.
+   */
+  private int separatorIndex(String target, int from, int to) {
+    if (separators.length() == 1) {
+      // the usual single separator is found by the intrinsic of String.indexOf
+      int index = target.indexOf(separators.charAt(0), from);
+      return index < to ? index : -1;
+    }
+    for (int i = from; i < to; i++) {
+      if (separators.indexOf(target.charAt(i)) >= 0) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public String toString() {
+    return pattern;
+  }
+}
@@ -0,0 +1,256 @@
+package com.sohoffice.security.authorization.util;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * The encodings shared by the structures served from a mapped file, see {@link MappedStringMatchableAutomaton}.
+ * <p>
+ * All values are big-endian and located by their offset from the start of the buffer, the readers only use absolute
+ * gets and can share a buffer between threads.
+ * <ul>
+ *   <li> A string is stored as the bytes of its chars, each char as 1 to 3 bytes like the modified UTF-8 of
+ *   {@link java.io.DataOutput}, without the length prefix. The chars of a target are compared to the bytes without
+ *   decoding them. </li>
+ *   <li> A bitset is stored as {@code int firstWord, int wordCount, long[wordCount]}, or as {@code -1, int count,
+ *   int[count]} sorted ids if that is smaller, ex: the single id of a literal pattern. The words start from 0 unless
+ *   that more than doubles them, a bitset of more than {@value #DENSE_WORDS} words from 0 is combined word by word.
+ *   </li>
+ *   <li> A table of strings is stored as {@code int count}, then {@code int hash, int keyOffset, int keyLength,
+ *   int value} of each entry, sorted by the hash of the key. The keys are stored before the table. </li>
+ * </ul>
+ * An empty bitset or table is not stored, its offset is {@link #NONE}.
+ */
+public final class MappedEncoding {
+  /**
+   * The offset of a structure not stored, or the value of a key not found.
+   */
+  public static final int NONE = -1;
+  private static final int IDS = -1;
+  private static final int DENSE_WORDS = 16;
+  private static final int ENTRY = 16;
+
+  private MappedEncoding() {
+  }
+
+  /**
+   * @return The offset of the string
+   */
+  public static int writeString(DataOutputStream out, String value) throws IOException {
+    int offset = out.size();
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c != 0 && c < 0x80) {
+        out.write(c);
+      } else if (c < 0x800) {
+        out.write(0xC0 | c >> 6);
+        out.write(0x80 | c & 0x3F);
+      } else {
+        out.write(0xE0 | c >> 12);
+        out.write(0x80 | c >> 6 & 0x3F);
+        out.write(0x80 | c & 0x3F);
+      }
+    }
+    return offset;
+  }
+
+  public static String readString(ByteBuffer buffer, int offset, int length) {
+    StringBuilder sb = new StringBuilder(length);
+    int end = offset + length;
+    for (int p = offset; p < end; ) {
+      int b = buffer.get(p++) & 0xFF;
+      if (b < 0x80) {
+        sb.append((char) b);
+      } else if (b < 0xE0) {
+        sb.append((char) ((b & 0x1F) << 6 | buffer.get(p++) & 0x3F));
+      } else {
+        sb.append((char) ((b & 0x0F) << 12 | (buffer.get(p++) & 0x3F) << 6 | buffer.get(p++) & 0x3F));
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @return True if the bytes are the string of the chars of the target from start to end.
+   */
+  public static boolean stringEquals(ByteBuffer buffer, int offset, int length, String target, int start, int end) {
+    int p = offset;
+    int limit = offset + length;
+    for (int i = start; i < end; i++) {
+      char c = target.charAt(i);
+      if (c != 0 && c < 0x80) {
+        if (p >= limit || buffer.get(p++) != (byte) c) {
+          return false;
+        }
+      } else if (c < 0x800) {
+        if (p + 2 > limit || buffer.get(p++) != (byte) (0xC0 | c >> 6) ||
+                buffer.get(p++) != (byte) (0x80 | c & 0x3F)) {
+          return false;
+        }
+      } else if (p + 3 > limit || buffer.get(p++) != (byte) (0xE0 | c >> 12) ||
+              buffer.get(p++) != (byte) (0x80 | c >> 6 & 0x3F) || buffer.get(p++) != (byte) (0x80 | c & 0x3F)) {
+        return false;
+      }
+    }
+    return p == limit;
+  }
+
+  /**
+   * @return The same as the hash code of the substring of the target from start to end.
+   */
+  public static int hash(String target, int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + target.charAt(i);
+    }
+    return hash;
+  }
+
+  /**
+   * @return The offset of the bitset, or {@link #NONE} if empty.
+   */
+  public static int writeBits(DataOutputStream out, BitSet bits) throws IOException {
+    if (bits.isEmpty()) {
+      return NONE;
+    }
+    int offset = out.size();
+    int words = ((bits.length() - 1) >>> 6) + 1;
+    int first = bits.nextSetBit(0) >>> 6;
+    if (first <= words - first) {
+      first = 0;
+    }
+    int cardinality = bits.cardinality();
+    if ((long) cardinality * 4 < (long) (words - first) * 8) {
+      out.writeInt(IDS);
+      out.writeInt(cardinality);
+      for (int id = bits.nextSetBit(0); id >= 0; id = bits.nextSetBit(id + 1)) {
+        out.writeInt(id);
+      }
+      return offset;
+    }
+    long[] array = bits.toLongArray();
+    out.writeInt(first);
+    out.writeInt(words - first);
+    for (int i = first; i < words; i++) {
+      out.writeLong(array[i]);
+    }
+    return offset;
+  }
+
+  /**
+   * Add the bits of the stored bitset to the output.
+   */
+  public static void orBits(ByteBuffer buffer, int offset, BitSet out) {
+    if (offset == NONE) {
+      return;
+    }
+    int first = buffer.getInt(offset);
+    int count = buffer.getInt(offset + 4);
+    if (first == IDS) {
+      for (int i = 0; i < count; i++) {
+        out.set(buffer.getInt(offset + 8 + i * 4));
+      }
+    } else if (first == 0 && count > DENSE_WORDS) {
+      out.or(BitSet.valueOf(buffer.slice(offset + 8, count * 8).asLongBuffer()));
+    } else {
+      for (int i = 0; i < count; i++) {
+        long word = buffer.getLong(offset + 8 + i * 8);
+        int base = (first + i) << 6;
+        while (word != 0) {
+          out.set(base + Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return The bit of the stored bitset.
+   */
+  public static boolean getBit(ByteBuffer buffer, int offset, int bit) {
+    if (offset == NONE) {
+      return false;
+    }
+    int first = buffer.getInt(offset);
+    int count = buffer.getInt(offset + 4);
+    if (first == IDS) {
+      int low = 0;
+      int high = count - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int id = buffer.getInt(offset + 8 + mid * 4);
+        if (id < bit) {
+          low = mid + 1;
+        } else if (id > bit) {
+          high = mid - 1;
+        } else {
+          return true;
+        }
+      }
+      return false;
+    }
+    int word = (bit >>> 6) - first;
+    return word >= 0 && word < count && (buffer.getLong(offset + 8 + word * 8) & 1L << bit) != 0;
+  }
+
+  /**
+   * @param entries The values of the keys, the values are usually offsets of structures stored before.
+   * @return The offset of the table, or {@link #NONE} if empty.
+   */
+  public static int writeTable(DataOutputStream out, Map<String, Integer> entries) throws IOException {
+    if (entries.isEmpty()) {
+      return NONE;
+    }
+    List<String> keys = new ArrayList<>(entries.keySet());
+    keys.sort(Comparator.comparingInt(String::hashCode));
+    int[] keyOffsets = new int[keys.size()];
+    int[] keyLengths = new int[keys.size()];
+    for (int i = 0; i < keys.size(); i++) {
+      keyOffsets[i] = writeString(out, keys.get(i));
+      keyLengths[i] = out.size() - keyOffsets[i];
+    }
+    int offset = out.size();
+    out.writeInt(keys.size());
+    for (int i = 0; i < keys.size(); i++) {
+      out.writeInt(keys.get(i).hashCode());
+      out.writeInt(keyOffsets[i]);
+      out.writeInt(keyLengths[i]);
+      out.writeInt(entries.get(keys.get(i)));
+    }
+    return offset;
+  }
+
+  /**
+   * Look up the substring of the target from start to end in the stored table.
+   *
+   * @return The value of the key, or {@link #NONE} if not found.
+   */
+  public static int lookup(ByteBuffer buffer, int table, String target, int start, int end) {
+    if (table == NONE) {
+      return NONE;
+    }
+    int hash = hash(target, start, end);
+    int entries = table + 4;
+    int low = 0;
+    int high = buffer.getInt(table);
+    // the first entry of the hash
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (buffer.getInt(entries + mid * ENTRY) < hash) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    int count = buffer.getInt(table);
+    for (int i = low; i < count && buffer.getInt(entries + i * ENTRY) == hash; i++) {
+      int entry = entries + i * ENTRY;
+      if (stringEquals(buffer, buffer.getInt(entry + 4), buffer.getInt(entry + 8), target, start, end)) {
+        return buffer.getInt(entry + 12);
+      }
+    }
+    return NONE;
+  }
+}
@@ -0,0 +1,96 @@
+package com.sohoffice.security.authorization.util;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A {@link StringMatchableAutomaton} matched in its encoded form, ex: from a memory-mapped file.
+ * <p>
+ * The nodes are not loaded on the heap. A walk reads the bitsets of the nodes it visits and looks up the literal
+ * edges by the hash of the segment, comparing the encoded key with the chars of the target, see
+ * {@link MappedEncoding}. The segments of the target are not copied unless a node has pattern edges, the
+ * {@link GlobMatcher} of a pattern edge is created the first time it is reached.
+ * <p>
+ * The layout, in big-endian order:
+ * <pre>
+ *   int separator, int patternCount, int root offset
+ *   the nodes, each after its children:
+ *     int prefix bitset, int terminal bitset, int any child, int literal table,
+ *     int count, then int keyOffset, int keyLength, int child, int pattern index of each pattern edge
+ * </pre>
+ * The automaton is immutable and can be shared between threads.
+ */
+public final class MappedStringMatchableAutomaton {
+  static final int HEADER = 12;
+  private static final int NONE = MappedEncoding.NONE;
+
+  private final ByteBuffer buffer;
+  private final char separator;
+  private final int root;
+  private final AtomicReferenceArray<GlobMatcher> matchers;
+
+  /**
+   * @param buffer The automaton encoded by {@link StringMatchableAutomaton#encode()}, from position 0.
+   */
+  public MappedStringMatchableAutomaton(ByteBuffer buffer) {
+    this.buffer = buffer;
+    this.separator = (char) buffer.getInt(0);
+    this.matchers = new AtomicReferenceArray<>(buffer.getInt(4));
+    this.root = buffer.getInt(8);
+  }
+
+  /**
+   * Match the target against all patterns and prefixes, the same as
+   * {@link StringMatchableAutomaton#matches(String, BitSet)}.
+   *
+   * @param target The target
+   * @param out    The ids of the matches are added to this bitset
+   */
+  public void matches(String target, BitSet out) {
+    walk(root, target, 0, out);
+  }
+
+  /**
+   * @param start The start of the segment, past the end of the target once all segments are consumed.
+   */
+  private void walk(int node, String target, int start, BitSet out) {
+    MappedEncoding.orBits(buffer, buffer.getInt(node), out);
+    if (start > target.length()) {
+      MappedEncoding.orBits(buffer, buffer.getInt(node + 4), out);
+      return;
+    }
+    int end = target.indexOf(separator, start);
+    if (end < 0) {
+      end = target.length();
+    }
+    int literal = MappedEncoding.lookup(buffer, buffer.getInt(node + 12), target, start, end);
+    if (literal != NONE) {
+      walk(literal, target, end + 1, out);
+    }
+    int any = buffer.getInt(node + 8);
+    if (any != NONE && end > start) {
+      walk(any, target, end + 1, out);
+    }
+    int count = buffer.getInt(node + 16);
+    if (count > 0) {
+      String segment = target.substring(start, end);
+      for (int i = 0; i < count; i++) {
+        int edge = node + 20 + i * 16;
+        if (matcher(edge).matches(segment)) {
+          walk(buffer.getInt(edge + 8), target, end + 1, out);
+        }
+      }
+    }
+  }
+
+  private GlobMatcher matcher(int edge) {
+    int index = buffer.getInt(edge + 12);
+    GlobMatcher matcher = matchers.get(index);
+    if (matcher == null) {
+      matcher = new GlobMatcher(MappedEncoding.readString(buffer, buffer.getInt(edge), buffer.getInt(edge + 4)));
+      matchers.set(index, matcher);
+    }
+    return matcher;
+  }
+}
@@ -0,0 +1,127 @@
+package com.sohoffice.security.authorization.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A bounded, lock-free queue of many producers and a single consumer.
+ * <p>
+ * Each slot carries a sequence telling whether it is free for the producer of a position, or filled for the consumer.
+ * Producers claim a position with a compare and set, and never wait for each other to complete. The consumer reads
+ * the slots in order. Offering to a full buffer fails immediately, the caller decides whether to drop or retry.
+ * <p>
+ * {@link #offer(Object)} is thread safe, {@link #poll()} and {@link #drain(Consumer, int)} must be called by a single
+ * thread at a time.
+ *
+ * @param <E> The element type
+ */
+public class MpscRingBuffer<E> {
+  private final AtomicReferenceArray<E> elements;
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final AtomicLong tail = new AtomicLong();
+  private volatile long head;
+
+  /**
+   * @param capacity The minimum capacity, rounded up to a power of two of at least 2. With a single slot, the sequence
+   *                 of a slot freed for the next round would equal the sequence of the slot filled in this round.
+   */
+  public MpscRingBuffer(int capacity) {
+    if (capacity <= 0 || capacity > 1 << 30) {
+      throw new IllegalArgumentException("capacity must be between 1 and 2^30: " + capacity);
+    }
+    int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+    elements = new AtomicReferenceArray<>(size);
+    sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+    mask = size - 1;
+  }
+
+  public int capacity() {
+    return mask + 1;
+  }
+
+  /**
+   * @return The number of elements, a snapshot which may be outdated when returned.
+   */
+  public int size() {
+    return (int) Math.max(0, Math.min(capacity(), tail.get() - head));
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * Add the element, without waiting.
+   *
+   * @param element The element, not null.
+   * @return False if the buffer is full.
+   */
+  public boolean offer(E element) {
+    if (element == null) {
+      throw new NullPointerException("element");
+    }
+    long position = tail.get();
+    while (true) {
+      int index = (int) (position & mask);
+      long available = sequences.get(index) - position;
+      if (available == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          elements.set(index, element);
+          // publish the slot to the consumer
+          sequences.set(index, position + 1);
+          return true;
+        }
+        position = tail.get();
+      } else if (available < 0) {
+        // the consumer has not freed the slot of the previous round
+        return false;
+      } else {
+        // another producer claimed the position
+        position = tail.get();
+      }
+    }
+  }
+
+  /**
+   * @return The oldest element, null if the buffer is empty or the oldest element is being published.
+   */
+  public E poll() {
+    long position = head;
+    int index = (int) (position & mask);
+    if (sequences.get(index) != position + 1) {
+      return null;
+    }
+    E element = elements.get(index);
+    elements.set(index, null);
+    // free the slot for the producer of the next round
+    sequences.set(index, position + mask + 1);
+    head = position + 1;
+    return element;
+  }
+
+  /**
+   * Remove the elements in order, up to the limit.
+   *
+   * @param consumer The consumer of the removed elements
+   * @param limit    The maximum number of elements to remove
+   * @return The number of removed elements.
+   */
+  public int drain(Consumer<? super E> consumer, int limit) {
+    int count = 0;
+    while (count < limit) {
+      E element = poll();
+      if (element == null) {
+        break;
+      }
+      consumer.accept(element);
+      count++;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,113 @@
+package com.sohoffice.security.authorization.util;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * A bounded, thread-safe map evicting the least recently used entries.
+ * <p>
+ * The entries are spread over segments by the hash of the key, each segment is a LRU map with its own lock. The
+ * bound is per segment, each segment holds at most the maximum size divided by the number of segments, rounded up. The
+ * map may hold slightly more than the maximum size in total, and a segment may evict while the others are not full.
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ */
+public class SegmentedLruMap<K, V> {
+  private static final int SEGMENTS = 16;
+
+  private final List<Map<K, V>> segments;
+
+  /**
+   * @param maximumSize The maximum number of entries, rounded up to a multiple of the number of segments.
+   */
+  public SegmentedLruMap(int maximumSize) {
+    if (maximumSize <= 0) {
+      throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+    }
+    int segmentCount = Math.min(SEGMENTS, maximumSize);
+    int segmentSize = Math.ceilDiv(maximumSize, segmentCount);
+    List<Map<K, V>> list = new ArrayList<>(segmentCount);
+    for (int i = 0; i < segmentCount; i++) {
+      list.add(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+          return size() > segmentSize;
+        }
+      });
+    }
+    this.segments = List.copyOf(list);
+  }
+
+  /**
+   * Get the value of the key, the entry is removed if the value is no longer valid.
+   *
+   * @param key   The key
+   * @param valid Whether the value is still valid
+   * @return The valid value, or null if absent.
+   */
+  public V get(K key, Predicate<V> valid) {
+    Map<K, V> segment = segment(key);
+    synchronized (segment) {
+      V value = segment.get(key);
+      if (value != null && !valid.test(value)) {
+        segment.remove(key);
+        return null;
+      }
+      return value;
+    }
+  }
+
+  public void put(K key, V value) {
+    Map<K, V> segment = segment(key);
+    synchronized (segment) {
+      segment.put(key, value);
+    }
+  }
+
+  /**
+   * Replace the value of the key only if it is currently mapped to the expected value.
+   *
+   * @return Whether the value is replaced
+   */
+  public boolean replace(K key, V expected, V value) {
+    Map<K, V> segment = segment(key);
+    synchronized (segment) {
+      return segment.replace(key, expected, value);
+    }
+  }
+
+  /**
+   * Remove the entries of the matching keys.
+   */
+  public void removeIf(Predicate<K> filter) {
+    for (Map<K, V> segment : segments) {
+      synchronized (segment) {
+        segment.keySet().removeIf(filter);
+      }
+    }
+  }
+
+  public void clear() {
+    for (Map<K, V> segment : segments) {
+      synchronized (segment) {
+        segment.clear();
+      }
+    }
+  }
+
+  public int size() {
+    int size = 0;
+    for (Map<K, V> segment : segments) {
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+    return size;
+  }
+
+  private Map<K, V> segment(K key) {
+    int hash = key.hashCode();
+    return segments.get(((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % segments.size());
+  }
+}
@@ -1,43 +1,95 @@
 package com.sohoffice.security.authorization.util;
 
-import java.util.Map;
-import java.util.Objects;
-import java.util.Set;
+import java.util.*;
 
 /**
  * A string that can be expanded with variables.
+ * <p>
+ * The string is parsed once into literal segments and variable slots, the names of the variables are known up front.
+ * Attributes that are not referenced by the string are skipped without allocation.
  */
 class SimpleStringExpression {
+  private static final String[] NO_VARIABLES = new String[0];
+
   private final String value;
   private final boolean dynamic;
+  /**
+   * Literals and variable slots alternate, starting and ending with a literal, which may be empty.
+   * Segments at even index are literals, segments at odd index are variable names.
+   */
+  private final String[] segments;
+  /**
+   * The distinct variable names, in the order they appear.
+   */
+  private final String[] variables;
+  private final Set<String> variableNames;
 
   public SimpleStringExpression(String value) {
+    this(value, value.contains("${") ? parse(value) : new String[]{value});
+  }
+
+  /**
+   * @param value    The string
+   * @param segments The string already parsed, see {@link #segments()}
+   */
+  SimpleStringExpression(String value, String[] segments) {
     this.value = value;
     this.dynamic = value.contains("${");
+    this.segments = segments;
+    this.variables = (segments.length == 1) ? NO_VARIABLES : distinctVariables(segments);
+    this.variableNames = Set.of(variables);
   }
 
   public String getValue() {
     return value;
   }
 
+  /**
+   * @return The names of the variables referenced by the string.
+   */
+  public Set<String> getVariableNames() {
+    return variableNames;
+  }
+
   /**
    * Expand the string with the given variables.
+   * <p>
+   * If a variable has multiple values, the first one is used.
    *
    * @param variables The variables to expand the string with.
    * @return The expanded string. Check {@link #isDynamic()} to see if the string is fully expanded.
    */
-  public SimpleStringExpression withAttributes(Set<Map.Entry<String, String>> variables) {
-    SimpleStringExpression cur = this;
+  public SimpleStringExpression withAttributes(Collection<Map.Entry<String, String>> variables) {
+    if (this.variables.length == 0) {
+      return this;
+    }
+    String[] values = null;
+    int bound = 0;
     for (Map.Entry<String, String> variable : variables) {
-      if (!cur.isDynamic()) {
-        return cur;
+      int index = indexOf(variable.getKey());
+      if (index < 0) {
+        continue;
+      }
+      if (values == null) {
+        values = new String[this.variables.length];
       }
-      cur = cur.withAttribute(variable);
+      if (values[index] == null) {
+        values[index] = variable.getValue();
+        if (++bound == values.length) {
+          break;
+        }
+      }
+    }
+    if (values == null) {
+      return this;
     }
-    return cur;
+    return new SimpleStringExpression(fill(values));
   }
 
   public SimpleStringExpression withAttribute(Map.Entry<String, String> attribute) {
+    if (indexOf(attribute.getKey()) < 0) {
+      return this;
+    }
     String exp = expand(attribute.getKey(), attribute.getValue());
     if (Objects.equals(exp, value)) {
       return this;
@@ -46,39 +98,155 @@ class SimpleStringExpression {
   }
 
   protected String expand(String k, String v) {
-    if (!dynamic) {
+    int index = indexOf(k);
+    if (index < 0) {
       return value;
     }
+    String[] values = new String[variables.length];
+    values[index] = v;
+    return fill(values);
+  }
+
+  protected boolean isDynamic() {
+    return dynamic;
+  }
+
+  /**
+   * @return The literals and the variable names, alternating from a literal.
+   */
+  String[] segments() {
+    return segments.clone();
+  }
+
+  /**
+   * @return The number of slots referencing the variable.
+   */
+  int occurrences(String name) {
+    int count = 0;
+    for (int i = 1; i < segments.length; i += 2) {
+      if (segments[i].equals(name)) {
+        count++;
+      }
+    }
+    return count;
+  }
 
-    StringBuilder sb = new StringBuilder();
-    int start = 0;
+  /**
+   * Check if the string matches the target, with each variable bound to a set of values. The string is not expanded,
+   * the values are tried while scanning the target and a combination is abandoned as soon as it diverges. It matches
+   * if any combination of the values matches.
+   * <p>
+   * Each slot picks its value independently. This is the same as matching each expanded string with
+   * {@link StringMatchable} only if every variable is referenced once, a variable referenced by several slots must be
+   * expanded to a single value before it is bound.
+   *
+   * @param target     The string to match
+   * @param bindings   The values of the variables, every variable of the string must be bound.
+   * @param separators The characters that cannot be matched by '*'
+   * @return True if any combination of the values matches.
+   */
+  boolean matches(String target, Map<String, ? extends Collection<String>> bindings, String separators) {
+    return matches(target, 0, 0, segments[0], 0, bindings, separators);
+  }
+
+  /**
+   * Match the rest of the text of a segment, which is a literal or a value of a variable, then the segments after it.
+   */
+  private boolean matches(String target, int position, int segment, String text, int offset,
+                          Map<String, ? extends Collection<String>> bindings, String separators) {
+    while (offset < text.length()) {
+      char c = text.charAt(offset++);
+      if (c == '*') {
+        // '*' matches one or more characters except the separators
+        for (int end = position; end < target.length() && separators.indexOf(target.charAt(end)) < 0; end++) {
+          if (matches(target, end + 1, segment, text, offset, bindings, separators)) {
+            return true;
+          }
+        }
+        return false;
+      }
+      if (position >= target.length() || target.charAt(position) != c) {
+        return false;
+      }
+      position++;
+    }
+    int next = segment + 1;
+    if (next == segments.length) {
+      return position == target.length();
+    }
+    if ((next & 1) == 0) {
+      return matches(target, position, next, segments[next], 0, bindings, separators);
+    }
+    for (String value : bindings.get(segments[next])) {
+      if (matches(target, position, next, value, 0, bindings, separators)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Fill the variable slots in a single pass.
+   *
+   * @param values The values of the variables, indexed the same as {@link #variables}. Null if not bound.
+   */
+  private String fill(String[] values) {
+    StringBuilder sb = new StringBuilder(value.length());
+    for (int i = 0; i < segments.length; i++) {
+      if ((i & 1) == 0) {
+        sb.append(segments[i]);
+      } else {
+        String replacement = values[indexOf(segments[i])];
+        if (replacement == null) {
+          sb.append("${").append(segments[i]).append('}');
+        } else {
+          sb.append(replacement);
+        }
+      }
+    }
+    return sb.toString();
+  }
+
+  private int indexOf(String variable) {
+    for (int i = 0; i < variables.length; i++) {
+      if (variables[i].equals(variable)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static String[] parse(String value) {
+    List<String> segments = new ArrayList<>();
+    StringBuilder literal = new StringBuilder();
     int end = 0;
     while (end < value.length()) {
-      start = value.indexOf("${", end);
+      int start = value.indexOf("${", end);
       if (start == -1) {
-        sb.append(value, end, value.length());
+        literal.append(value, end, value.length());
         break;
       }
-      sb.append(value, end, start);
+      literal.append(value, end, start);
       end = value.indexOf("}", start);
       if (end == -1) {
-        sb.append(value, start, value.length());
+        literal.append(value, start, value.length());
         break;
       }
-      String variable = value.substring(start + 2, end);
-      String replacement = (Objects.equals(variable, k)) ? v : null;
-      if (replacement == null) {
-        sb.append(value, start, end + 1);
-      } else {
-        sb.append(replacement);
-      }
+      segments.add(literal.toString());
+      segments.add(value.substring(start + 2, end));
+      literal.setLength(0);
       end++;
     }
-    return sb.toString();
+    segments.add(literal.toString());
+    return segments.toArray(new String[0]);
   }
 
-  protected boolean isDynamic() {
-    return dynamic;
+  private static String[] distinctVariables(String[] segments) {
+    Set<String> variables = new LinkedHashSet<>();
+    for (int i = 1; i < segments.length; i += 2) {
+      variables.add(segments[i]);
+    }
+    return variables.toArray(new String[0]);
   }
 
   @Override
@@ -1,12 +1,9 @@
 package com.sohoffice.security.authorization.util;
 
-import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * A wrapper class for string expression that can be lazily enhanced by variables.
@@ -22,10 +19,10 @@ public record StringExpression(
   private static final Logger logger = LoggerFactory.getLogger(StringExpression.class);
 
   /**
-   * Second constructor that expression is null and will be lazily initialized
+   * Second constructor that parses the expression up front.
    */
   public StringExpression(String original) {
-    this(original, null);
+    this(original, new SimpleStringExpression(original));
   }
 
   /**
@@ -37,6 +34,41 @@ public record StringExpression(
     return !exp.isDynamic();
   }
 
+  /**
+   * @return The names of the variables still referenced by the expression.
+   */
+  @Override
+  public Set<String> getVariableNames() {
+    SimpleStringExpression exp = (expression == null) ? new SimpleStringExpression(this.original) : expression;
+    return exp.getVariableNames();
+  }
+
+  /**
+   * Check if the string matches the target, with the variables bound to sets of values.
+   *
+   * @see SimpleStringExpression#matches(String, Map, String)
+   */
+  boolean matches(String target, Map<String, ? extends Collection<String>> bindings, String separators) {
+    SimpleStringExpression exp = (expression == null) ? new SimpleStringExpression(this.original) : expression;
+    return exp.matches(target, bindings, separators);
+  }
+
+  /**
+   * @return The literals and the variable names of the expression, alternating from a literal.
+   */
+  String[] segments() {
+    SimpleStringExpression exp = (expression == null) ? new SimpleStringExpression(this.original) : expression;
+    return exp.segments();
+  }
+
+  /**
+   * @return The number of places the expression references the variable.
+   */
+  public int occurrences(String name) {
+    SimpleStringExpression exp = (expression == null) ? new SimpleStringExpression(this.original) : expression;
+    return exp.occurrences(name);
+  }
+
   public String getValue() {
     if (expression == null) {
       return original;
@@ -49,32 +81,6 @@ public record StringExpression(
     return StringExpression.class;
   }
 
-  /**
-   * Enhance the string expression with multiple attributes.
-   * If a single attribute has multiple value, it will generates multiple enhanced string.
-   *
-   * @param attributes attributes input to enhance the string
-   * @return The enhanced string expressions
-   */
-  @Override
-  public Stream<StringExpression> enhance(@NotNull Collection<Map.Entry<String, String>> attributes) {
-    Map<String, List<Map.Entry<String, String>>> grouped = attributes.stream()
-            .collect(Collectors.groupingBy(Map.Entry::getKey));
-    return grouped.entrySet().stream()
-            .flatMap(entry -> {
-              List<StringExpression> list = new ArrayList<>();
-              for (Map.Entry<String, String> attribute : entry.getValue()) {
-                StringExpression enhanced = this.enhance(attribute);
-                // if the string is not enhanced, return the original string and no need to continue with other values
-                if (Objects.equals(expression.getValue(), enhanced.getValue())) {
-                  return Stream.of(this);
-                }
-                list.add(enhanced);
-              }
-              return list.stream();
-            });
-  }
-
   /**
    * Enhance the string with the given attribute.
    *
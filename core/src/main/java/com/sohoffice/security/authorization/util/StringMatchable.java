@@ -1,7 +1,6 @@
 package com.sohoffice.security.authorization.util;
 
 import java.util.Objects;
-import java.util.regex.Pattern;
 
 /**
  * A string that can be matched with a second string to a boolean original.
@@ -13,22 +12,26 @@ import java.util.regex.Pattern;
  * In the pattern, '*' matches any sequence of characters, except the below:
  * - empty string
  * - string with separator character, default to '/'
+ * <p>
+ * Every other character of the pattern is literal. Patterns used to be translated to a regular expression, '.' and the
+ * other regex metacharacters now match only themselves, ex: {@code files/*.txt} matches {@code files/a.txt} but not
+ * {@code files/a-txt}, and {@code a+b} only matches {@code a+b}.
+ * <p>
+ * Patterns are matched by {@link GlobMatcher}, the instance is immutable and can be shared between threads.
  */
 public class StringMatchable {
   private final String value;
   private final boolean patterned;
-  private final String replacement;
-  private Pattern compiledPattern;
+  private final GlobMatcher matcher;
+
   public StringMatchable(String value) {
-    this.value = value;
-    this.patterned = value.contains("*");
-    this.replacement = "[^/]+";
+    this(value, "/");
   }
 
   public StringMatchable(String value, String separator) {
     this.value = value;
     this.patterned = value.contains("*");
-    this.replacement = "[^" + separator + "]+";
+    this.matcher = patterned ? new GlobMatcher(value, separator) : null;
   }
 
   public boolean isPatterned() {
@@ -39,9 +42,6 @@ public class StringMatchable {
     if (!patterned) {
       return Objects.equals(value, target);
     }
-    if (compiledPattern == null) {
-      compiledPattern = Pattern.compile(value.replace("*", replacement));
-    }
-    return compiledPattern.matcher(target).matches();
+    return matcher.matches(target);
   }
 }
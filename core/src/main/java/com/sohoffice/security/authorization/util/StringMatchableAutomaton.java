@@ -0,0 +1,200 @@
+package com.sohoffice.security.authorization.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A policy level matcher that matches a target against many patterns at once.
+ * <p>
+ * Patterns are split by the separator and combined into a segment automaton. Each segment is one edge:
+ * <ul>
+ *   <li> A literal segment is an exact edge. </li>
+ *   <li> A '*' segment matches any non-empty segment. </li>
+ *   <li> Other segments with '*' are matched by {@link GlobMatcher}. </li>
+ * </ul>
+ * The semantics are the same as {@link StringMatchable}, a '*' never matches the separator. One walk over the
+ * segments of the target reports the ids of all patterns that match, the cost grows with the depth of the target,
+ * not with the number of patterns.
+ * <p>
+ * Prefixes can be added as well. They match any target that begins with the segments of the prefix, which is useful
+ * to find the candidates of patterns that are not fully enhanced.
+ * <p>
+ * The automaton is not thread-safe while being built, it can be shared between threads once built. A built automaton
+ * can be encoded and matched without loading it on the heap, see {@link MappedStringMatchableAutomaton}.
+ */
+public final class StringMatchableAutomaton {
+  private final char separator;
+  private final Node root = new Node();
+
+  public StringMatchableAutomaton() {
+    this('/');
+  }
+
+  public StringMatchableAutomaton(char separator) {
+    this.separator = separator;
+  }
+
+  /**
+   * Add a pattern.
+   *
+   * @param pattern The pattern, may contain '*'
+   * @param id      The id reported when the pattern matches
+   */
+  public void add(String pattern, int id) {
+    node(pattern).terminal.set(id);
+  }
+
+  /**
+   * Add a prefix. An empty prefix matches any target.
+   *
+   * @param prefix The leading segments, may contain '*'
+   * @param id     The id reported when the prefix matches
+   */
+  public void addPrefix(String prefix, int id) {
+    Node node = prefix.isEmpty() ? root : node(prefix);
+    node.prefix.set(id);
+  }
+
+  /**
+   * Match the target against all patterns and prefixes.
+   *
+   * @param target The target
+   * @param out    The ids of the matches are added to this bitset
+   */
+  public void matches(String target, BitSet out) {
+    walk(root, split(target), 0, out);
+  }
+
+  /**
+   * Encode the automaton for {@link MappedStringMatchableAutomaton}.
+   *
+   * @return The encoded automaton
+   */
+  public byte[] encode() {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.write(new byte[MappedStringMatchableAutomaton.HEADER]);
+      int[] patternCount = new int[1];
+      int root = encode(this.root, out, patternCount);
+      return ByteBuffer.wrap(bytes.toByteArray())
+              .putInt(0, separator)
+              .putInt(4, patternCount[0])
+              .putInt(8, root)
+              .array();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Encode the children before the node, the node refers to them by offset.
+   *
+   * @return The offset of the node
+   */
+  private static int encode(Node node, DataOutputStream out, int[] patternCount) throws IOException {
+    Map<String, Integer> literals = new HashMap<>();
+    for (Map.Entry<String, Node> literal : node.literals.entrySet()) {
+      literals.put(literal.getKey(), encode(literal.getValue(), out, patternCount));
+    }
+    int any = node.any == null ? MappedEncoding.NONE : encode(node.any, out, patternCount);
+    int[] patterns = new int[node.patterns.size() * 3];
+    int i = 0;
+    for (Map.Entry<String, PatternEdge> pattern : node.patterns.entrySet()) {
+      patterns[i + 2] = encode(pattern.getValue().node(), out, patternCount);
+      patterns[i] = MappedEncoding.writeString(out, pattern.getKey());
+      patterns[i + 1] = out.size() - patterns[i];
+      i += 3;
+    }
+    int literalTable = MappedEncoding.writeTable(out, literals);
+    int prefix = MappedEncoding.writeBits(out, node.prefix);
+    int terminal = MappedEncoding.writeBits(out, node.terminal);
+    int offset = out.size();
+    out.writeInt(prefix);
+    out.writeInt(terminal);
+    out.writeInt(any);
+    out.writeInt(literalTable);
+    out.writeInt(node.patterns.size());
+    for (i = 0; i < patterns.length; i += 3) {
+      out.writeInt(patterns[i]);
+      out.writeInt(patterns[i + 1]);
+      out.writeInt(patterns[i + 2]);
+      out.writeInt(patternCount[0]++);
+    }
+    return offset;
+  }
+
+  private Node node(String pattern) {
+    Node node = root;
+    for (String segment : split(pattern)) {
+      if (segment.equals("*")) {
+        if (node.any == null) {
+          node.any = new Node();
+        }
+        node = node.any;
+      } else if (segment.contains("*")) {
+        node = node.patterns.computeIfAbsent(segment, it -> new PatternEdge(new GlobMatcher(it), new Node()))
+                .node();
+      } else {
+        node = node.literals.computeIfAbsent(segment, it -> new Node());
+      }
+    }
+    return node;
+  }
+
+  private static void walk(Node node, String[] segments, int depth, BitSet out) {
+    out.or(node.prefix);
+    if (depth == segments.length) {
+      out.or(node.terminal);
+      return;
+    }
+    String segment = segments[depth];
+    if (!node.literals.isEmpty()) {
+      Node literal = node.literals.get(segment);
+      if (literal != null) {
+        walk(literal, segments, depth + 1, out);
+      }
+    }
+    if (node.any != null && !segment.isEmpty()) {
+      walk(node.any, segments, depth + 1, out);
+    }
+    for (PatternEdge edge : node.patterns.values()) {
+      if (edge.matcher().matches(segment)) {
+        walk(edge.node(), segments, depth + 1, out);
+      }
+    }
+  }
+
+  private String[] split(String value) {
+    int count = 1;
+    for (int i = 0; i < value.length(); i++) {
+      if (value.charAt(i) == separator) {
+        count++;
+      }
+    }
+    String[] segments = new String[count];
+    int start = 0;
+    for (int i = 0; i < count - 1; i++) {
+      int end = value.indexOf(separator, start);
+      segments[i] = value.substring(start, end);
+      start = end + 1;
+    }
+    segments[count - 1] = value.substring(start);
+    return segments;
+  }
+
+  private static final class Node {
+    private final Map<String, Node> literals = new HashMap<>();
+    private final Map<String, PatternEdge> patterns = new LinkedHashMap<>();
+    private final BitSet terminal = new BitSet();
+    private final BitSet prefix = new BitSet();
+    private Node any;
+  }
+
+  private record PatternEdge(GlobMatcher matcher, Node node) {
+  }
+}
@@ -2,7 +2,11 @@ package com.sohoffice.security.authorization.util;
 
 import com.sohoffice.security.authorization.exceptions.NotFullyEnhancedException;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -10,32 +14,164 @@ import java.util.stream.Stream;
  * A combination of {@link StringExpression} and {@link StringMatchable}.
  * <p>
  * The input will first be enhanced with variables. Once fully enhanced it can be used to do matching.
+ * <p>
+ * Alternatively the variables can be bound to sets of values with {@link #bind(AttributeBag)}. The bound expression is never
+ * expanded, it matches if any combination of the values matches. Each reference of a variable picks its value
+ * independently, a variable referenced more than once must be expanded with {@link #enhance(Map.Entry)} instead.
  */
 public class StringMatchableExpression implements Expression<StringMatchableExpression> {
   private final String original;
 
   private final StringExpression expression;
-  private StringMatchable matchable;
+  private final StringMatchable matchable;
+  /**
+   * The values the variables are bound to, null if no variable is bound.
+   */
+  private final Map<String, List<String>> bindings;
+  /**
+   * The names of the variables not bound, computed once as the expression is checked on every evaluation.
+   */
+  private final Set<String> variableNames;
+  private final boolean fullyEnhanced;
 
   public StringMatchableExpression(String original) {
-    this.original = original;
-    this.expression = new StringExpression(original);
+    this(original, new StringExpression(original));
   }
 
   public StringMatchableExpression(String original, StringExpression expression) {
-    this.original = original;
-    this.expression = expression;
+    this(original, expression, null);
   }
 
   public StringMatchableExpression(String original, StringExpression expression, StringMatchable matchable) {
+    this(original, expression, matchable, null);
+  }
+
+  private StringMatchableExpression(String original, StringExpression expression, StringMatchable matchable,
+                                    Map<String, List<String>> bindings) {
     this.original = original;
     this.expression = expression;
     this.matchable = matchable;
+    this.bindings = bindings;
+    this.variableNames = unboundNames(expression, bindings);
+    this.fullyEnhanced = expression.isFullyEnhanced() || (bindings != null && variableNames.isEmpty());
+  }
+
+  private static Set<String> unboundNames(StringExpression expression, Map<String, List<String>> bindings) {
+    Set<String> names = expression.getVariableNames();
+    if (bindings == null) {
+      return names;
+    }
+    Set<String> unbound = null;
+    for (String name : names) {
+      if (!bindings.containsKey(name)) {
+        if (unbound == null) {
+          unbound = new HashSet<>();
+        }
+        unbound.add(name);
+      }
+    }
+    return unbound == null ? Set.of() : Set.copyOf(unbound);
+  }
+
+  /**
+   * Create an expression with the template parsed up front. If the expression is already fully enhanced, the
+   * matcher is compiled as well, so the returned instance can be matched without calling {@link #toMatchable()}.
+   *
+   * @param original The original string
+   * @return The compiled expression
+   */
+  public static StringMatchableExpression compile(String original) {
+    StringExpression expression = new StringExpression(original);
+    if (expression.isFullyEnhanced()) {
+      return new StringMatchableExpression(original, expression, new StringMatchable(original));
+    }
+    return new StringMatchableExpression(original, expression);
+  }
+
+  /**
+   * The same as {@link #compile(String)}, with the template already parsed, ex: stored with a compiled policy.
+   *
+   * @param original The original string
+   * @param segments The segments of the original string, see {@link #segments()}
+   * @return The compiled expression
+   */
+  public static StringMatchableExpression compile(String original, List<String> segments) {
+    StringExpression expression = new StringExpression(original,
+            new SimpleStringExpression(original, segments.toArray(new String[0])));
+    if (expression.isFullyEnhanced()) {
+      return new StringMatchableExpression(original, expression, new StringMatchable(original));
+    }
+    return new StringMatchableExpression(original, expression);
+  }
+
+  /**
+   * @return The parsed template, the literals and the variable names alternating from a literal. The literal may be
+   * empty, ex: {@code [, name, /b]} for {@code ${name}/b}.
+   */
+  public List<String> segments() {
+    return List.of(expression.segments());
   }
 
+  /**
+   * Expand a variable. Like {@link #compile(String)}, the matcher is compiled once the expression is fully enhanced,
+   * so checking and matching the enhanced expression does not compile it again.
+   */
   @Override
   public StringMatchableExpression enhance(Map.Entry<String, String> attribute) {
-    return new StringMatchableExpression(original, expression.enhance(attribute));
+    StringExpression enhanced = expression.enhance(attribute);
+    if (enhanced == expression) {
+      return this;
+    }
+    StringMatchable compiled = enhanced.isFullyEnhanced() ? new StringMatchable(enhanced.getValue()) : null;
+    return new StringMatchableExpression(original, enhanced, compiled, bindings);
+  }
+
+  /**
+   * Bind the variables to sets of values. Unlike {@link #enhance(Map.Entry)}, a variable with multiple values does
+   * not create an expression for each value, the values are tried lazily by {@link #matches(String)}.
+   * <p>
+   * Variables without values are left unbound, variables already bound keep their values unless rebound.
+   *
+   * @param attributes The attributes providing the values of the variables.
+   * @return The bound expression, or the current instance if none of the variables has values.
+   */
+  public StringMatchableExpression bind(AttributeBag attributes) {
+    Set<String> names = expression.getVariableNames();
+    if (bindings == null && names.size() == 1) {
+      // the common case, a single variable bound for the first time
+      String name = names.iterator().next();
+      List<String> values = attributes.values(name);
+      return values.isEmpty() ? this : new StringMatchableExpression(original, expression, null, Map.of(name, values));
+    }
+    Map<String, List<String>> bound = null;
+    for (String name : names) {
+      List<String> values = attributes.values(name);
+      if (values.isEmpty() || values.equals(bindings == null ? null : bindings.get(name))) {
+        continue;
+      }
+      if (bound == null) {
+        bound = (bindings == null) ? new HashMap<>() : new HashMap<>(bindings);
+      }
+      bound.put(name, values);
+    }
+    if (bound == null) {
+      return this;
+    }
+    return new StringMatchableExpression(original, expression, null, Map.copyOf(bound));
+  }
+
+  /**
+   * @return The names of the variables referenced by the template and not expanded, bound or not.
+   */
+  public Set<String> getReferencedNames() {
+    return expression.getVariableNames();
+  }
+
+  /**
+   * @return The number of places the template references the variable, unless expanded.
+   */
+  public int occurrences(String name) {
+    return expression.occurrences(name);
   }
 
   @Override
@@ -48,9 +184,20 @@ public class StringMatchableExpression implements Expression<StringMatchableExpr
     return expression.getValue();
   }
 
+  /**
+   * @return The names of the variables still referenced by the expression and not bound.
+   */
+  @Override
+  public Set<String> getVariableNames() {
+    return variableNames;
+  }
+
+  /**
+   * @return True if every variable is either expanded or bound.
+   */
   @Override
   public boolean isFullyEnhanced() {
-    return expression.isFullyEnhanced();
+    return fullyEnhanced;
   }
 
   /**
@@ -60,11 +207,18 @@ public class StringMatchableExpression implements Expression<StringMatchableExpr
    * @return True if the string matches the given value.
    */
   public boolean matches(String value) {
-    return matchable != null && matchable.matches(value);
+    if (matchable != null) {
+      return matchable.matches(value);
+    }
+    return bindings != null && isFullyEnhanced() && expression.matches(value, bindings, "/");
   }
 
+  /**
+   * @return The expression ready for {@link #matches(String)}. A fully bound expression is matched lazily and is
+   * returned as is.
+   */
   public StringMatchableExpression toMatchable() {
-    if (matchable != null) {
+    if (matchable != null || (bindings != null && isFullyEnhanced())) {
       return this;
     }
     if (isFullyEnhanced()) {
@@ -75,7 +229,7 @@ public class StringMatchableExpression implements Expression<StringMatchableExpr
 
   @Override
   public String toString() {
-    return Stream.of("expression=" + expression, "matchable=" + matchable)
+    return Stream.of("expression=" + expression, "matchable=" + matchable, "bindings=" + bindings)
             .collect(Collectors.joining(", ", "SME{", "}"));
   }
 }
@@ -0,0 +1,93 @@
+package com.sohoffice.security.authorization;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CachingAuthContextContributorTest {
+
+  private final AtomicLong now = new AtomicLong();
+  private final AtomicInteger calls = new AtomicInteger();
+  private final ContributorCache cache = new ContributorCache(10, now::get);
+
+  /**
+   * Contributes the number of calls so far, to tell a cached result from a new one.
+   */
+  private final AuthContextContributor delegate = input -> new AuthContextContributor.Result(
+          "profile", Set.of(Map.entry("version", String.valueOf(calls.incrementAndGet()))));
+
+  private final CachingAuthContextContributor underTest = new CachingAuthContextContributor(
+          delegate, "profile", AuthContext::principals, cache, Duration.ofSeconds(10), Duration.ofSeconds(60),
+          Runnable::run);
+
+  private AuthContext context(String principal) {
+    return AuthContextBuilder.builder()
+            .principals(Set.of(principal))
+            .profileAttributes(Set.of())
+            .profileContributors(List.of())
+            .build();
+  }
+
+  @Test
+  void contribute_WhenSameKey_ThenReturnCachedResult() {
+    AuthContextContributor.Result first = underTest.contribute(context("users/alice"));
+    AuthContextContributor.Result second = underTest.contribute(context("users/alice"));
+    AuthContextContributor.Result other = underTest.contribute(context("users/bob"));
+
+    assertThat(second).isEqualTo(first);
+    assertThat(other).isNotEqualTo(first);
+    assertThat(calls.get()).isEqualTo(2);
+    assertThat(cache.hitCount()).isEqualTo(1L);
+    assertThat(cache.missCount()).isEqualTo(2L);
+    assertThat(cache.size()).isEqualTo(2);
+  }
+
+  @Test
+  void contribute_WhenStale_ThenReturnStaleResultAndRefresh() {
+    AuthContextContributor.Result first = underTest.contribute(context("users/alice"));
+    now.set(Duration.ofSeconds(11).toNanos());
+
+    AuthContextContributor.Result stale = underTest.contribute(context("users/alice"));
+    AuthContextContributor.Result refreshed = underTest.contribute(context("users/alice"));
+
+    assertThat(stale).isEqualTo(first);
+    assertThat(refreshed.attributes()).containsOnly(Map.entry("version", "2"));
+    assertThat(cache.staleHitCount()).isEqualTo(1L);
+    assertThat(cache.refreshCount()).isEqualTo(1L);
+  }
+
+  @Test
+  void contribute_WhenExpired_ThenLoadAgain() {
+    underTest.contribute(context("users/alice"));
+    now.set(Duration.ofSeconds(71).toNanos());
+
+    AuthContextContributor.Result result = underTest.contribute(context("users/alice"));
+
+    assertThat(result.attributes()).containsOnly(Map.entry("version", "2"));
+    assertThat(cache.missCount()).isEqualTo(2L);
+    assertThat(cache.refreshCount()).isEqualTo(0L);
+  }
+
+  @Test
+  void contribute_WhenDelegateFails_ThenNotCached() {
+    IllegalStateException failure = new IllegalStateException("lookup failed");
+    CachingAuthContextContributor failing = new CachingAuthContextContributor(
+            input -> {
+              calls.incrementAndGet();
+              throw failure;
+            }, "failing", AuthContext::principals, cache, Duration.ofSeconds(10), Duration.ZERO);
+
+    assertThatThrownBy(() -> failing.contribute(context("users/alice"))).isSameAs(failure);
+    assertThatThrownBy(() -> failing.contribute(context("users/alice"))).isSameAs(failure);
+    assertThat(calls.get()).isEqualTo(2);
+    assertThat(cache.size()).isEqualTo(0);
+  }
+}
@@ -0,0 +1,130 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.AuthRequestTarget;
+import com.sohoffice.security.authorization.io.AuthEffect;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AsyncDecisionAuditSinkTest {
+
+  private final DecisionRecord denied = new DecisionRecord(1000L, Set.of("principals/p1"),
+                                                           Set.of(new AuthRequestTarget("documents/\"1\"", "read")),
+                                                           "denyBlocked", AuthEffect.DENY, false, 42L);
+
+  @Test
+  void close_WhenRecordsBuffered_ThenAppendOneJsonLinePerRecord() throws IOException {
+    Path file = Files.createTempFile("audit", ".jsonl");
+    try {
+      Files.writeString(file, "existing\n");
+      AsyncDecisionAuditSink underTest = new AsyncDecisionAuditSink(file, 16,
+                                                                    AsyncDecisionAuditSink.OverflowPolicy.BLOCK);
+      underTest.record(denied);
+      underTest.record(new DecisionRecord(2000L, Set.of("principals/p2"), Set.of(), null, null, true, 7L));
+      underTest.close();
+
+      assertThat(Files.readAllLines(file)).isEqualTo(List.of(
+        "existing",
+        "{\"timestamp\":1000,\"principals\":[\"principals/p1\"]," +
+          "\"targets\":[{\"resource\":\"documents/\\\"1\\\"\",\"action\":\"read\"}]," +
+          "\"statement\":\"denyBlocked\",\"effect\":\"DENY\",\"cached\":false,\"latencyNanos\":42}",
+        "{\"timestamp\":2000,\"principals\":[\"principals/p2\"],\"targets\":[]," +
+          "\"statement\":null,\"effect\":null,\"cached\":true,\"latencyNanos\":7}"));
+      assertThat(underTest.writtenCount()).isEqualTo(2L);
+      assertThat(underTest.droppedCount()).isEqualTo(0L);
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  void record_WhenBufferFullAndDropPolicy_ThenDropWithoutWaiting() throws Exception {
+    CountDownLatch writing = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    WritableByteChannel blocked = new WritableByteChannel() {
+      @Override
+      public int write(ByteBuffer src) {
+        writing.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        int written = src.remaining();
+        src.position(src.limit());
+        return written;
+      }
+
+      @Override
+      public boolean isOpen() {
+        return true;
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    AsyncDecisionAuditSink underTest = new AsyncDecisionAuditSink(blocked, 2, 1,
+                                                                  AsyncDecisionAuditSink.OverflowPolicy.DROP);
+    // the writer takes the first record and blocks on writing it
+    underTest.record(denied);
+    assertThat(writing.await(10, TimeUnit.SECONDS)).isTrue();
+    for (int i = 0; i < 5; i++) {
+      underTest.record(denied);
+    }
+    assertThat(underTest.droppedCount()).isEqualTo(3L);
+
+    release.countDown();
+    underTest.close();
+    assertThat(underTest.writtenCount()).isEqualTo(3L);
+  }
+
+  @Test
+  void record_WhenWriteThrowsRuntimeException_ThenCountFailedAndKeepWriting() throws Exception {
+    List<String> lines = new ArrayList<>();
+    AtomicInteger writes = new AtomicInteger();
+    WritableByteChannel failingOnce = new WritableByteChannel() {
+      @Override
+      public int write(ByteBuffer src) {
+        if (writes.getAndIncrement() == 0) {
+          throw new IllegalStateException("broken");
+        }
+        int written = src.remaining();
+        lines.add(StandardCharsets.UTF_8.decode(src).toString());
+        return written;
+      }
+
+      @Override
+      public boolean isOpen() {
+        return true;
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    AsyncDecisionAuditSink underTest = new AsyncDecisionAuditSink(failingOnce, 1, 1,
+                                                                  AsyncDecisionAuditSink.OverflowPolicy.BLOCK);
+    for (int i = 0; i < 3; i++) {
+      underTest.record(denied);
+    }
+    underTest.close();
+
+    assertThat(underTest.failedCount()).isEqualTo(1L);
+    assertThat(underTest.writtenCount()).isEqualTo(2L);
+    assertThat(lines.size()).isEqualTo(2);
+  }
+}
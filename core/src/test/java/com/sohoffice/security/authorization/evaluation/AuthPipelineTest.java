@@ -0,0 +1,126 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.*;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AuthPipelineTest {
+
+  private final AuthContext context = AuthContextBuilder.builder()
+    .principals(Set.of("principals/p1"))
+    .authStatementProvider(List::of)
+    .request(new AuthRequest(Set.of(new AuthRequestTarget("resources/r1", "actions/a1"))))
+    .requestAttributes(Set.of())
+    .requestContributors(List.of())
+    .profileAttributes(Set.of())
+    .profileContributors(List.of())
+    .build();
+
+  @Test
+  void execute_WhenStepAuthorizes_ThenSkipRemainingStagesAndRecordLatency() {
+    AtomicLong clock = new AtomicLong();
+    List<String> executed = new ArrayList<>();
+    AuthPipeline underTest = new AuthPipeline(List.of(
+      new AuthPipeline.Stage("first", step(executed, "first", AuthPipelineStepResultStatus.CONTINUE, clock)),
+      new AuthPipeline.Stage("second", step(executed, "second", AuthPipelineStepResultStatus.AUTHORIZED, clock)),
+      new AuthPipeline.Stage("third", step(executed, "third", AuthPipelineStepResultStatus.STOP, clock))),
+      null, null, clock::get);
+
+    AuthPipelineStepResult res = underTest.execute(context);
+
+    assertThat(res.status()).isEqualTo(AuthPipelineStepResultStatus.AUTHORIZED);
+    assertThat(executed).isEqualTo(List.of("first", "second"));
+    List<AuthPipeline.Stage> stages = underTest.stages();
+    assertThat(stages.get(0).executionCount()).isEqualTo(1L);
+    assertThat(stages.get(1).maxTime()).isEqualTo(Duration.ofNanos(10));
+    assertThat(stages.get(2).executionCount()).isEqualTo(0L);
+  }
+
+  @Test
+  void executeAsync_WhenAllStagesContinue_ThenReturnLastResult() {
+    List<String> executed = new ArrayList<>();
+    AtomicLong clock = new AtomicLong();
+    AuthPipeline underTest = new AuthPipeline(List.of(
+      new AuthPipeline.Stage("first", step(executed, "first", AuthPipelineStepResultStatus.CONTINUE, clock)),
+      new AuthPipeline.Stage("second", step(executed, "second", AuthPipelineStepResultStatus.CONTINUE, clock))),
+      null, null, clock::get);
+
+    AuthPipelineStepResult res = underTest.executeAsync(context).join();
+
+    assertThat(res.status()).isEqualTo(AuthPipelineStepResultStatus.CONTINUE);
+    assertThat(executed).isEqualTo(List.of("first", "second"));
+    assertThat(underTest.stages().get(1).totalTime()).isEqualTo(Duration.ofNanos(10));
+  }
+
+  @Test
+  void execute_WhenProfileContributorDeclared_ThenPrefetchDuringEarlierStages() {
+    CountDownLatch called = new CountDownLatch(1);
+    AtomicInteger calls = new AtomicInteger();
+    AuthContextContributor contributor = new AuthContextContributor() {
+      @Override
+      public Result contribute(AuthContext input) {
+        calls.incrementAndGet();
+        called.countDown();
+        return new Result("profile", Set.of(Map.entry("k", "v")));
+      }
+
+      @Override
+      public Set<String> requiredAttributes() {
+        return Set.of();
+      }
+
+      @Override
+      public Set<String> providedAttributes() {
+        return Set.of("k");
+      }
+    };
+    // the request stage only completes once the profile contributor is running concurrently
+    AuthPipelineStep requestStage = ctx -> {
+      try {
+        assertThat(called.await(10, TimeUnit.SECONDS)).isTrue();
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      return new AuthPipelineStepResult(AuthPipelineStepResultStatus.CONTINUE, ctx);
+    };
+    AuthPipelineStep profileStage = ctx -> {
+      AuthContextContributor.Result contributed = ctx.profileContributors().get(0).contribute(ctx);
+      assertThat(contributed.attributes()).isEqualTo(Set.of(Map.entry("k", "v")));
+      return new AuthPipelineStepResult(AuthPipelineStepResultStatus.STOP, ctx);
+    };
+    AuthPipeline underTest = new AuthPipeline(List.of(new AuthPipeline.Stage("request", requestStage),
+                                                      new AuthPipeline.Stage("profile", profileStage)),
+                                              EvaluationOptions.VIRTUAL_THREADS);
+
+    AuthPipelineStepResult res = underTest.execute(AuthContextBuilder.builder(context)
+                                                     .profileContributors(List.of(contributor))
+                                                     .build());
+
+    assertThat(res.status()).isEqualTo(AuthPipelineStepResultStatus.STOP);
+    assertThat(calls.get()).isEqualTo(1);
+    assertThat(res.context().profileContributors()).isEqualTo(List.of(contributor));
+  }
+
+  /**
+   * A step taking 10 nanoseconds of the clock.
+   */
+  private static AuthPipelineStep step(List<String> executed, String name, AuthPipelineStepResultStatus status,
+                                       AtomicLong clock) {
+    return ctx -> {
+      executed.add(name);
+      clock.addAndGet(10);
+      return new AuthPipelineStepResult(status, ctx);
+    };
+  }
+}
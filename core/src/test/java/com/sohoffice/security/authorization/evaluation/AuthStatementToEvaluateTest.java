@@ -1,12 +1,16 @@
 package com.sohoffice.security.authorization.evaluation;
 
+import com.sohoffice.security.authorization.exceptions.NotFullyEnhancedException;
+import com.sohoffice.security.authorization.util.AttributeBag;
 import com.sohoffice.security.authorization.util.StringMatchableExpression;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import static org.junit.jupiter.api.Assertions.assertFalse;
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.*;
 
 class AuthStatementToEvaluateTest {
 
@@ -43,4 +47,118 @@ class AuthStatementToEvaluateTest {
             null);
     assertFalse(underTest3.isFullyEnhanced());
   }
-}
\ No newline at end of file
+
+  @Test
+  void enhance_GivenMultiValuedAttributes_ThenBindWithoutExpansion() {
+    AuthStatementToEvaluate underTest = new AuthStatementToEvaluate(
+            Set.of(new StringMatchableExpression("resources/${org}/${project}")),
+            Set.of(new StringMatchableExpression("principals/${user}")),
+            Set.of(new StringMatchableExpression("actions/baz")),
+            null);
+    List<AuthStatementToEvaluate> enhanced = underTest.enhance(List.of(
+            Map.entry("org", "a"), Map.entry("org", "b"),
+            Map.entry("project", "x"), Map.entry("project", "y"),
+            Map.entry("user", "bar"))).toList();
+    assertEquals(1, enhanced.size());
+    AuthStatementToEvaluate bound = enhanced.get(0);
+    assertTrue(bound.isFullyEnhanced());
+    assertTrue(bound.getVariableNames().isEmpty());
+    StringMatchableExpression resource = bound.resources().iterator().next().toMatchable();
+    assertTrue(resource.matches("resources/b/x"));
+    assertTrue(resource.matches("resources/a/y"));
+    assertFalse(resource.matches("resources/c/y"));
+    assertTrue(bound.principals().iterator().next().toMatchable().matches("principals/bar"));
+  }
+
+  @Test
+  void enhance_GivenUnreferencedAttributes_ThenConsumeSameInstance() {
+    AuthStatementToEvaluate underTest = new AuthStatementToEvaluate(
+            Set.of(new StringMatchableExpression("resources/${org}")),
+            Set.of(new StringMatchableExpression("principals/foo")),
+            Set.of(new StringMatchableExpression("actions/baz")),
+            null);
+    List<AuthStatementToEvaluate> enhanced = new ArrayList<>();
+    underTest.enhance(AttributeBag.of(List.of(Map.entry("user", "bar"))), enhanced::add);
+    assertEquals(1, enhanced.size());
+    assertSame(underTest, enhanced.get(0));
+    assertEquals(Set.of("org"), underTest.getVariableNames());
+
+    enhanced.clear();
+    underTest.enhance(AttributeBag.of(List.of(Map.entry("org", "a"))), enhanced::add);
+    assertEquals(1, enhanced.size());
+    assertTrue(enhanced.get(0).isFullyEnhanced());
+    assertSame(underTest.principals(), enhanced.get(0).principals());
+  }
+
+  @Test
+  void enhance_GivenVariableRepeatedInPattern_ThenExpandEachValue() {
+    AuthStatementToEvaluate underTest = new AuthStatementToEvaluate(
+            Set.of(new StringMatchableExpression("tenants/${t}/users/${t}")),
+            Set.of(new StringMatchableExpression("principals/foo")),
+            Set.of(new StringMatchableExpression("actions/baz")),
+            null);
+    assertEquals(Set.of("t"), underTest.repeatedVariables());
+    List<AuthStatementToEvaluate> enhanced = new ArrayList<>();
+    underTest.enhance(AttributeBag.of(List.of(Map.entry("t", "A"), Map.entry("t", "B"))), enhanced::add);
+
+    assertEquals(2, enhanced.size());
+    List<StringMatchableExpression> resources = enhanced.stream()
+            .map(it -> it.resources().iterator().next().toMatchable())
+            .toList();
+    assertTrue(resources.stream().anyMatch(it -> it.matches("tenants/A/users/A")));
+    assertTrue(resources.stream().anyMatch(it -> it.matches("tenants/B/users/B")));
+    assertTrue(resources.stream().noneMatch(it -> it.matches("tenants/A/users/B")));
+  }
+
+  @Test
+  void enhance_GivenAllVariablesExpanded_ThenCompileMatcherOnce() {
+    StringMatchableExpression resource = new StringMatchableExpression("tenants/${t}/users/${u}");
+
+    StringMatchableExpression partial = resource.enhance(Map.entry("t", "A"));
+    StringMatchableExpression expanded = partial.enhance(Map.entry("u", "B"));
+
+    assertThrows(NotFullyEnhancedException.class, partial::toMatchable);
+    assertSame(expanded, expanded.toMatchable());
+    assertTrue(expanded.matches("tenants/A/users/B"));
+  }
+
+  @Test
+  void enhance_GivenVariableInPrincipalAndResource_ThenKeepOneValuePerStatement() {
+    AuthStatementToEvaluate underTest = new AuthStatementToEvaluate(
+            Set.of(new StringMatchableExpression("data/${u}/*")),
+            Set.of(new StringMatchableExpression("users/${u}")),
+            Set.of(new StringMatchableExpression("actions/${action}")),
+            null);
+    assertEquals(Set.of("u"), underTest.repeatedVariables());
+    List<AuthStatementToEvaluate> enhanced = new ArrayList<>();
+    underTest.enhance(AttributeBag.of(List.of(Map.entry("u", "alice"), Map.entry("u", "bob"),
+                                              Map.entry("action", "read"), Map.entry("action", "write"))),
+                      enhanced::add);
+
+    assertEquals(2, enhanced.size());
+    for (AuthStatementToEvaluate statement : enhanced) {
+      assertTrue(statement.isFullyEnhanced());
+      StringMatchableExpression principal = statement.principals().iterator().next().toMatchable();
+      StringMatchableExpression resource = statement.resources().iterator().next().toMatchable();
+      assertEquals(principal.matches("users/alice"), resource.matches("data/alice/file"));
+      assertEquals(principal.matches("users/bob"), resource.matches("data/bob/file"));
+      assertFalse(principal.matches("users/alice") && resource.matches("data/bob/file"));
+      // a variable referenced once is still bound to all its values
+      StringMatchableExpression action = statement.actions().iterator().next().toMatchable();
+      assertTrue(action.matches("actions/read") && action.matches("actions/write"));
+    }
+  }
+
+  @Test
+  void enhance_GivenVariableInSeveralResources_ThenBindWithoutExpansion() {
+    AuthStatementToEvaluate underTest = new AuthStatementToEvaluate(
+            Set.of(new StringMatchableExpression("a/${u}"), new StringMatchableExpression("b/${u}")),
+            Set.of(new StringMatchableExpression("principals/foo")),
+            Set.of(new StringMatchableExpression("actions/baz")),
+            null);
+    assertTrue(underTest.repeatedVariables().isEmpty());
+    List<AuthStatementToEvaluate> enhanced = new ArrayList<>();
+    underTest.enhance(AttributeBag.of(List.of(Map.entry("u", "x"), Map.entry("u", "y"))), enhanced::add);
+    assertEquals(1, enhanced.size());
+  }
+}
@@ -1,13 +1,20 @@
 package com.sohoffice.security.authorization.evaluation;
 
 import com.sohoffice.security.authorization.*;
+import com.sohoffice.security.authorization.io.AuthDocument;
+import com.sohoffice.security.authorization.io.AuthDocumentProvider;
 import com.sohoffice.security.authorization.io.AuthEffect;
 import com.sohoffice.security.authorization.io.AuthStatement;
 import com.sohoffice.security.authorization.io.AuthStatementModel;
 import com.sohoffice.security.authorization.io.AuthStatementPb;
+import com.sohoffice.security.authorization.io.v1.AuthStatementV1;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 
@@ -65,6 +72,26 @@ class AuthorizePipelineStepTest {
     AuthEffect.ALLOW,
     "stmt4");
 
+  /**
+   * ALLOW reading all documents
+   */
+  private final AuthStatement readDocuments = AuthStatementModel.of(
+    List.of("documents/*"),
+    List.of("principals/*"),
+    List.of("actions/read"),
+    AuthEffect.ALLOW,
+    "readDocuments");
+
+  /**
+   * DENY the blocked documents
+   */
+  private final AuthStatement denyBlocked = AuthStatementModel.of(
+    List.of("documents/${blocked}"),
+    List.of("principals/*"),
+    List.of("actions/*"),
+    AuthEffect.DENY,
+    "denyBlocked");
+
   private final AuthContext baseContext = AuthContextBuilder.builder()
     .authStatementProvider(() -> List.of(stmt0, stmt1, stmt2, stmt3, stmt4))
     .profileAttributes(new HashSet<>())
@@ -109,6 +136,25 @@ class AuthorizePipelineStepTest {
     assertThat(res4.statementId()).isEqualTo("stmt4");
   }
 
+  @Test
+  void executeAsync_WhenAsyncContributorCompletesLater_ThenAllow() {
+    CompletableFuture<AuthContextContributor.Result> contributed = new CompletableFuture<>();
+    AsyncAuthContextContributor contributor = input -> contributed;
+    AuthContext context = AuthContextBuilder.builder(baseContext)
+      .request(new AuthRequest(Set.of(new AuthRequestTarget("resources/resource1", "actions/action1"))))
+      .principals(Set.of("principals/p1"))
+      .profileContributors(List.of(contributor))
+      .build();
+
+    CompletableFuture<AuthPipelineStepResult> future = underTest.executeAsync(context);
+    assertThat(future.isDone()).isFalse();
+    contributed.complete(new AuthContextContributor.Result("id1", Set.of(Map.entry("r1", "resource1"))));
+
+    AuthPipelineStepResult res = future.join();
+    assertThat(res.status()).isEqualTo(AuthPipelineStepResultStatus.AUTHORIZED);
+    assertThat(res.statementId()).isEqualTo("stmt1");
+  }
+
   @Test
   void execute_WhenMatchedDenyRule_ThenDeny() {
     AuthContext context = AuthContextBuilder.builder(baseContext)
@@ -122,6 +168,298 @@ class AuthorizePipelineStepTest {
     assertThat(res5.statementId()).isEqualTo("stmt0");
   }
 
+  @Test
+  void execute_WhenNoContributor_ThenEnhanceWithProfileAttributes() {
+    AuthContext context = AuthContextBuilder.builder(baseContext)
+      .request(new AuthRequest(Set.of(new AuthRequestTarget("resources/resource1", "actions/action1"))))
+      .principals(Set.of("principals/p1"))
+      .profileAttributes(Set.of(Map.entry("r1", "resource1")))
+      .profileContributors(List.of())
+      .build();
+    AuthPipelineStepResult res = underTest.execute(context);
+    assertThat(res.status()).isEqualTo(AuthPipelineStepResultStatus.AUTHORIZED);
+    assertThat(res.statementId()).isEqualTo("stmt1");
+  }
+
+  @Test
+  void execute_WhenAllowAndDenyMatch_ThenDenyOverrides() {
+    AuthContext context = AuthContextBuilder.builder(baseContext)
+      .authStatementProvider(() -> List.of(readDocuments, denyBlocked))
+      .request(new AuthRequest(Set.of(new AuthRequestTarget("documents/doc1", "actions/read"))))
+      .principals(Set.of("principals/p1"))
+      .profileContributors(List.of(new TestAuthContextContributor("id1", Map.entry("blocked", "doc1"))))
+      .build();
+    AuthPipelineStepResult res = underTest.execute(context);
+    assertThat(res.status()).isEqualTo(AuthPipelineStepResultStatus.STOP);
+    assertThat(res.statementId()).isEqualTo("denyBlocked");
+  }
+
+  @Test
+  void execute_WhenFirstApplicable_ThenFirstMatchingStatementDecides() {
+    AuthorizePipelineStep firstApplicable = new AuthorizePipelineStep(
+      EvaluationOptions.defaults().withCombiningAlgorithm(CombiningAlgorithm.FIRST_APPLICABLE));
+    AuthContext context = AuthContextBuilder.builder(baseContext)
+      .authStatementProvider(() -> List.of(readDocuments, denyBlocked))
+      .request(new AuthRequest(Set.of(new AuthRequestTarget("documents/doc1", "actions/read"))))
+      .principals(Set.of("principals/p1"))
+      .profileContributors(List.of(new TestAuthContextContributor("id1", Map.entry("blocked", "doc1"))))
+      .build();
+    AuthPipelineStepResult res = firstApplicable.execute(context);
+    assertThat(res.status()).isEqualTo(AuthPipelineStepResultStatus.AUTHORIZED);
+    assertThat(res.statementId()).isEqualTo("readDocuments");
+  }
+
+  @Test
+  void execute_WhenNoDenyCanStillMatch_ThenAllowWithoutCallingContributors() {
+    AtomicInteger calls = new AtomicInteger();
+    AuthContextContributor ownerContributor = new AuthContextContributor() {
+      @Override
+      public Result contribute(AuthContext input) {
+        calls.incrementAndGet();
+        return new Result("owner", Set.of(Map.entry("owner", "doc1")));
+      }
+
+      @Override
+      public Set<String> requiredAttributes() {
+        return Set.of();
+      }
+
+      @Override
+      public Set<String> providedAttributes() {
+        return Set.of("owner");
+      }
+    };
+    AuthStatement writeOwned = AuthStatementModel.of(
+      List.of("documents/${owner}"),
+      List.of("principals/*"),
+      List.of("actions/*"),
+      AuthEffect.ALLOW,
+      "writeOwned");
+    AuthContext context = AuthContextBuilder.builder(baseContext)
+      .authStatementProvider(() -> List.of(writeOwned, readDocuments, denyBlocked))
+      .request(new AuthRequest(Set.of(new AuthRequestTarget("documents/doc1", "actions/read"))))
+      .principals(Set.of("principals/p1"))
+      .profileContributors(List.of(ownerContributor))
+      .build();
+    AuthPipelineStepResult res = underTest.execute(context);
+    assertThat(res.status()).isEqualTo(AuthPipelineStepResultStatus.AUTHORIZED);
+    assertThat(res.statementId()).isEqualTo("readDocuments");
+    // the DENY statement cannot be enhanced by the contributor, the ALLOW statement is final
+    assertThat(calls.get()).isEqualTo(0);
+  }
+
+  @Test
+  void execute_WhenMetricsConfigured_ThenReportDecisionsAndCacheLookups() {
+    MetricsRecorder metrics = new MetricsRecorder();
+    AuthorizePipelineStep measured = new AuthorizePipelineStep(EvaluationOptions.defaults()
+      .withDecisionCache(new DecisionCache(100, Duration.ofMinutes(1)))
+      .withMetrics(metrics));
+    // the same list, so the policy is compiled once and the decision stays cached
+    List<AuthStatement> statements = List.of(readDocuments, denyBlocked);
+    AuthContext context = AuthContextBuilder.builder(baseContext)
+      .authStatementProvider(() -> statements)
+      .request(new AuthRequest(Set.of(new AuthRequestTarget("documents/doc1", "actions/read"))))
+      .principals(Set.of("principals/p1"))
+      .profileContributors(List.of(new TestAuthContextContributor("id1", Map.entry("blocked", "doc1"))))
+      .build();
+
+    assertThat(measured.execute(context).statementId()).isEqualTo("denyBlocked");
+    assertThat(measured.execute(context).statementId()).isEqualTo("denyBlocked");
+
+    assertThat(metrics.cacheMissCount()).isEqualTo(1L);
+    assertThat(metrics.cacheHitCount()).isEqualTo(1L);
+    assertThat(metrics.decisionCount(AuthPipelineStepResultStatus.STOP)).isEqualTo(2L);
+    assertThat(metrics.decidingStatements()).isEqualTo(Map.of("denyBlocked", 2L));
+    // only the evaluated authorization scans the statements and calls the contributor
+    assertThat(metrics.evaluationCount()).isEqualTo(1L);
+    assertThat(metrics.candidateCount()).isEqualTo(2L);
+    // the ALLOW statement matches and is held, until the DENY statement matches and overrides it
+    assertThat(metrics.matchedCount()).isEqualTo(2L);
+    assertThat(metrics.contributorLatencies().get("id1").count()).isEqualTo(1L);
+  }
+
+  @Test
+  void execute_WhenContextTraced_ThenRecordRoundsMatchesAndDecision() {
+    DecisionTrace trace = new DecisionTrace();
+    AuthContext context = AuthContextBuilder.builder(baseContext)
+      .authStatementProvider(() -> List.of(readDocuments, denyBlocked))
+      .request(new AuthRequest(Set.of(new AuthRequestTarget("documents/doc1", "actions/read"))))
+      .principals(Set.of("principals/p1"))
+      .profileContributors(List.of(new TestAuthContextContributor("id1", Map.entry("blocked", "doc1"))))
+      .trace(trace)
+      .build();
+    AuthPipelineStepResult res = underTest.execute(context);
+
+    assertThat(res.context().trace()).isSameAs(trace);
+    assertThat(trace.status()).isEqualTo(AuthPipelineStepResultStatus.STOP);
+    assertThat(trace.statementId()).isEqualTo("denyBlocked");
+    assertThat(trace.cached()).isFalse();
+    assertThat(Set.copyOf(trace.candidates())).isEqualTo(Set.of("readDocuments", "denyBlocked"));
+    assertThat(trace.rounds().size()).isEqualTo(1);
+    assertThat(trace.rounds().get(0).contributorId()).isEqualTo("id1");
+    assertThat(trace.matches().stream().map(DecisionTrace.Match::statementId).toList())
+      .isEqualTo(List.of("readDocuments", "denyBlocked"));
+  }
+
+  @Test
+  void execute_WhenContextConstructedWithoutTrace_ThenNotTraced() {
+    AuthContext context = new AuthContext(Set.of("principals/p1"), () -> List.of(readDocuments, denyBlocked), null,
+                                          new AuthRequest(Set.of(new AuthRequestTarget("documents/doc1",
+                                                                                       "actions/read"))),
+                                          Set.of(), List.of(), Set.of(), List.of());
+    AuthPipelineStepResult res = underTest.execute(context);
+
+    assertThat(context.trace()).isNull();
+    assertThat(res.status()).isEqualTo(AuthPipelineStepResultStatus.AUTHORIZED);
+    assertThat(res.context().trace()).isNull();
+  }
+
+  @Test
+  void execute_WhenSampledDecisionSlow_ThenHandTraceToSink() {
+    List<DecisionTrace> slow = new ArrayList<>();
+    AuthorizePipelineStep sampling = new AuthorizePipelineStep(EvaluationOptions.defaults()
+      .withSlowDecisionSampler(new SlowDecisionSampler(1, Duration.ZERO, slow::add)));
+    AuthorizePipelineStep notSlow = new AuthorizePipelineStep(EvaluationOptions.defaults()
+      .withSlowDecisionSampler(new SlowDecisionSampler(1, Duration.ofHours(1), slow::add)));
+    AuthContext context = AuthContextBuilder.builder(baseContext)
+      .request(new AuthRequest(Set.of(new AuthRequestTarget("resources/admin", "actions/admin"))))
+      .principals(Set.of("groups/ADMIN"))
+      .profileContributors(List.of())
+      .build();
+
+    assertThat(notSlow.execute(context).status()).isEqualTo(AuthPipelineStepResultStatus.AUTHORIZED);
+    assertThat(slow.isEmpty()).isTrue();
+
+    AuthPipelineStepResult res = sampling.execute(context);
+    assertThat(res.status()).isEqualTo(AuthPipelineStepResultStatus.AUTHORIZED);
+    // the sampled trace is not part of the result
+    assertThat(res.context().trace()).isNull();
+    assertThat(slow.size()).isEqualTo(1);
+    assertThat(slow.get(0).statementId()).isEqualTo("stmt3");
+    assertThat(slow.get(0).principals()).isEqualTo(Set.of("groups/ADMIN"));
+  }
+
+  @Test
+  void execute_WhenAuditSinkConfigured_ThenRecordDecision() {
+    List<DecisionRecord> records = new ArrayList<>();
+    AuthorizePipelineStep audited = new AuthorizePipelineStep(EvaluationOptions.defaults()
+      .withAuditSink(records::add));
+    AuthContext context = AuthContextBuilder.builder(baseContext)
+      .authStatementProvider(() -> List.of(readDocuments, denyBlocked))
+      .request(new AuthRequest(Set.of(new AuthRequestTarget("documents/doc1", "actions/read"))))
+      .principals(Set.of("principals/p1"))
+      .profileContributors(List.of(new TestAuthContextContributor("id1", Map.entry("blocked", "doc1"))))
+      .build();
+    audited.execute(context);
+
+    assertThat(records.size()).isEqualTo(1);
+    DecisionRecord record = records.get(0);
+    assertThat(record.principals()).isEqualTo(Set.of("principals/p1"));
+    assertThat(record.targets()).isEqualTo(Set.of(new AuthRequestTarget("documents/doc1", "actions/read")));
+    assertThat(record.statementId()).isEqualTo("denyBlocked");
+    assertThat(record.effect()).isEqualTo(AuthEffect.DENY);
+    assertThat(record.cached()).isFalse();
+  }
+
+  @Test
+  void execute_WhenDecidingStatementHasNoIdentifier_ThenAuditItsEffect() {
+    List<DecisionRecord> records = new ArrayList<>();
+    AuthorizePipelineStep audited = new AuthorizePipelineStep(EvaluationOptions.defaults()
+      .withAuditSink(records::add));
+    AuthStatement anonymous = new AuthStatementV1(List.of("documents/*"), List.of("principals/*"),
+                                                  List.of("actions/read"), AuthEffect.DENY, null);
+    AuthContext context = AuthContextBuilder.builder(baseContext)
+      .authStatementProvider(() -> List.of(anonymous))
+      .request(new AuthRequest(Set.of(new AuthRequestTarget("documents/doc1", "actions/read"))))
+      .principals(Set.of("principals/p1"))
+      .profileContributors(List.of())
+      .build();
+    audited.execute(context);
+
+    assertThat(records.size()).isEqualTo(1);
+    assertThat(records.get(0).statementId()).isNull();
+    assertThat(records.get(0).effect()).isEqualTo(AuthEffect.DENY);
+  }
+
+  @Test
+  void execute_WhenVariableRepeatedWithDifferentValues_ThenNotAllow() {
+    AuthStatement sameTenant = AuthStatementModel.of(
+      List.of("tenants/${t}/users/${t}"), List.of("principals/*"), List.of("actions/read"), AuthEffect.ALLOW,
+      "sameTenant");
+    AuthContext context = AuthContextBuilder.builder(baseContext)
+      .authStatementProvider(() -> List.of(sameTenant))
+      .principals(Set.of("principals/p1"))
+      .profileContributors(List.of(new TestAuthContextContributor("id1", Map.entry("t", "A"), Map.entry("t", "B"))))
+      .build();
+
+    AuthPipelineStepResult mixed = underTest.execute(AuthContextBuilder.builder(context)
+      .request(new AuthRequest(Set.of(new AuthRequestTarget("tenants/A/users/B", "actions/read"))))
+      .build());
+    AuthPipelineStepResult same = underTest.execute(AuthContextBuilder.builder(context)
+      .request(new AuthRequest(Set.of(new AuthRequestTarget("tenants/B/users/B", "actions/read"))))
+      .build());
+
+    assertThat(mixed.status()).isNotEqualTo(AuthPipelineStepResultStatus.AUTHORIZED);
+    assertThat(same.status()).isEqualTo(AuthPipelineStepResultStatus.AUTHORIZED);
+  }
+
+  @Test
+  void execute_WhenVariableInPrincipalAndResource_ThenMatchWithSameValue() {
+    AuthStatement ownData = AuthStatementModel.of(
+      List.of("data/${u}/*"), List.of("users/${u}"), List.of("actions/read"), AuthEffect.ALLOW, "ownData");
+    AuthContext context = AuthContextBuilder.builder(baseContext)
+      .authStatementProvider(() -> List.of(ownData))
+      .principals(Set.of("users/alice"))
+      .profileContributors(List.of(new TestAuthContextContributor("id1", Map.entry("u", "alice"),
+                                                                  Map.entry("u", "bob"))))
+      .build();
+
+    AuthPipelineStepResult other = underTest.execute(AuthContextBuilder.builder(context)
+      .request(new AuthRequest(Set.of(new AuthRequestTarget("data/bob/file", "actions/read"))))
+      .build());
+    AuthPipelineStepResult own = underTest.execute(AuthContextBuilder.builder(context)
+      .request(new AuthRequest(Set.of(new AuthRequestTarget("data/alice/file", "actions/read"))))
+      .build());
+
+    assertThat(other.status()).isNotEqualTo(AuthPipelineStepResultStatus.AUTHORIZED);
+    assertThat(own.status()).isEqualTo(AuthPipelineStepResultStatus.AUTHORIZED);
+  }
+
+  @Test
+  void execute_WhenProviderVersionUnchanged_ThenReuseCompiledPolicy() {
+    AtomicReference<AuthDocument> document = new AtomicReference<>(new AuthDocument("v1", List.of(stmt3)));
+    AuthContext context = AuthContextBuilder.builder(baseContext)
+      .authStatementProvider((AuthDocumentProvider) document::get)
+      .request(new AuthRequest(Set.of(new AuthRequestTarget("resources/admin", "actions/admin"))))
+      .principals(Set.of("groups/ADMIN"))
+      .profileContributors(List.of())
+      .build();
+    assertThat(underTest.execute(context).status()).isEqualTo(AuthPipelineStepResultStatus.AUTHORIZED);
+
+    // statements changed without a new version, the compiled policy of v1 is still used
+    document.set(new AuthDocument("v1", List.of(stmt0)));
+    AuthPipelineStepResult res = underTest.execute(context);
+    assertThat(res.status()).isEqualTo(AuthPipelineStepResultStatus.AUTHORIZED);
+    assertThat(res.statementId()).isEqualTo("stmt3");
+  }
+
+  @Test
+  void execute_WhenProviderVersionChanged_ThenSwapCompiledPolicy() {
+    AtomicReference<AuthDocument> document = new AtomicReference<>(new AuthDocument("v1", List.of(stmt3)));
+    AuthContext context = AuthContextBuilder.builder(baseContext)
+      .authStatementProvider((AuthDocumentProvider) document::get)
+      .request(new AuthRequest(Set.of(new AuthRequestTarget("resources/admin", "actions/admin"))))
+      .principals(Set.of("groups/ADMIN"))
+      .profileContributors(List.of())
+      .build();
+    assertThat(underTest.execute(context).status()).isEqualTo(AuthPipelineStepResultStatus.AUTHORIZED);
+
+    document.set(new AuthDocument("v2", List.of(stmt1)));
+    AuthPipelineStepResult res = underTest.execute(context);
+    assertThat(res.status()).isEqualTo(AuthPipelineStepResultStatus.STOP);
+    assertThat(res.statementId()).isNull();
+  }
+
   private AuthStatement buildStatement(List<String> resources, List<String> principals, List<String> actions,
                                        AuthEffect effect, String identifier) {
     return AuthStatementPb.newBuilder()
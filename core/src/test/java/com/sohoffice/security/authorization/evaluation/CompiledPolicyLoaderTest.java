@@ -0,0 +1,103 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.AuthRequest;
+import com.sohoffice.security.authorization.AuthRequestTarget;
+import com.sohoffice.security.authorization.io.AuthEffect;
+import com.sohoffice.security.authorization.io.AuthStatement;
+import com.sohoffice.security.authorization.io.AuthStatementPb;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CompiledPolicyLoaderTest {
+
+  @Test
+  void loadDelimited_WhenParallel_ThenCompileInOrder() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < 9; i++) {
+      statement(i).writeDelimitedTo(out);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      CompiledPolicy policy = new CompiledPolicyLoader(executor, 3, 2)
+        .loadDelimited("v1", new ByteArrayInputStream(out.toByteArray()));
+
+      assertThat(policy.version()).isEqualTo("v1");
+      assertThat(policy.document().statements().stream().map(AuthStatement::getIdentifier).toList())
+        .isEqualTo(List.of("s0", "s1", "s2", "s3", "s4", "s5", "s6", "s7", "s8"));
+      // the DENY statements, every third one, rank first
+      assertThat(policy.rank(0, CombiningAlgorithm.DENY_OVERRIDES)).isEqualTo(0);
+      assertThat(policy.rank(1, CombiningAlgorithm.DENY_OVERRIDES)).isEqualTo(3);
+      assertThat(policy.rank(3, CombiningAlgorithm.DENY_OVERRIDES)).isEqualTo(1);
+      AuthRequest request = new AuthRequest(Set.of(new AuthRequestTarget("documents/4", "actions/read")));
+      assertThat(policy.candidates(Set.of("principals/p1"), request).stream()
+        .map(it -> it.statement().getIdentifier())
+        .toList()).isEqualTo(List.of("s4"));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void loadJsonLines_WhenBlankLines_ThenSkip() throws IOException {
+    String json = """
+      {"resources": ["documents/*"], "principals": ["principals/*"], "effect": "DENY", "identifier": "deny"}
+
+      {"resources": ["documents/${owned}"], "actions": ["actions/read"], "identifier": "owned"}
+      """;
+
+    CompiledPolicy policy = new CompiledPolicyLoader().loadJsonLines("v2", new StringReader(json));
+
+    assertThat(policy.document().statements().stream().map(AuthStatement::getIdentifier).toList())
+      .isEqualTo(List.of("deny", "owned"));
+    assertThat(policy.document().statements().get(0).getEffect()).isEqualTo(AuthEffect.DENY);
+    assertThat(policy.variableNames()).isEqualTo(Set.of("owned"));
+  }
+
+  @Test
+  void loadJsonLines_WhenInvalidStatement_ThenThrowWithPosition() {
+    String json = """
+      {"identifier": "valid"}
+      {"identifier": "invalid", "unknown": true}
+      """;
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      IOException e = assertThrows(IOException.class, () -> new CompiledPolicyLoader(executor, 2, 1)
+        .loadJsonLines("v1", new StringReader(json)));
+      assertThat(e.getMessage()).startsWith("Invalid statement #1");
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void loadDelimited_WhenTruncated_ThenThrowIOException() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    statement(0).writeDelimitedTo(out);
+    byte[] truncated = Arrays.copyOf(out.toByteArray(), out.size() - 1);
+
+    assertThrows(IOException.class, () -> new CompiledPolicyLoader()
+      .loadDelimited("v1", new ByteArrayInputStream(truncated)));
+  }
+
+  private static AuthStatementPb statement(int i) {
+    return AuthStatementPb.newBuilder()
+      .addResources("documents/" + i)
+      .addPrincipals("principals/*")
+      .addActions("actions/read")
+      .setEffect(i % 3 == 0 ? AuthEffect.DENY : AuthEffect.ALLOW)
+      .setIdentifier("s" + i)
+      .build();
+  }
+}
@@ -0,0 +1,155 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.*;
+import com.sohoffice.security.authorization.io.AuthEffect;
+import com.sohoffice.security.authorization.io.AuthStatement;
+import com.sohoffice.security.authorization.io.AuthStatementModel;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CompiledPolicySnapshotTest {
+
+  private final CompiledPolicy policy = CompiledPolicy.compile("v1", List.of(
+    AuthStatementModel.of(List.of("documents/*"), List.of("principals/*"), List.of("actions/read"),
+                          AuthEffect.ALLOW, "readDocuments"),
+    AuthStatementModel.of(List.of("documents/${blocked}"), List.of("principals/*"), List.of("actions/*"),
+                          AuthEffect.DENY, "denyBlocked"),
+    AuthStatementModel.of(List.of("admin/*", "admin/é/*.txt"), List.of("groups/ADMIN"),
+                          List.of("actions/read", "actions/é"), AuthEffect.ALLOW, "admin"),
+    AuthStatementModel.of(List.of("tenants/${tenant}/docs/*"), List.of("groups/${group}", "principals/p2"),
+                          List.of("actions/${verb}"), AuthEffect.ALLOW, "tenantDocs")));
+
+  @Test
+  void read_WhenWritten_ThenServeStatementsRanksAndCandidatesFromFile() throws IOException {
+    Path file = Files.createTempFile("policy", ".bin");
+    try {
+      CompiledPolicySnapshot.write(policy, file);
+      CompiledPolicy restored = CompiledPolicySnapshot.read(file);
+
+      assertThat(restored.index()).isInstanceOf(MappedPolicyIndex.class);
+      assertThat(restored.version()).isEqualTo("v1");
+      assertThat(restored.variableNames()).isEqualTo(Set.of("blocked", "tenant", "group", "verb"));
+      assertThat(restored.size()).isEqualTo(4);
+      for (int id = 0; id < policy.size(); id++) {
+        AuthStatement expected = policy.statement(id).statement();
+        AuthStatement actual = restored.statement(id).statement();
+        assertThat(actual.getIdentifier()).isEqualTo(expected.getIdentifier());
+        assertThat(actual.getEffect()).isEqualTo(expected.getEffect());
+        assertThat(actual.getResourcesList()).isEqualTo(expected.getResourcesList());
+        assertThat(actual.getPrincipalsList()).isEqualTo(expected.getPrincipalsList());
+        assertThat(actual.getActionsList()).isEqualTo(expected.getActionsList());
+        assertThat(restored.statement(id).variableNames()).isEqualTo(policy.statement(id).variableNames());
+        assertThat(restored.idOf(actual)).isEqualTo(id);
+        assertThat(restored.rank(id, CombiningAlgorithm.DENY_OVERRIDES))
+          .isEqualTo(policy.rank(id, CombiningAlgorithm.DENY_OVERRIDES));
+        assertThat(restored.hasStaticResources(id)).isEqualTo(policy.hasStaticResources(id));
+        assertThat(restored.hasStaticActions(id)).isEqualTo(policy.hasStaticActions(id));
+      }
+      AuthRequest request = new AuthRequest(Set.of(new AuthRequestTarget("documents/doc1", "actions/read")));
+      assertThat(restored.candidates(Set.of("principals/p1"), request).stream()
+        .map(it -> it.statement().getIdentifier())
+        .toList()).isEqualTo(List.of("readDocuments", "denyBlocked"));
+      // the statements sharing a template share the compiled expression
+      assertThat(restored.statement(0).principals().iterator().next())
+        .isSameAs(restored.statement(1).principals().iterator().next());
+      assertThat(restored.statement(0)).isSameAs(restored.statement(0));
+      assertThat(restored.idOf(policy.statement(0).statement())).isEqualTo(-1);
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  void lookup_WhenMapped_ThenSameMatchesAsCompiledPolicy() throws IOException {
+    Path file = Files.createTempFile("policy", ".bin");
+    try {
+      CompiledPolicySnapshot.write(policy, file);
+      CompiledPolicy restored = CompiledPolicySnapshot.read(file);
+      List<String> resources = List.of("documents/doc1", "documents/", "admin/x", "admin/é/a.txt", "admin/é/.txt",
+                                       "tenants/t1/docs/d1", "tenants", "", "other/doc1");
+      List<String> actions = List.of("actions/read", "actions/é", "actions/write", "");
+      List<Set<String>> principals = List.of(Set.of("principals/p1"), Set.of("groups/ADMIN"),
+                                             Set.of("principals/p2"), Set.of());
+
+      for (String resource : resources) {
+        for (String action : actions) {
+          for (Set<String> principal : principals) {
+            AuthRequest request = new AuthRequest(Set.of(new AuthRequestTarget(resource, action)));
+            PolicyLookup expected = policy.lookup(principal, request);
+            PolicyLookup actual = restored.lookup(principal, request);
+            assertThat(actual.statements().stream().map(it -> restored.idOf(it.statement())).toList())
+              .isEqualTo(expected.statements().stream().map(it -> policy.idOf(it.statement())).toList());
+            for (int id = 0; id < policy.size(); id++) {
+              assertThat(actual.resourceMatched(restored.statement(id)))
+                .isEqualTo(expected.resourceMatched(policy.statement(id)));
+              assertThat(actual.actionMatched(restored.statement(id)))
+                .isEqualTo(expected.actionMatched(policy.statement(id)));
+            }
+          }
+        }
+      }
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  void execute_WhenCompiledPolicyProvided_ThenEvaluateWithoutCompiling() throws IOException {
+    Path file = Files.createTempFile("policy", ".bin");
+    try {
+      CompiledPolicySnapshot.write(policy, file);
+      CompiledPolicy restored = CompiledPolicySnapshot.read(file);
+      AuthContext context = AuthContextBuilder.builder()
+        .principals(Set.of("principals/p1"))
+        .authStatementProvider((CompiledPolicyProvider) () -> restored)
+        .request(new AuthRequest(Set.of(new AuthRequestTarget("documents/doc1", "actions/read"))))
+        .requestAttributes(Set.of())
+        .requestContributors(List.of())
+        .profileAttributes(Set.of())
+        .profileContributors(List.of(new TestAuthContextContributor("id1", Map.entry("blocked", "doc1"))))
+        .build();
+
+      AuthPipelineStepResult res = new AuthorizePipelineStep().execute(context);
+
+      assertThat(res.status()).isEqualTo(AuthPipelineStepResultStatus.STOP);
+      assertThat(res.statementId()).isEqualTo("denyBlocked");
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  void write_WhenMapped_ThenCopySnapshot() throws IOException {
+    Path file = Files.createTempFile("policy", ".bin");
+    Path copy = Files.createTempFile("policy", ".bin");
+    try {
+      CompiledPolicySnapshot.write(policy, file);
+      CompiledPolicySnapshot.write(CompiledPolicySnapshot.read(file), copy);
+
+      assertThat(Files.readAllBytes(copy)).isEqualTo(Files.readAllBytes(file));
+    } finally {
+      Files.deleteIfExists(file);
+      Files.deleteIfExists(copy);
+    }
+  }
+
+  @Test
+  void read_WhenNotSnapshot_ThenThrowIOException() throws IOException {
+    Path file = Files.createTempFile("policy", ".bin");
+    try {
+      Files.writeString(file, "not a policy");
+      assertThrows(IOException.class, () -> CompiledPolicySnapshot.read(file));
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+}
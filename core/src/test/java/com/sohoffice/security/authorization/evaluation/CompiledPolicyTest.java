@@ -0,0 +1,70 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.AuthRequest;
+import com.sohoffice.security.authorization.AuthRequestTarget;
+import com.sohoffice.security.authorization.io.AuthEffect;
+import com.sohoffice.security.authorization.io.AuthStatementModel;
+import com.sohoffice.security.authorization.util.StringMatchableExpression;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompiledPolicyTest {
+
+  @Test
+  void compile_GivenStaticStatement_ThenMatchersAreCompiled() {
+    CompiledPolicy policy = CompiledPolicy.compile("v1", List.of(
+            AuthStatementModel.of(List.of("resources/*"), List.of("principals/p1"), List.of("actions/read"),
+                                  AuthEffect.ALLOW, "stmt1")));
+
+    assertThat(policy.version()).isEqualTo("v1");
+    assertThat(policy.statements()).hasSize(1);
+    AuthStatementToEvaluate statement = policy.statements().iterator().next();
+    assertThat(statement.isFullyEnhanced()).isTrue();
+    // compiled matchers can match without calling toMatchable()
+    assertThat(statement.resources().stream().allMatch(it -> it.matches("resources/foo"))).isTrue();
+    assertThat(statement.principals().stream().allMatch(it -> it.toMatchable() == it)).isTrue();
+  }
+
+  @Test
+  void compile_GivenDynamicStatement_ThenStaticPartsAreKeptAfterEnhance() {
+    CompiledPolicy policy = CompiledPolicy.compile(null, List.of(
+            AuthStatementModel.of(List.of("resources/${r1}"), List.of("principals/p1"), List.of("actions/read"),
+                                  AuthEffect.ALLOW, "stmt1")));
+    AuthStatementToEvaluate statement = policy.statements().iterator().next();
+    assertThat(statement.isFullyEnhanced()).isFalse();
+
+    AuthStatementToEvaluate enhanced = statement.enhance(Map.entry("r1", "resource1"));
+    assertThat(enhanced.isFullyEnhanced()).isTrue();
+    assertThat(enhanced.principals()).isEqualTo(statement.principals());
+    assertThat(enhanced.resources().stream()
+                       .map(StringMatchableExpression::toMatchable)
+                       .allMatch(it -> it.matches("resources/resource1"))).isTrue();
+  }
+
+  @Test
+  void candidates_GivenPrincipalsAndActions_ThenOnlyIntersectionIsReturned() {
+    CompiledPolicy policy = CompiledPolicy.compile("v1", List.of(
+            AuthStatementModel.of(List.of("resources/*"), List.of("group:admin"), List.of("actions/read"),
+                                  AuthEffect.ALLOW, "admin-read"),
+            AuthStatementModel.of(List.of("resources/*"), List.of("group:dev"), List.of("actions/read"),
+                                  AuthEffect.ALLOW, "dev-read"),
+            AuthStatementModel.of(List.of("resources/*"), List.of("group:admin"), List.of("actions/write"),
+                                  AuthEffect.ALLOW, "admin-write"),
+            AuthStatementModel.of(List.of("resources/*"), List.of("user:*"), List.of("actions/${action}"),
+                                  AuthEffect.ALLOW, "residual"),
+            AuthStatementModel.of(List.of("others/*"), List.of("group:admin"), List.of("actions/read"),
+                                  AuthEffect.ALLOW, "other-resource")));
+
+    Set<AuthStatementToEvaluate> candidates = policy.candidates(
+            Set.of("user:alice", "group:admin", "group:qa"),
+            new AuthRequest(Set.of(new AuthRequestTarget("resources/1", "actions/read"))));
+
+    assertThat(candidates.stream().map(it -> it.statement().getIdentifier()).toList())
+            .containsExactly("admin-read", "residual");
+  }
+}
@@ -0,0 +1,127 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.*;
+import com.sohoffice.security.authorization.io.AuthEffect;
+import com.sohoffice.security.authorization.io.AuthStatement;
+import com.sohoffice.security.authorization.io.AuthStatementModel;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DecisionCacheTest {
+
+  private final AtomicLong now = new AtomicLong();
+
+  private final List<AuthStatement> statements = List.of(AuthStatementModel.of(
+          List.of("resources/${r1}"), List.of("principals/p1"), List.of("actions/read"), AuthEffect.ALLOW, "stmt1"));
+
+  private final CompiledPolicy policy = CompiledPolicy.compile("v1", statements);
+
+  private AuthContext context(Set<Map.Entry<String, String>> profileAttributes) {
+    return AuthContextBuilder.builder()
+            .authStatementProvider(() -> statements)
+            .principals(Set.of("principals/p1"))
+            .request(new AuthRequest(Set.of(new AuthRequestTarget("resources/resource1", "actions/read"))))
+            .profileAttributes(new HashSet<>(profileAttributes))
+            .requestAttributes(new HashSet<>())
+            .profileContributors(List.of())
+            .build();
+  }
+
+  @Test
+  void get_WhenOnlyUnreferencedAttributesDiffer_ThenHit() {
+    DecisionCache underTest = new DecisionCache(10, Duration.ofMinutes(1), now::get);
+    DecisionCache.Key key1 = underTest.key(policy, context(Set.of(Map.entry("r1", "resource1"),
+                                                                      Map.entry("unused", "1"))));
+    DecisionCache.Key key2 = underTest.key(policy, context(Set.of(Map.entry("r1", "resource1"),
+                                                                      Map.entry("unused", "2"))));
+    DecisionCache.Key key3 = underTest.key(policy, context(Set.of(Map.entry("r1", "resource2"))));
+
+    assertThat(underTest.get(policy, key1)).isNull();
+    underTest.put(policy, key1, AuthPipelineStepResultStatus.AUTHORIZED, "stmt1", AuthEffect.ALLOW);
+
+    assertThat(underTest.get(policy, key2).statementId()).isEqualTo("stmt1");
+    assertThat(underTest.get(policy, key3)).isNull();
+    assertThat(underTest.hitCount()).isEqualTo(1L);
+    assertThat(underTest.missCount()).isEqualTo(2L);
+  }
+
+  @Test
+  void get_WhenExpired_ThenMiss() {
+    DecisionCache underTest = new DecisionCache(10, Duration.ofSeconds(1), now::get);
+    DecisionCache.Key key = underTest.key(policy, context(Set.of()));
+    underTest.put(policy, key, AuthPipelineStepResultStatus.STOP, null, null);
+
+    now.addAndGet(Duration.ofMillis(999).toNanos());
+    assertThat(underTest.get(policy, key)).isNotNull();
+    now.addAndGet(Duration.ofMillis(1).toNanos());
+    assertThat(underTest.get(policy, key)).isNull();
+    assertThat(underTest.size()).isEqualTo(0);
+  }
+
+  @Test
+  void get_WhenPolicyChanged_ThenMissAndEvictStaleDecision() {
+    DecisionCache underTest = new DecisionCache(10, Duration.ofMinutes(1), now::get);
+    DecisionCache.Key key = underTest.key(policy, context(Set.of()));
+    underTest.put(policy, key, AuthPipelineStepResultStatus.STOP, null, null);
+
+    CompiledPolicy policy2 = CompiledPolicy.compile("v2", statements);
+    assertThat(underTest.get(policy2, key)).isNull();
+    assertThat(underTest.size()).isEqualTo(0);
+  }
+
+  @Test
+  void get_WhenPoliciesAlternate_ThenKeepDecisionsOfEachPolicy() {
+    DecisionCache underTest = new DecisionCache(10, Duration.ofMinutes(1), now::get);
+    CompiledPolicy policy2 = CompiledPolicy.compile("v2", statements);
+    DecisionCache.Key key1 = underTest.key(policy, context(Set.of()));
+    DecisionCache.Key key2 = underTest.key(policy2, context(Set.of(Map.entry("r1", "resource1"))));
+    underTest.put(policy, key1, AuthPipelineStepResultStatus.STOP, null, null);
+    underTest.put(policy2, key2, AuthPipelineStepResultStatus.CONTINUE, null, null);
+
+    assertThat(underTest.get(policy, key1).status()).isEqualTo(AuthPipelineStepResultStatus.STOP);
+    assertThat(underTest.get(policy2, key2).status()).isEqualTo(AuthPipelineStepResultStatus.CONTINUE);
+  }
+
+  @Test
+  void put_WhenFull_ThenEvict() {
+    DecisionCache underTest = new DecisionCache(16, Duration.ofMinutes(1), now::get);
+    for (int i = 0; i < 100; i++) {
+      DecisionCache.Key key = underTest.key(policy, context(Set.of(Map.entry("r1", "resource" + i))));
+      underTest.put(policy, key, AuthPipelineStepResultStatus.STOP, null, null);
+    }
+    assertThat(underTest.size()).isLessThanOrEqualTo(16);
+  }
+
+  @Test
+  void execute_WhenDecisionCached_ThenContributorsAreNotCalled() {
+    DecisionCache cache = new DecisionCache(10, Duration.ofMinutes(1), now::get);
+    AuthorizePipelineStep step = new AuthorizePipelineStep(
+            EvaluationOptionsBuilder.builder().decisionCache(cache).build());
+    AtomicInteger calls = new AtomicInteger();
+    AuthContextContributor contributor = input -> {
+      calls.incrementAndGet();
+      return new AuthContextContributor.Result("c1", Set.of(Map.entry("r1", "resource1")));
+    };
+    AuthContext context = AuthContextBuilder.builder(context(Set.of()))
+            .profileContributors(List.of(contributor))
+            .build();
+
+    AuthPipelineStepResult res1 = step.execute(context);
+    AuthPipelineStepResult res2 = step.execute(context);
+
+    assertThat(res1.status()).isEqualTo(AuthPipelineStepResultStatus.AUTHORIZED);
+    assertThat(res2.status()).isEqualTo(AuthPipelineStepResultStatus.AUTHORIZED);
+    assertThat(res2.statementId()).isEqualTo("stmt1");
+    assertThat(calls.get()).isEqualTo(1);
+    assertThat(cache.hitCount()).isEqualTo(1L);
+  }
+}
@@ -1,6 +1,7 @@
 package com.sohoffice.security.authorization.evaluation;
 
 import com.sohoffice.security.authorization.*;
+import com.sohoffice.security.authorization.exceptions.ExpansionLimitExceededException;
 import org.junit.jupiter.api.Test;
 
 import java.util.HashSet;
@@ -9,6 +10,7 @@ import java.util.Map;
 import java.util.Set;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 /**
  * Unit tests of {@link EnhanceRequestPipelineStep}
@@ -87,4 +89,28 @@ class EnhanceRequestPipelineStepTest {
     assertThat(result.status())
             .isEqualTo(AuthPipelineStepResultStatus.CONTINUE);
   }
-}
\ No newline at end of file
+
+  @Test
+  void execute_WhenExpansionsExceedLimit_ThenThrow() {
+    ExpansionLimit limit = new ExpansionLimit(0);
+    EnhanceRequestPipelineStep limited = new EnhanceRequestPipelineStep(
+            EvaluationOptions.defaults().withExpansionLimit(limit));
+    AuthContext context = AuthContextBuilder.builder()
+            .request(new AuthRequest(Set.of(new AuthRequestTarget("names/${name}", "action1"))))
+            .requestContributors(List.of(contributor1, contributor2))
+            .requestAttributes(new HashSet<>())
+            .build();
+    assertThatThrownBy(() -> limited.execute(context))
+            .isInstanceOf(ExpansionLimitExceededException.class);
+    assertThat(limit.expansionCount())
+            .isEqualTo(1L);
+    assertThat(limit.exceededCount())
+            .isEqualTo(1L);
+  }
+
+  @Test
+  void defaults_ThenExpansionsNotLimited() {
+    assertThat(EvaluationOptions.defaults().expansionLimit())
+            .isNull();
+  }
+}
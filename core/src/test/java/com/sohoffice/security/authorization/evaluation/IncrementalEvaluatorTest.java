@@ -5,9 +5,15 @@ import com.sohoffice.security.authorization.util.*;
 import org.junit.jupiter.api.Test;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class IncrementalEvaluatorTest {
 
@@ -141,6 +147,188 @@ class IncrementalEvaluatorTest {
                           new AuthRequestTarget("resources/bar", "action1"));
   }
 
+  @Test
+  void evaluate_GivenDeclaredContributors_ThenContributeConcurrently() {
+    // Each contributor waits for the other, which never happens when they are called sequentially
+    CountDownLatch latch = new CountDownLatch(2);
+    Function<String, String> await = value -> {
+      latch.countDown();
+      try {
+        return latch.await(5, TimeUnit.SECONDS) ? value : "timeout";
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    };
+    IncrementalEvaluator<AuthRequestTargetToEvaluate, AuthRequestTargetToEvaluate> underTest = concurrent(List.of(
+            new DeclaredContributor("foo", Set.of(), input -> await.apply("bar")),
+            new DeclaredContributor("name", Set.of(), input -> await.apply("world"))));
+    AuthContext context = AuthContextBuilder.builder()
+            .request(new AuthRequest(Set.of(new AuthRequestTarget("resources/${foo}", "action1"),
+                                            new AuthRequestTarget("names/${name}", "action2"))))
+            .requestAttributes(new HashSet<>())
+            .build();
+
+    IncrementalEvaluator.Result<AuthRequestTargetToEvaluate, AuthRequestTargetToEvaluate> result = underTest.evaluate(
+            context);
+
+    assertThat(result.context().requestTargets())
+            .containsOnly(new AuthRequestTarget("resources/bar", "action1"),
+                          new AuthRequestTarget("names/world", "action2"));
+  }
+
+  @Test
+  void evaluate_GivenDependentDeclaredContributors_ThenContributeInDependencyOrder() {
+    IncrementalEvaluator<AuthRequestTargetToEvaluate, AuthRequestTargetToEvaluate> underTest = concurrent(List.of(
+            new DeclaredContributor("foo", Set.of(), input -> "bar"),
+            new DeclaredContributor("name", Set.of("foo"), input -> input.requestAttributes().stream()
+                    .filter(it -> it.getKey().equals("foo"))
+                    .map(it -> "from-" + it.getValue())
+                    .findFirst()
+                    .orElse("missing")),
+            contributor1));
+    AuthContext context = AuthContextBuilder.builder()
+            .request(new AuthRequest(Set.of(new AuthRequestTarget("names/${name}", "action1"))))
+            .requestAttributes(new HashSet<>())
+            .build();
+
+    IncrementalEvaluator.Result<AuthRequestTargetToEvaluate, AuthRequestTargetToEvaluate> result = underTest.evaluate(
+            context);
+
+    assertThat(result.context().requestTargets())
+            .containsOnly(new AuthRequestTarget("names/from-bar", "action1"),
+                          new AuthRequestTarget("names/world", "action1"));
+  }
+
+  @Test
+  void evaluateAsync_GivenAsyncAndSyncContributors_ThenSameAsEvaluate() {
+    AsyncAuthContextContributor asyncContributor = input -> CompletableFuture.supplyAsync(
+            () -> new AuthContextContributor.Result("async", Set.of(Map.entry("foo", "bar"))),
+            EvaluationOptions.VIRTUAL_THREADS);
+    IncrementalEvaluator<AuthRequestTargetToEvaluate, AuthRequestTargetToEvaluate> underTest = concurrent(
+            List.of(asyncContributor, contributor1));
+    AuthContext context = AuthContextBuilder.builder()
+            .request(new AuthRequest(Set.of(new AuthRequestTarget("resources/${foo}", "action1"),
+                                            new AuthRequestTarget("names/${name}", "action2"))))
+            .requestAttributes(new HashSet<>())
+            .build();
+
+    IncrementalEvaluator.Result<AuthRequestTargetToEvaluate, AuthRequestTargetToEvaluate> result = underTest
+            .evaluateAsync(context)
+            .join();
+
+    assertThat(result.context().requestTargets())
+            .containsOnly(new AuthRequestTarget("resources/bar", "action1"),
+                          new AuthRequestTarget("names/world", "action2"));
+    assertThat(underTest.evaluate(context).context().requestTargets())
+            .isEqualTo(result.context().requestTargets());
+  }
+
+  @Test
+  void evaluateAsync_WhenContributorFails_ThenCompleteExceptionally() {
+    IllegalStateException failure = new IllegalStateException("lookup failed");
+    AsyncAuthContextContributor failing = input -> CompletableFuture.failedFuture(failure);
+    AuthContext context = AuthContextBuilder.builder()
+            .request(new AuthRequest(Set.of(new AuthRequestTarget("resources/${foo}", "action1"))))
+            .requestAttributes(new HashSet<>())
+            .build();
+
+    CompletableFuture<IncrementalEvaluator.Result<AuthRequestTargetToEvaluate, AuthRequestTargetToEvaluate>> result =
+            concurrent(List.of(failing)).evaluateAsync(context);
+
+    assertThat(result.isCompletedExceptionally()).isTrue();
+    assertThatThrownBy(() -> Futures.join(result)).isSameAs(failure);
+  }
+
+  @Test
+  void evaluate_WhenNoPendingVariableIsProvided_ThenSkipContributor() {
+    AtomicInteger calls = new AtomicInteger();
+    AuthContextContributor unrelated = new DeclaredContributor("unrelated", Set.of(), input -> {
+      calls.incrementAndGet();
+      return "value";
+    });
+    AuthContext context = AuthContextBuilder.builder()
+            .request(new AuthRequest(Set.of(new AuthRequestTarget("resources/${foo}", "action1"))))
+            .requestAttributes(new HashSet<>())
+            .build();
+
+    IncrementalEvaluator.Result<AuthRequestTargetToEvaluate, AuthRequestTargetToEvaluate> result = concurrent(
+            List.of(unrelated, new DeclaredContributor("foo", Set.of(), input -> "bar"))).evaluate(context);
+
+    assertThat(result.context().requestTargets())
+            .containsOnly(new AuthRequestTarget("resources/bar", "action1"));
+    assertThat(calls.get()).isEqualTo(0);
+  }
+
+  @Test
+  void evaluate_WhenLaterContributorIsUndeclared_ThenKeepContributor() {
+    AtomicInteger calls = new AtomicInteger();
+    AuthContextContributor unrelated = new DeclaredContributor("unrelated", Set.of(), input -> {
+      calls.incrementAndGet();
+      return "value";
+    });
+    AuthContext context = AuthContextBuilder.builder()
+            .request(new AuthRequest(Set.of(new AuthRequestTarget("resources/${foo}", "action1"))))
+            .requestAttributes(new HashSet<>())
+            .build();
+
+    // contributor2 is undeclared and may read the unrelated attribute
+    concurrent(List.of(unrelated, contributor2)).evaluate(context);
+
+    assertThat(calls.get()).isEqualTo(1);
+  }
+
+  @Test
+  void evaluate_WhenVariablesContributedSeparately_ThenCombineInLaterRound() {
+    AuthContextContributor foo = input -> new AuthContextContributor.Result("foo", Set.of(Map.entry("foo", "bar")));
+    AuthContextContributor unrelated = input -> new AuthContextContributor.Result("unrelated",
+                                                                                  Set.of(Map.entry("x", "1")));
+    AuthContext context = AuthContextBuilder.builder()
+            .request(new AuthRequest(Set.of(new AuthRequestTarget("resources/${foo}/${name}", "action1"))))
+            .requestAttributes(new HashSet<>())
+            .build();
+
+    // resources/${foo}/world of the first round is enhanced again once foo is contributed
+    IncrementalEvaluator.Result<AuthRequestTargetToEvaluate, AuthRequestTargetToEvaluate> result =
+            concurrent(List.of(contributor1, foo, unrelated)).evaluate(context);
+
+    assertThat(result.context().requestTargets())
+            .containsOnly(new AuthRequestTarget("resources/bar/world", "action1"));
+  }
+
+  private IncrementalEvaluator<AuthRequestTargetToEvaluate, AuthRequestTargetToEvaluate> concurrent(
+          List<AuthContextContributor> contributors) {
+    return new IncrementalEvaluator<>(
+            new WithAccessor<>(ctx -> ctx.request().resourceTargets().stream()
+                    .map(it -> new AuthRequestTargetToEvaluate(new StringExpression(it.resource()),
+                                                               new StringExpression(it.action())))
+                    .collect(Collectors.toSet()), (ctx, targets) -> {
+              Set<AuthRequestTarget> results = targets.stream()
+                      .map(it -> new AuthRequestTarget(it.resource().getValue(), it.action().getValue()))
+                      .collect(Collectors.toSet());
+              return ctx.withRequest(new AuthRequest(results));
+            }),
+            new AttributesWithAccessor<>(AuthContext::requestAttributes, AuthContext::withRequestAttributes),
+            contributors,
+            new AlwaysContinueAdapter(),
+            EvaluationOptionsBuilder.builder().contributorExecutor(EvaluationOptions.VIRTUAL_THREADS).build());
+  }
+
+  /**
+   * A contributor providing a single attribute, computed from the input context.
+   */
+  private record DeclaredContributor(String key, Set<String> requiredAttributes,
+                                     Function<AuthContext, String> value) implements AuthContextContributor {
+    @Override
+    public Result contribute(AuthContext input) {
+      return new Result(key, Set.of(Map.entry(key, value.apply(input))));
+    }
+
+    @Override
+    public Set<String> providedAttributes() {
+      return Set.of(key);
+    }
+  }
+
   private static class AlwaysContinueAdapter implements IncrementalEvaluator.EvaluationResultAdapter<AuthRequestTargetToEvaluate, AuthRequestTargetToEvaluate> {
     @Override
     public TriStateBoolean isCompleted(AuthRequestTargetToEvaluate expression) {
@@ -0,0 +1,59 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InvertedIndexTest {
+
+  private final SymbolTable symbols = new SymbolTable();
+  private final InvertedIndex underTest = new InvertedIndex(symbols);
+
+  @Test
+  void collect_GivenLiteralValues_ThenReturnPostingsOfEachValue() {
+    underTest.add("group:admin", 0);
+    underTest.add("group:dev", 1);
+    underTest.add("group:admin", 2);
+
+    BitSet ids = new BitSet();
+    underTest.collect(List.of("group:admin", "group:unknown"), ids);
+
+    assertThat(ids).isEqualTo(BitSet.valueOf(new long[]{0b101}));
+    assertThat(symbols.size()).isEqualTo(2);
+  }
+
+  @Test
+  void collect_GivenPatterns_ThenAlwaysReturnResidual() {
+    underTest.add("user:*", 0);
+    underTest.add("user:${name}", 1);
+    underTest.add("group:dev", 2);
+
+    BitSet ids = new BitSet();
+    underTest.collect(List.of("group:admin"), ids);
+
+    assertThat(ids).isEqualTo(BitSet.valueOf(new long[]{0b011}));
+    assertThat(symbols.idOf("user:*")).isEqualTo(-1);
+  }
+
+  @Test
+  void collect_WhenEncoded_ThenReturnSamePostings() {
+    underTest.add("user:*", 0);
+    underTest.add("group:admin", 1);
+    underTest.add("group:dev", 2);
+    underTest.add("group:admin", 130);
+
+    MappedInvertedIndex mapped = new MappedInvertedIndex(ByteBuffer.wrap(underTest.encode()));
+
+    for (List<String> values : List.of(List.of("group:admin"), List.of("group:dev", "group:unknown"), List.<String>of())) {
+      BitSet expected = new BitSet();
+      underTest.collect(values, expected);
+      BitSet ids = new BitSet();
+      mapped.collect(values, ids);
+      assertThat(ids).as(values.toString()).isEqualTo(expected);
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MetricsRecorderTest {
+
+  @Test
+  void percentile_WhenLatenciesRecorded_ThenReturnUpperBoundOfBucket() {
+    MetricsRecorder.Histogram underTest = new MetricsRecorder.Histogram();
+    for (int i = 0; i < 99; i++) {
+      underTest.record(100);
+    }
+    underTest.record(5_000);
+
+    assertThat(underTest.count()).isEqualTo(100L);
+    assertThat(underTest.totalTime()).isEqualTo(Duration.ofNanos(99 * 100 + 5_000));
+    // 100 has 7 significant bits, its bucket ends at 127
+    assertThat(underTest.percentile(50)).isEqualTo(Duration.ofNanos(127));
+    assertThat(underTest.percentile(99)).isEqualTo(Duration.ofNanos(127));
+    // the last bucket is bounded by the maximum
+    assertThat(underTest.percentile(100)).isEqualTo(Duration.ofNanos(5_000));
+    assertThat(underTest.bucketCounts()[7]).isEqualTo(99L);
+  }
+
+  @Test
+  void percentile_WhenNothingRecorded_ThenZero() {
+    assertThat(new MetricsRecorder.Histogram().percentile(99)).isEqualTo(Duration.ZERO);
+  }
+
+  @Test
+  void stageCompleted_WhenSameStage_ThenRecordInSameHistogram() {
+    MetricsRecorder underTest = new MetricsRecorder();
+    underTest.stageCompleted("authorize", 10, AuthPipelineStepResultStatus.AUTHORIZED);
+    underTest.stageCompleted("authorize", 30, null);
+    underTest.stageCompleted("enhance-request", 20, AuthPipelineStepResultStatus.CONTINUE);
+
+    Map<String, MetricsRecorder.Histogram> latencies = underTest.stageLatencies();
+    assertThat(latencies.keySet()).isEqualTo(Set.of("authorize", "enhance-request"));
+    assertThat(latencies.get("authorize").count()).isEqualTo(2L);
+    assertThat(latencies.get("authorize").maxTime()).isEqualTo(Duration.ofNanos(30));
+  }
+}
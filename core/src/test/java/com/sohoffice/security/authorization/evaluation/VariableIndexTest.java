@@ -0,0 +1,34 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.util.StringExpression;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VariableIndexTest {
+
+  private final AuthRequestTargetToEvaluate foo = target("resources/${foo}", "actions/read");
+  private final AuthRequestTargetToEvaluate fooBar = target("resources/${foo}", "actions/${bar}");
+  private final AuthRequestTargetToEvaluate name = target("names/${name}", "actions/read");
+
+  private final VariableIndex<AuthRequestTargetToEvaluate> underTest = new VariableIndex<>(List.of(foo, fooBar, name));
+
+  @Test
+  void dependents_GivenVariables_ThenReturnExpressionsReferencingAny() {
+    assertThat(underTest.dependents(Set.of("foo"))).containsOnly(foo, fooBar);
+    assertThat(underTest.dependents(Set.of("bar", "name"))).containsOnly(fooBar, name);
+  }
+
+  @Test
+  void dependents_GivenUnreferencedVariables_ThenReturnNothing() {
+    assertThat(underTest.dependents(Set.of("unknown"))).isEmpty();
+    assertThat(underTest.dependents(Set.of())).isEmpty();
+  }
+
+  private static AuthRequestTargetToEvaluate target(String resource, String action) {
+    return new AuthRequestTargetToEvaluate(new StringExpression(resource), new StringExpression(action));
+  }
+}
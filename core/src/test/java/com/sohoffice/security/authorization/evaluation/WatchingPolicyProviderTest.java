@@ -0,0 +1,127 @@
+package com.sohoffice.security.authorization.evaluation;
+
+import com.sohoffice.security.authorization.io.AuthEffect;
+import com.sohoffice.security.authorization.io.AuthStatement;
+import com.sohoffice.security.authorization.io.AuthStatementPb;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class WatchingPolicyProviderTest {
+
+  @Test
+  void compiledPolicy_WhenFileReplaced_ThenPublishNewPolicy() throws Exception {
+    Path directory = Files.createTempDirectory("policy");
+    Path file = directory.resolve("policy.jsonl");
+    try {
+      Files.writeString(file, "{\"resources\": [\"documents/*\"], \"identifier\": \"v1\"}\n");
+      try (WatchingPolicyProvider underTest = new WatchingPolicyProvider(file, new CompiledPolicyLoader(),
+                                                                         Duration.ofMillis(50))) {
+        CompiledPolicy before = underTest.compiledPolicy();
+        assertThat(identifiers(before)).isEqualTo(List.of("v1"));
+
+        Path temporary = directory.resolve("policy.jsonl.tmp");
+        Files.writeString(temporary, "{\"identifier\": \"v2a\"}\n{\"identifier\": \"v2b\"}\n");
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (underTest.compiledPolicy() == before && System.nanoTime() < deadline) {
+          Thread.sleep(20);
+        }
+        assertThat(identifiers(underTest.compiledPolicy())).isEqualTo(List.of("v2a", "v2b"));
+        // the watch service may report the move as several changes
+        assertThat(underTest.reloadCount()).isGreaterThanOrEqualTo(1L);
+        // the evaluations holding the previous policy are not affected
+        assertThat(identifiers(before)).isEqualTo(List.of("v1"));
+      }
+    } finally {
+      delete(directory);
+    }
+  }
+
+  @Test
+  void reload_WhenDirectory_ThenCombinePolicyFilesByName() throws IOException {
+    Path directory = Files.createTempDirectory("policy");
+    try {
+      Files.writeString(directory.resolve("b.jsonl"), "{\"identifier\": \"b\"}\n");
+      Files.writeString(directory.resolve("notes.txt"), "not a policy");
+      try (WatchingPolicyProvider underTest = new WatchingPolicyProvider(directory, new CompiledPolicyLoader())) {
+        assertThat(identifiers(underTest.compiledPolicy())).isEqualTo(List.of("b"));
+
+        try (OutputStream out = Files.newOutputStream(directory.resolve("a.binpb"))) {
+          AuthStatementPb.newBuilder().setEffect(AuthEffect.DENY).setIdentifier("a").build().writeDelimitedTo(out);
+        }
+        CompiledPolicy reloaded = underTest.reload();
+
+        assertThat(identifiers(reloaded)).isEqualTo(List.of("a", "b"));
+        assertThat(underTest.compiledPolicy()).isSameAs(reloaded);
+      }
+    } finally {
+      delete(directory);
+    }
+  }
+
+  @Test
+  void reload_WhenInvalid_ThenKeepCurrentPolicy() throws IOException {
+    Path directory = Files.createTempDirectory("policy");
+    Path file = directory.resolve("policy.jsonl");
+    try {
+      Files.writeString(file, "{\"identifier\": \"valid\"}\n");
+      try (WatchingPolicyProvider underTest = new WatchingPolicyProvider(file, new CompiledPolicyLoader())) {
+        CompiledPolicy before = underTest.compiledPolicy();
+        Files.writeString(file, "{\"identifier\": ");
+
+        assertThrows(IOException.class, underTest::reload);
+        assertThat(underTest.compiledPolicy()).isSameAs(before);
+        assertThat(underTest.failureCount()).isGreaterThanOrEqualTo(1L);
+      }
+    } finally {
+      delete(directory);
+    }
+  }
+
+  @Test
+  void reload_WhenContentChangedWithSameModifiedTime_ThenChangeVersion() throws IOException {
+    Path directory = Files.createTempDirectory("policy");
+    Path file = directory.resolve("policy.jsonl");
+    try {
+      Files.writeString(file, "{\"identifier\": \"v1\"}\n");
+      FileTime modified = Files.getLastModifiedTime(file);
+      try (WatchingPolicyProvider underTest = new WatchingPolicyProvider(file, new CompiledPolicyLoader())) {
+        String before = underTest.compiledPolicy().version();
+        assertThat(underTest.reload().version()).isEqualTo(before);
+
+        Files.writeString(file, "{\"identifier\": \"v2\"}\n");
+        Files.setLastModifiedTime(file, modified);
+
+        assertThat(underTest.reload().version()).isNotEqualTo(before);
+      }
+    } finally {
+      delete(directory);
+    }
+  }
+
+  private static List<String> identifiers(CompiledPolicy policy) {
+    return policy.document().statements().stream().map(AuthStatement::getIdentifier).toList();
+  }
+
+  private static void delete(Path directory) throws IOException {
+    try (Stream<Path> paths = Files.walk(directory)) {
+      for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+        Files.deleteIfExists(path);
+      }
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package com.sohoffice.security.authorization.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AttributeBagTest {
+
+  @Test
+  void of_GivenMultiValuedAttributes_ThenGroupByKey() {
+    Set<Map.Entry<String, String>> attributes = Set.of(Map.entry("org", "b"), Map.entry("org", "a"),
+                                                       Map.entry("name", "foo"));
+    AttributeBag underTest = AttributeBag.of(attributes);
+    assertThat(underTest.keys())
+            .isEqualTo(List.of("name", "org"));
+    assertThat(underTest.values("org"))
+            .isEqualTo(List.of("a", "b"));
+    assertThat(underTest.values("missing"))
+            .isEmpty();
+    assertThat(underTest.contains(Map.entry("org", "a")))
+            .isTrue();
+    assertThat(underTest.contains(Map.entry("org", "c")))
+            .isFalse();
+    assertThat(underTest.size())
+            .isEqualTo(3);
+    assertThat(underTest)
+            .isEqualTo(attributes);
+    assertThat(attributes)
+            .isEqualTo(underTest);
+    assertThat(underTest.hashCode())
+            .isEqualTo(attributes.hashCode());
+  }
+
+  @Test
+  void with_GivenAttributes_ThenCombineIntoNewBag() {
+    AttributeBag underTest = AttributeBag.of(Set.of(Map.entry("org", "a")));
+    assertThat(underTest.with(Set.of(Map.entry("org", "a"))))
+            .isSameAs(underTest);
+
+    AttributeBag combined = underTest.with(Set.of(Map.entry("org", "b"), Map.entry("name", "foo")));
+    assertThat(combined.values("org"))
+            .isEqualTo(List.of("a", "b"));
+    assertThat(underTest.values("org"))
+            .isEqualTo(List.of("a"));
+    assertThat(combined.fingerprint())
+            .isNotEqualTo(underTest.fingerprint());
+    assertThat(combined.fingerprint())
+            .isEqualTo(AttributeBag.of(Set.copyOf(combined)).fingerprint());
+  }
+}
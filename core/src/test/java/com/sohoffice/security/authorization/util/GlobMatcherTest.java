@@ -0,0 +1,50 @@
+package com.sohoffice.security.authorization.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GlobMatcherTest {
+
+  @Test
+  void matches_GivenSegmentWildcards_ThenMatchSingleSegment() {
+    GlobMatcher underTest = new GlobMatcher("/orgs/*/projects/*");
+    assertTrue(underTest.matches("/orgs/1/projects/2"));
+    assertTrue(underTest.matches("/orgs/acme/projects/web-app"));
+    assertFalse(underTest.matches("/orgs/1/projects/"));
+    assertFalse(underTest.matches("/orgs//projects/2"));
+    assertFalse(underTest.matches("/orgs/1/2/projects/3"));
+    assertFalse(underTest.matches("/orgs/1/projects/2/tasks"));
+  }
+
+  @Test
+  void matches_GivenMultipleStarsInSegment_ThenMatchWithoutBacktracking() {
+    GlobMatcher underTest = new GlobMatcher("*a*a*a*b");
+    assertTrue(underTest.matches("xaxaxaxb"));
+    assertFalse(underTest.matches("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaac"));
+    assertFalse(underTest.matches("xaxa/xaxb"));
+  }
+
+  @Test
+  void matches_GivenConsecutiveStars_ThenRequireOneCharacterEach() {
+    GlobMatcher underTest = new GlobMatcher("a**b");
+    assertTrue(underTest.matches("axyb"));
+    assertFalse(underTest.matches("axb"));
+  }
+
+  @Test
+  void matches_GivenCustomSeparators_ThenStarStopsAtAnyOfThem() {
+    GlobMatcher underTest = new GlobMatcher("user:*", ":/");
+    assertTrue(underTest.matches("user:alice"));
+    assertFalse(underTest.matches("user:alice:admin"));
+    assertFalse(underTest.matches("user:alice/admin"));
+  }
+
+  @Test
+  void matches_GivenRegexCharacters_ThenMatchLiterally() {
+    GlobMatcher underTest = new GlobMatcher("files/*.txt");
+    assertTrue(underTest.matches("files/a.txt"));
+    assertFalse(underTest.matches("files/a-txt"));
+  }
+}
@@ -0,0 +1,83 @@
+package com.sohoffice.security.authorization.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MpscRingBufferTest {
+
+  @Test
+  void constructor_WhenCapacityNotPowerOfTwo_ThenRoundUp() {
+    assertThat(new MpscRingBuffer<String>(1).capacity()).isEqualTo(2);
+    assertThat(new MpscRingBuffer<String>(5).capacity()).isEqualTo(8);
+    assertThat(new MpscRingBuffer<String>(8).capacity()).isEqualTo(8);
+  }
+
+  @Test
+  void offer_WhenCapacityOne_ThenKeepEveryElement() {
+    MpscRingBuffer<String> underTest = new MpscRingBuffer<>(1);
+    assertThat(underTest.offer("a")).isTrue();
+    assertThat(underTest.offer("b")).isTrue();
+    assertThat(underTest.offer("c")).isFalse();
+    assertThat(underTest.poll()).isEqualTo("a");
+    assertThat(underTest.poll()).isEqualTo("b");
+  }
+
+  @Test
+  void offer_WhenFull_ThenRejectUntilPolled() {
+    MpscRingBuffer<String> underTest = new MpscRingBuffer<>(2);
+    assertThat(underTest.offer("a")).isTrue();
+    assertThat(underTest.offer("b")).isTrue();
+    assertThat(underTest.offer("c")).isFalse();
+
+    assertThat(underTest.poll()).isEqualTo("a");
+    assertThat(underTest.offer("c")).isTrue();
+    List<String> drained = new ArrayList<>();
+    assertThat(underTest.drain(drained::add, 10)).isEqualTo(2);
+    assertThat(drained).isEqualTo(List.of("b", "c"));
+    assertThat(underTest.poll()).isNull();
+    assertThat(underTest.isEmpty()).isTrue();
+  }
+
+  @Test
+  void offer_WhenConcurrentProducers_ThenConsumeEveryElementOnce() throws InterruptedException {
+    MpscRingBuffer<Integer> underTest = new MpscRingBuffer<>(64);
+    int producers = 4;
+    int perProducer = 10_000;
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    for (int p = 0; p < producers; p++) {
+      int base = p * perProducer;
+      threads.add(Thread.ofPlatform().start(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+        for (int i = 0; i < perProducer; i++) {
+          while (!underTest.offer(base + i)) {
+            Thread.onSpinWait();
+          }
+        }
+      }));
+    }
+    start.countDown();
+    Set<Integer> consumed = new HashSet<>();
+    while (consumed.size() < producers * perProducer) {
+      Integer element = underTest.poll();
+      if (element != null) {
+        assertThat(consumed.add(element)).isTrue();
+      }
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertThat(underTest.poll()).isNull();
+  }
+}
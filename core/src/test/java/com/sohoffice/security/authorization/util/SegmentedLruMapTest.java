@@ -0,0 +1,27 @@
+package com.sohoffice.security.authorization.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SegmentedLruMapTest {
+
+  @Test
+  void put_WhenMaximumSizeNotMultipleOfSegments_ThenRoundSegmentSizeUp() {
+    // 20 entries over 16 segments, each segment holds 2 entries. The keys 0, 16 and 32 share the first segment.
+    SegmentedLruMap<Integer, String> underTest = new SegmentedLruMap<>(20);
+    underTest.put(0, "a");
+    underTest.put(16, "b");
+
+    assertThat(underTest.get(0, it -> true)).isEqualTo("a");
+    assertThat(underTest.get(16, it -> true)).isEqualTo("b");
+
+    underTest.put(32, "c");
+
+    // 0 is the least recently used entry of the segment
+    assertThat(underTest.get(0, it -> true)).isNull();
+    assertThat(underTest.get(16, it -> true)).isEqualTo("b");
+    assertThat(underTest.get(32, it -> true)).isEqualTo("c");
+    assertThat(underTest.size()).isEqualTo(2);
+  }
+}
@@ -2,7 +2,9 @@ package com.sohoffice.security.authorization.util;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -33,6 +35,32 @@ class SimpleStringExpressionTest {
     assertEquals("Hello, ${name}!", expandable7.expand("foo", "bar"));
   }
 
+  @Test
+  void withAttributes_GivenMultipleVariables_ThenFillAllSlots() {
+    SimpleStringExpression underTest = new SimpleStringExpression("orgs/${org}/projects/${project}/${org}");
+    assertEquals(Set.of("org", "project"), underTest.getVariableNames());
+
+    SimpleStringExpression result = underTest.withAttributes(
+            List.of(Map.entry("unused", "x"), Map.entry("org", "o1"), Map.entry("project", "p1"),
+                    Map.entry("org", "o2")));
+    assertEquals("orgs/o1/projects/p1/o1", result.getValue());
+    assertFalse(result.isDynamic());
+    assertTrue(result.getVariableNames().isEmpty());
+  }
+
+  @Test
+  void withAttributes_GivenUnreferencedAttributes_ThenReturnSameInstance() {
+    SimpleStringExpression underTest = new SimpleStringExpression("Hello, ${name}!");
+    assertSame(underTest, underTest.withAttributes(Set.of(Map.entry("foo", "bar"))));
+    assertSame(underTest, underTest.withAttribute(Map.entry("foo", "bar")));
+
+    SimpleStringExpression partial = new SimpleStringExpression("${a}/${b}")
+            .withAttributes(Set.of(Map.entry("b", "2")));
+    assertEquals("${a}/2", partial.getValue());
+    assertTrue(partial.isDynamic());
+    assertEquals(Set.of("a"), partial.getVariableNames());
+  }
+
   @Test
   void equals() {
     SimpleStringExpression static1 = new SimpleStringExpression("Hello, world!");
@@ -48,4 +76,19 @@ class SimpleStringExpressionTest {
 
     assertNotEquals(dynamic1.withAttribute(Map.entry("name", "world")), dynamic2);
   }
+
+  @Test
+  void matches_GivenBoundValues_ThenMatchAnyCombination() {
+    SimpleStringExpression underTest = new SimpleStringExpression("orgs/${org}/projects/${project}");
+    Map<String, Set<String>> bindings = Map.of("org", Set.of("a", "b"), "project", Set.of("x", "y*"));
+    assertTrue(underTest.matches("orgs/b/projects/x", bindings, "/"));
+    assertTrue(underTest.matches("orgs/a/projects/yz", bindings, "/"));
+    assertFalse(underTest.matches("orgs/a/projects/y", bindings, "/"));
+    assertFalse(underTest.matches("orgs/a/projects/yz/1", bindings, "/"));
+    assertFalse(underTest.matches("orgs/c/projects/x", bindings, "/"));
+
+    SimpleStringExpression patterned = new SimpleStringExpression("files/*/${name}");
+    assertTrue(patterned.matches("files/1/foo", Map.of("name", Set.of("bar", "foo")), "/"));
+    assertFalse(patterned.matches("files/1/2/foo", Map.of("name", Set.of("bar", "foo")), "/"));
+  }
 }
@@ -0,0 +1,73 @@
+package com.sohoffice.security.authorization.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StringMatchableAutomatonTest {
+
+  private final StringMatchableAutomaton underTest = new StringMatchableAutomaton();
+
+  private BitSet matches(String target) {
+    BitSet ids = new BitSet();
+    underTest.matches(target, ids);
+    return ids;
+  }
+
+  @Test
+  void matches_GivenLiteralAndWildcardPatterns_ThenReportAllMatches() {
+    underTest.add("orgs/1/projects/2", 0);
+    underTest.add("orgs/*/projects/*", 1);
+    underTest.add("orgs/*", 2);
+    underTest.add("orgs/1/projects/a*", 3);
+
+    assertThat(matches("orgs/1/projects/2")).isEqualTo(BitSet.valueOf(new long[]{0b0011}));
+    assertThat(matches("orgs/1/projects/abc")).isEqualTo(BitSet.valueOf(new long[]{0b1010}));
+    assertThat(matches("orgs/1")).isEqualTo(BitSet.valueOf(new long[]{0b0100}));
+    assertThat(matches("orgs/1/projects/2/tasks").isEmpty()).isTrue();
+    assertThat(matches("orgs//projects/2")).isEqualTo(new BitSet());
+  }
+
+  @Test
+  void matches_GivenSegmentPatterns_ThenSameAsStringMatchable() {
+    underTest.add("files/*.txt", 0);
+
+    assertThat(matches("files/a.txt").get(0)).isEqualTo(new StringMatchable("files/*.txt").matches("files/a.txt"));
+    assertThat(matches("files/.txt").get(0)).isEqualTo(new StringMatchable("files/*.txt").matches("files/.txt"));
+    assertThat(matches("files/a/b.txt").get(0)).isFalse();
+  }
+
+  @Test
+  void matches_GivenPrefixes_ThenMatchAnyRemainder() {
+    underTest.addPrefix("orgs/*", 0);
+    underTest.addPrefix("", 1);
+
+    assertThat(matches("orgs/1/projects/2")).isEqualTo(BitSet.valueOf(new long[]{0b11}));
+    assertThat(matches("users/alice")).isEqualTo(BitSet.valueOf(new long[]{0b10}));
+  }
+
+  @Test
+  void matches_WhenEncoded_ThenReportSameIds() {
+    underTest.add("orgs/1/projects/2", 0);
+    underTest.add("orgs/*/projects/*", 1);
+    underTest.add("orgs/*", 2);
+    underTest.add("orgs/1/projects/a*", 3);
+    underTest.add("files/é/*.txt", 4);
+    underTest.add("", 5);
+    underTest.addPrefix("users/*", 6);
+    underTest.add("orgs/1/projects/2", 200);
+
+    MappedStringMatchableAutomaton mapped = new MappedStringMatchableAutomaton(ByteBuffer.wrap(underTest.encode()));
+
+    for (String target : List.of("orgs/1/projects/2", "orgs/1/projects/abc", "orgs/1", "orgs//projects/2",
+                                 "files/é/a.txt", "files/é/.txt", "files/e/a.txt", "", "users/alice/x", "users")) {
+      BitSet ids = new BitSet();
+      mapped.matches(target, ids);
+      assertThat(ids).as(target).isEqualTo(matches(target));
+    }
+  }
+}